@@ -0,0 +1,107 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.util.BFCalculator;
+import edu.grinnell.csc207.util.BFRegisterSet;
+import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.ExpressionCompiler;
+import edu.grinnell.csc207.util.ExpressionParser;
+import edu.grinnell.csc207.util.PrecedenceParser;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for end-to-end expression evaluation as done by {@link QuickCalculator} and
+ * {@link InteractiveCalculator}, with and without register lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+  /** The expression to evaluate. */
+  @Param({
+    "1/2 + 1/3",
+    "1/2 + 1/3 * 5/7 - 2/9 / 11/13",
+    "a + b",
+    "a * b + 1/3 - c / 5"
+  })
+  public String expression;
+
+  /** The calculator used for evaluation. */
+  private BFCalculator calculator;
+
+  /** The registers used for evaluation. */
+  private BFRegisterSet registers;
+
+  /** The compiler whose cache the compiled benchmark hits. */
+  private ExpressionCompiler compiler;
+
+  /** The precedence-mode compiler whose cache the compiled precedence benchmark hits. */
+  private ExpressionCompiler precedenceCompiler;
+
+  /** Builds the calculator and fills the registers the expressions refer to. */
+  @Setup
+  public void setUp() {
+    calculator = new BFCalculator();
+    registers = new BFRegisterSet();
+    compiler = new ExpressionCompiler();
+    precedenceCompiler = new ExpressionCompiler(ExpressionCompiler.DEFAULT_CAPACITY, true);
+    registers.store('a', new BigFraction("355/113"));
+    registers.store('b', new BigFraction("-22/7"));
+    registers.store('c', new BigFraction("1/1000"));
+  } // setUp()
+
+  /**
+   * Benchmarks the uncached evaluation path, which lexes and parses on every call.
+   *
+   * @return the result of the expression
+   */
+  @Benchmark
+  public BigFraction evaluate() {
+    return ExpressionParser.evaluate(expression, calculator, registers);
+  } // evaluate()
+
+  /**
+   * Benchmarks evaluation through a cached {@link ExpressionCompiler} plan, as the calculators
+   * now do.
+   *
+   * @return the result of the expression
+   */
+  @Benchmark
+  public BigFraction evaluateCompiled() {
+    return compiler.evaluate(expression, calculator, registers);
+  } // evaluateCompiled()
+
+  /**
+   * Benchmarks the uncached precedence path, which compiles a postfix plan on every call.
+   *
+   * @return the result of the expression
+   */
+  @Benchmark
+  public BigFraction evaluatePrecedence() {
+    return PrecedenceParser.evaluate(expression, calculator, registers);
+  } // evaluatePrecedence()
+
+  /**
+   * Benchmarks a cached postfix plan on its value stack.
+   *
+   * @return the result of the expression
+   */
+  @Benchmark
+  public BigFraction evaluatePrecedenceCompiled() {
+    return precedenceCompiler.evaluate(expression, calculator, registers);
+  } // evaluatePrecedenceCompiled()
+} // class ExpressionBenchmark
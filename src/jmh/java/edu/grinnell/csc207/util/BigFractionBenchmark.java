@@ -0,0 +1,275 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the per-operation cost of {@link BigFraction} arithmetic, parsing, and
+ * printing at several operand sizes. Run with {@code mvn -P benchmarks compile exec:exec}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BigFractionBenchmark {
+
+  /** Seed for the operand generator, fixed so that runs are comparable. */
+  private static final long SEED = 207;
+
+  /** The number of terms in the running-total benchmarks. */
+  private static final int TERM_COUNT = 256;
+
+  /** The largest denominator of a running-total term. */
+  private static final int TERM_DENOMINATOR = 12;
+
+  /** The size of the buffer reused by the binary benchmarks, enough for the largest operands. */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** Approximate bit length of each numerator and denominator. */
+  @Param({"32", "64", "256", "4096", "65536"})
+  public int bits;
+
+  /** The left operand. */
+  private BigFraction left;
+
+  /** The right operand. */
+  private BigFraction right;
+
+  /** The textual form of the left operand, for the parsing benchmark. */
+  private String leftText;
+
+  /** The terms of the running-total benchmarks, each over a small denominator. */
+  private BigFraction[] terms;
+
+  /** The builder reused by the printing benchmark. */
+  private final StringBuilder builder = new StringBuilder();
+
+  /** The buffer reused by the binary benchmarks. */
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /** The binary form of the left operand, for the binary reading benchmark. */
+  private ByteBuffer leftBinary;
+
+  /** The memo for the cached multiplication benchmark. */
+  private OperationCache cache;
+
+  /** Builds the operands for the current bit size. */
+  @Setup
+  public void setUp() {
+    Random random = new Random(SEED);
+    left = new BigFraction(randomInteger(random), randomInteger(random));
+    right = new BigFraction(randomInteger(random), randomInteger(random));
+    leftText = left.numerator() + "/" + left.denominator();
+    cache = new OperationCache();
+    leftBinary = ByteBuffer.allocate(BUFFER_SIZE);
+    left.writeTo(leftBinary);
+    leftBinary.flip();
+    terms = new BigFraction[TERM_COUNT];
+    for (int i = 0; i < TERM_COUNT; i++) {
+      BigInteger denominator = BigInteger.valueOf(1 + random.nextInt(TERM_DENOMINATOR));
+      terms[i] = new BigFraction(randomInteger(random), denominator);
+    } // for
+  } // setUp()
+
+  /**
+   * Generates a positive integer with exactly {@code bits - 1} bits, so that values at the
+   * 64-bit size still fit in a long.
+   *
+   * @param random the source of randomness
+   * @return the generated value
+   */
+  private BigInteger randomInteger(Random random) {
+    return new BigInteger(bits - 1, random).setBit(bits - 2);
+  } // randomInteger(Random)
+
+  /**
+   * Benchmarks addition.
+   *
+   * @return the sum
+   */
+  @Benchmark
+  public BigFraction add() {
+    return left.add(right);
+  } // add()
+
+  /**
+   * Benchmarks subtraction.
+   *
+   * @return the difference
+   */
+  @Benchmark
+  public BigFraction subtract() {
+    return left.subtract(right);
+  } // subtract()
+
+  /**
+   * Benchmarks multiplication.
+   *
+   * @return the product
+   */
+  @Benchmark
+  public BigFraction multiply() {
+    return left.multiply(right);
+  } // multiply()
+
+  /**
+   * Benchmarks a repeated multiplication through an {@link OperationCache}, which is answered from
+   * the cache at the sizes it caches and computed directly at the others.
+   *
+   * @return the product
+   */
+  @Benchmark
+  public BigFraction multiplyCached() {
+    return cache.apply('*', left, right);
+  } // multiplyCached()
+
+  /**
+   * Benchmarks division.
+   *
+   * @return the quotient
+   */
+  @Benchmark
+  public BigFraction divide() {
+    return left.divide(right);
+  } // divide()
+
+  /**
+   * Benchmarks parsing through {@link BigFraction#BigFraction(String)}.
+   *
+   * @return the parsed fraction
+   */
+  @Benchmark
+  public BigFraction parse() {
+    return new BigFraction(leftText);
+  } // parse()
+
+  /**
+   * Benchmarks printing a fresh fraction through {@link BigFraction#toString()}. The fraction is
+   * rebuilt each time so that the cached string form is not used.
+   *
+   * @return the printed fraction
+   */
+  @Benchmark
+  public String print() {
+    return BigFraction.ofReduced(left.numerator(), left.denominator()).toString();
+  } // print()
+
+  /**
+   * Benchmarks printing a fresh fraction into a reused builder with {@link
+   * BigFraction#appendTo(StringBuilder)}.
+   *
+   * @return the builder
+   */
+  @Benchmark
+  public StringBuilder printInto() {
+    builder.setLength(0);
+    BigFraction.ofReduced(left.numerator(), left.denominator()).appendTo(builder);
+    return builder;
+  } // printInto()
+
+  /**
+   * Benchmarks writing a fraction into a reused buffer with {@link
+   * BigFraction#writeTo(ByteBuffer)}.
+   *
+   * @return the buffer
+   */
+  @Benchmark
+  public ByteBuffer writeBinary() {
+    buffer.clear();
+    left.writeTo(buffer);
+    return buffer;
+  } // writeBinary()
+
+  /**
+   * Benchmarks reading a fraction with {@link BigFraction#readFrom(ByteBuffer)}, to compare with
+   * {@link #parse()}.
+   *
+   * @return the fraction read
+   */
+  @Benchmark
+  public BigFraction readBinary() {
+    return BigFraction.readFrom(leftBinary.duplicate());
+  } // readBinary()
+
+  /**
+   * Benchmarks one step of a running total in a {@link BFCalculator}.
+   *
+   * @return the calculator's value after the step
+   */
+  @Benchmark
+  public BigFraction calculatorStep() {
+    BFCalculator calculator = new BFCalculator();
+    calculator.add(left);
+    calculator.multiply(right);
+    return calculator.get();
+  } // calculatorStep()
+
+  /**
+   * Benchmarks a running total of many terms in a plain {@link BFCalculator}.
+   *
+   * @return the total
+   */
+  @Benchmark
+  public BigFraction runningTotal() {
+    return total(new BFCalculator());
+  } // runningTotal()
+
+  /**
+   * Benchmarks the same running total in accumulator mode.
+   *
+   * @return the total
+   */
+  @Benchmark
+  public BigFraction runningTotalAccumulator() {
+    return total(new BFCalculator(BFCalculator.DEFAULT_REDUCE_BITS));
+  } // runningTotalAccumulator()
+
+  /**
+   * Benchmarks the same total as a balanced tree of additions with {@link BigFractionArrays}.
+   *
+   * @return the total
+   */
+  @Benchmark
+  public BigFraction treeSum() {
+    return BigFractionArrays.sum(terms);
+  } // treeSum()
+
+  /**
+   * Benchmarks the same total grouped by denominator with {@link BigFraction#sum(Iterable)}.
+   *
+   * @return the total
+   */
+  @Benchmark
+  public BigFraction groupedSum() {
+    return BigFraction.sum(Arrays.asList(terms));
+  } // groupedSum()
+
+  /**
+   * Adds every term to a calculator.
+   *
+   * @param calculator the calculator
+   * @return the total
+   */
+  private BigFraction total(BFCalculator calculator) {
+    for (BigFraction term : terms) {
+      calculator.add(term);
+    } // for
+    return calculator.get();
+  } // total(BFCalculator)
+} // class BigFractionBenchmark
@@ -0,0 +1,125 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks comparing {@link LargeArithmetic} with plain {@link BigInteger} around the
+ * crossover thresholds. Pass other thresholds with {@code -p gcdThreshold=...} or {@code -p
+ * multiplyThreshold=...} to find the crossover on a given machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LargeArithmeticBenchmark {
+
+  /** Seed for the operand generator, fixed so that runs are comparable. */
+  private static final long SEED = 207;
+
+  /** Bit length of each operand. */
+  @Param({"8192", "32768", "131072", "524288"})
+  public int bits;
+
+  /** The GCD threshold under test. */
+  @Param({"32768"})
+  public int gcdThreshold;
+
+  /** The multiplication threshold under test. */
+  @Param({"131072"})
+  public int multiplyThreshold;
+
+  /** The first operand. */
+  private BigInteger left;
+
+  /** The second operand. */
+  private BigInteger right;
+
+  /** The first operand times the factor the second also has, so their GCD is not trivial. */
+  private BigInteger numerator;
+
+  /** Builds the operands and sets the thresholds. */
+  @Setup
+  public void setUp() {
+    Random random = new Random(SEED);
+    BigInteger common = new BigInteger(bits / 4, random);
+    left = new BigInteger(bits, random).setBit(bits - 1);
+    right = new BigInteger(bits, random).setBit(bits - 1);
+    numerator = left.multiply(common);
+    right = right.multiply(common);
+    LargeArithmetic.setGcdThreshold(gcdThreshold);
+    LargeArithmetic.setMultiplyThreshold(multiplyThreshold);
+  } // setUp()
+
+  /** Restores the default thresholds. */
+  @TearDown
+  public void tearDown() {
+    LargeArithmetic.setGcdThreshold(LargeArithmetic.DEFAULT_GCD_THRESHOLD);
+    LargeArithmetic.setMultiplyThreshold(LargeArithmetic.DEFAULT_MULTIPLY_THRESHOLD);
+  } // tearDown()
+
+  /**
+   * Benchmarks {@link BigInteger#gcd}.
+   *
+   * @return the GCD
+   */
+  @Benchmark
+  public BigInteger gcdPlain() {
+    return numerator.gcd(right);
+  } // gcdPlain()
+
+  /**
+   * Benchmarks {@link LargeArithmetic#gcd}.
+   *
+   * @return the GCD
+   */
+  @Benchmark
+  public BigInteger gcdHalf() {
+    return LargeArithmetic.gcd(numerator, right);
+  } // gcdHalf()
+
+  /**
+   * Benchmarks {@link BigInteger#multiply}.
+   *
+   * @return the product
+   */
+  @Benchmark
+  public BigInteger multiplyPlain() {
+    return left.multiply(right);
+  } // multiplyPlain()
+
+  /**
+   * Benchmarks {@link LargeArithmetic#multiply}.
+   *
+   * @return the product
+   */
+  @Benchmark
+  public BigInteger multiplyParallel() {
+    return LargeArithmetic.multiply(left, right);
+  } // multiplyParallel()
+
+  /**
+   * Benchmarks reducing a fraction, which goes through {@link LargeArithmetic#gcd}.
+   *
+   * @return the reduced fraction
+   */
+  @Benchmark
+  public BigFraction reduce() {
+    return new BigFraction(numerator, right);
+  } // reduce()
+} // class LargeArithmeticBenchmark
@@ -0,0 +1,486 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.util.BFCalculator;
+import edu.grinnell.csc207.util.BFRegisterSet;
+import edu.grinnell.csc207.util.ExpressionCompiler;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The CalculatorServer class serves InteractiveCalculator's line protocol over TCP: each line is an
+ * expression, a {@code STORE x} command, or {@code QUIT}, and each line but QUIT is answered with
+ * one line. Every connection is a separate session with its own BFCalculator and BFRegisterSet. No
+ * prompt is sent.
+ *
+ * <p>Sessions are multiplexed over a few event loops, each a thread with its own NIO selector, so
+ * an idle session costs a socket and a few small objects rather than a thread, and one node can
+ * hold tens of thousands of them. Each loop reads into one shared buffer, answers every complete
+ * line that arrived, and writes all of the answers at once. A session's buffers are kept only while
+ * it has a partial line or unsent output, and a session whose output is backed up is not read from
+ * until it drains.
+ */
+public class CalculatorServer {
+
+  /** The port used unless --port says otherwise. */
+  public static final int DEFAULT_PORT = 20207;
+
+  /** The option setting the port to listen on. */
+  private static final String PORT_OPTION = "--port";
+
+  /** The option setting the number of event loops. */
+  private static final String LOOPS_OPTION = "--loops";
+
+  /** The flag selecting operator precedence and parentheses. */
+  private static final String PRECEDENCE_OPTION = "--precedence";
+
+  /** The size of each event loop's shared read and write buffers. */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** The number of pending connections the listening socket queues, for bursts of clients. */
+  private static final int BACKLOG = 4096;
+
+  /** How long to wait before accepting again after a failure, such as running out of files. */
+  private static final long ACCEPT_RETRY_MILLIS = 100;
+
+  /** The longest line accepted; a session sending a longer one is closed. */
+  static final int MAX_LINE_LENGTH = 1 << 24;
+
+  /** The end-of-line sequence of replies. */
+  private static final byte[] LINE_SEPARATOR = {'\n'};
+
+  /** The listening socket. */
+  private final ServerSocketChannel server;
+
+  /** The event loops, to which new sessions are dealt in turn. */
+  private final List<EventLoop> loops = new ArrayList<>();
+
+  /** Whether stop has been called. */
+  private volatile boolean stopped;
+
+  /**
+   * Creates a server listening on an address. Nothing is accepted until run is called.
+   *
+   * @param address the address to listen on; port 0 picks a free port
+   * @param loopCount the number of event loops
+   * @param precedence whether expressions use operator precedence and parentheses
+   * @throws IOException if the address cannot be bound
+   * @throws IllegalArgumentException if loopCount is not positive
+   */
+  public CalculatorServer(InetSocketAddress address, int loopCount, boolean precedence)
+      throws IOException {
+    if (loopCount < 1) {
+      throw new IllegalArgumentException("A server needs at least one event loop.");
+    } // end of if
+    for (int i = 0; i < loopCount; i++) {
+      loops.add(new EventLoop(precedence));
+    } // end of for loop
+    server = ServerSocketChannel.open();
+    server.bind(address, BACKLOG);
+  } // End of CalculatorServer constructor
+
+  /**
+   * The main method runs a server until the process is killed.
+   *
+   * @param args command-line arguments: optionally --port N, --loops N and --precedence
+   */
+  public static void main(String[] args) {
+    int port = DEFAULT_PORT;
+    int loopCount = Runtime.getRuntime().availableProcessors();
+    boolean precedence = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals(PRECEDENCE_OPTION)) {
+        precedence = true;
+      } else if (args[i].equals(PORT_OPTION) && i + 1 < args.length) {
+        port = parseNumber(args[++i]);
+      } else if (args[i].equals(LOOPS_OPTION) && i + 1 < args.length) {
+        loopCount = parseNumber(args[++i]);
+      } else {
+        System.err.println("Unknown option " + args[i]);
+        return;
+      } // end of else
+    } // end of for loop
+    if (port < 0 || loopCount < 1) {
+      System.err.println("Invalid " + PORT_OPTION + " or " + LOOPS_OPTION);
+      return;
+    } // end of if
+    try {
+      CalculatorServer calculatorServer =
+          new CalculatorServer(new InetSocketAddress(port), loopCount, precedence);
+      System.err.println("Listening on port " + calculatorServer.getPort());
+      calculatorServer.run();
+    } catch (IOException e) {
+      System.err.println("Cannot serve on port " + port + ": " + e.getMessage());
+    } // end of catch
+  } // End of main method
+
+  /**
+   * Returns the port the server listens on, which is useful after binding to port 0.
+   *
+   * @return the local port
+   * @throws IOException if the socket has been closed
+   */
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) server.getLocalAddress()).getPort();
+  } // End of getPort method
+
+  /**
+   * Starts the event loops and accepts connections on the calling thread until stop is called.
+   * Every open session is closed before this returns, as it is if the calling thread is
+   * interrupted while waiting to retry a failed accept.
+   *
+   * @throws IOException if the listening socket cannot be closed
+   */
+  public void run() throws IOException {
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < loops.size(); i++) {
+      Thread thread = new Thread(loops.get(i), "calculator-loop-" + i);
+      thread.start();
+      threads.add(thread);
+    } // end of for loop
+    try {
+      int next = 0;
+      while (!stopped) {
+        SocketChannel channel;
+        try {
+          channel = server.accept();
+        } catch (ClosedChannelException e) {
+          break; // stop closed the listening socket
+        } catch (IOException e) {
+          // Usually out of file descriptors; the open sessions carry on meanwhile
+          System.err.println("Cannot accept a connection: " + e.getMessage());
+          Thread.sleep(ACCEPT_RETRY_MILLIS);
+          continue;
+        } // end of catch
+        loops.get(next).add(channel);
+        next = (next + 1) % loops.size();
+      } // end of while loop
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      stop();
+      for (Thread thread : threads) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } // end of catch
+      } // end of for loop
+    } // end of finally
+  } // End of run method
+
+  /**
+   * Stops accepting connections and makes run close every session and return. May be called from
+   * any thread.
+   *
+   * @throws IOException if the listening socket cannot be closed
+   */
+  public void stop() throws IOException {
+    stopped = true;
+    server.close();
+    for (EventLoop loop : loops) {
+      loop.selector.wakeup();
+    } // end of for loop
+  } // End of stop method
+
+  /**
+   * Parses the value of a numeric option.
+   *
+   * @param value the option's value
+   * @return the number, or -1 if the value is not a number
+   */
+  private static int parseNumber(String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    } // end of catch
+  } // End of parseNumber method
+
+  /** One thread's selector and the sessions registered with it. */
+  private final class EventLoop implements Runnable {
+
+    /** The selector of this loop's sessions. */
+    private final Selector selector;
+
+    /** Accepted connections waiting to be registered with the selector. */
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+    /** The expression cache shared by this loop's sessions; only this loop's thread uses it. */
+    private final ExpressionCompiler compiler;
+
+    /** The buffer that sessions without a partial line read into. */
+    private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** The buffer that replies are gathered in before writing; grown for long replies. */
+    private ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Creates an event loop.
+     *
+     * @param precedence whether expressions use operator precedence and parentheses
+     * @throws IOException if the selector cannot be opened
+     */
+    EventLoop(boolean precedence) throws IOException {
+      this.selector = Selector.open();
+      this.compiler = new ExpressionCompiler(ExpressionCompiler.DEFAULT_CAPACITY, precedence);
+    } // End of EventLoop constructor
+
+    /**
+     * Hands a new connection to this loop.
+     *
+     * @param channel the connection
+     */
+    void add(SocketChannel channel) {
+      accepted.add(channel);
+      selector.wakeup();
+    } // End of add method
+
+    /** Serves sessions until the server stops, then closes them all. */
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          selector.select();
+          registerAccepted();
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            try {
+              if (key.isReadable()) {
+                read(key);
+              } else if (key.isWritable()) {
+                drain(key);
+              } // end of else
+            } catch (IOException | RuntimeException e) {
+              // The client went away, or its line failed in a way no reply covers; either way
+              // only this session ends, and the shared buffers are reset for the next one
+              input.clear();
+              output.clear();
+              close(key);
+            } // end of catch
+          } // end of while loop
+        } // end of while loop
+      } catch (IOException e) {
+        System.err.println("Event loop failed: " + e.getMessage());
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          close(key);
+        } // end of for loop
+        for (SocketChannel channel = accepted.poll(); channel != null; channel = accepted.poll()) {
+          closeQuietly(channel);
+        } // end of for loop
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // Nothing more to release
+        } // end of catch
+      } // end of finally
+    } // End of run method
+
+    /**
+     * Registers the connections accepted since the last pass, each with a fresh session.
+     *
+     * @throws IOException if a connection cannot be made non-blocking
+     */
+    private void registerAccepted() throws IOException {
+      for (SocketChannel channel = accepted.poll(); channel != null; channel = accepted.poll()) {
+        try {
+          channel.configureBlocking(false);
+          channel.register(selector, SelectionKey.OP_READ, new Session());
+        } catch (ClosedChannelException e) {
+          // The client hung up before it was registered
+        } // end of catch
+      } // end of for loop
+    } // End of registerAccepted method
+
+    /**
+     * Reads what a session has sent, answers every complete line, and writes the answers.
+     *
+     * @param key the session's key
+     * @throws IOException if the connection fails
+     */
+    private void read(SelectionKey key) throws IOException {
+      SocketChannel channel = (SocketChannel) key.channel();
+      Session session = (Session) key.attachment();
+      ByteBuffer buffer = (session.partial != null) ? session.partial : input;
+      if (!buffer.hasRemaining()) {
+        if (buffer.capacity() >= MAX_LINE_LENGTH) {
+          close(key);
+          return;
+        } // end of if
+        buffer = grow(buffer, buffer.capacity() * 2);
+      } // end of if
+      int count = channel.read(buffer);
+      boolean ended = count < 0;
+      int consumed = answerLines(session, buffer, ended);
+      if (session.quitting || ended || consumed == buffer.position()) {
+        session.partial = null;
+      } else if (buffer != input && consumed == 0) {
+        session.partial = buffer; // Still one line, perhaps in a grown buffer
+      } else {
+        int leftover = buffer.position() - consumed;
+        session.partial = ByteBuffer.allocate(Math.max(leftover * 2, BUFFER_SIZE / Byte.SIZE));
+        session.partial.put(buffer.array(), consumed, leftover);
+      } // end of else
+      input.clear();
+      session.quitting |= ended;
+      write(key, channel, session);
+    } // End of read method
+
+    /**
+     * Answers each complete line in a buffer into the shared output buffer.
+     *
+     * @param session the session that sent the lines
+     * @param buffer the bytes read, in write mode
+     * @param ended whether the client has closed its side, making the last line complete
+     * @return the number of bytes consumed
+     */
+    private int answerLines(Session session, ByteBuffer buffer, boolean ended) {
+      byte[] bytes = buffer.array();
+      int end = buffer.position();
+      int lineStart = 0;
+      for (int i = 0; i <= end && !session.quitting; i++) {
+        if ((i < end) ? (bytes[i] == '\n') : (ended && lineStart < end)) {
+          String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+          lineStart = Math.min(i + 1, end);
+          if (line.equalsIgnoreCase(InteractiveCalculator.QUIT_COMMAND)) {
+            session.quitting = true;
+          } else {
+            put(
+                InteractiveCalculator.respond(line, session.calculator, session.registers, compiler)
+                    .getBytes(StandardCharsets.UTF_8));
+            put(LINE_SEPARATOR);
+          } // end of else
+        } // end of if
+      } // end of for loop
+      return lineStart;
+    } // End of answerLines method
+
+    /**
+     * Writes a session's unsent output, then the shared output buffer, keeping whatever the socket
+     * does not take as the session's unsent output.
+     *
+     * @param key the session's key
+     * @param channel the session's connection
+     * @param session the session
+     * @throws IOException if the connection fails
+     */
+    private void write(SelectionKey key, SocketChannel channel, Session session)
+        throws IOException {
+      if (session.unsent != null) {
+        channel.write(session.unsent);
+        if (!session.unsent.hasRemaining()) {
+          session.unsent = null;
+        } // end of if
+      } // end of if
+      output.flip();
+      if (session.unsent == null) {
+        channel.write(output);
+      } // end of if
+      if (output.hasRemaining()) {
+        int pending = (session.unsent == null) ? 0 : session.unsent.remaining();
+        ByteBuffer unsent = ByteBuffer.allocate(pending + output.remaining());
+        if (session.unsent != null) {
+          unsent.put(session.unsent);
+        } // end of if
+        session.unsent = unsent.put(output).flip();
+      } // end of if
+      output.clear();
+      if (session.unsent != null) {
+        key.interestOps(SelectionKey.OP_WRITE); // Stop reading until the client catches up
+      } else if (session.quitting) {
+        close(key);
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      } // end of else
+    } // End of write method
+
+    /**
+     * Writes more of a session's unsent output once its socket has room.
+     *
+     * @param key the session's key
+     * @throws IOException if the connection fails
+     */
+    private void drain(SelectionKey key) throws IOException {
+      write(key, (SocketChannel) key.channel(), (Session) key.attachment());
+    } // End of drain method
+
+    /**
+     * Appends bytes to the shared output buffer, growing it if necessary.
+     *
+     * @param bytes the bytes
+     */
+    private void put(byte[] bytes) {
+      if (output.remaining() < bytes.length) {
+        output = grow(output, Math.max(output.capacity() * 2, output.position() + bytes.length));
+      } // end of if
+      output.put(bytes);
+    } // End of put method
+
+    /**
+     * Closes a session's connection and cancels its key.
+     *
+     * @param key the session's key
+     */
+    private void close(SelectionKey key) {
+      key.cancel();
+      closeQuietly((SocketChannel) key.channel());
+    } // End of close method
+  } // End of EventLoop class
+
+  /**
+   * Copies a buffer in write mode into a larger one.
+   *
+   * @param buffer the buffer
+   * @param capacity the new capacity
+   * @return the larger buffer, in write mode, holding the same bytes
+   */
+  private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+    return ByteBuffer.allocate(capacity).put(buffer.flip());
+  } // End of grow method
+
+  /**
+   * Closes a connection, ignoring failures.
+   *
+   * @param channel the connection
+   */
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // The connection is gone either way
+    } // end of catch
+  } // End of closeQuietly method
+
+  /** The state of one connection. */
+  private static final class Session {
+
+    /** The calculator that evaluates this session's expressions. */
+    private final BFCalculator calculator = new BFCalculator();
+
+    /** The registers that this session's STORE commands write. */
+    private final BFRegisterSet registers = new BFRegisterSet();
+
+    /** The start of a line not yet complete, in write mode, or null if there is none. */
+    private ByteBuffer partial;
+
+    /** Output the socket has not yet taken, in read mode, or null if there is none. */
+    private ByteBuffer unsent;
+
+    /** Whether the session has sent QUIT or closed its side, so it ends once output drains. */
+    private boolean quitting;
+  } // End of Session class
+} // End of CalculatorServer class
@@ -3,164 +3,256 @@ package edu.grinnell.csc207.main;
 import edu.grinnell.csc207.util.BFCalculator;
 import edu.grinnell.csc207.util.BFRegisterSet;
 import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.ExpressionCompiler;
+import edu.grinnell.csc207.util.PersistentBFRegisterSet;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.math.BigInteger;
-import java.util.Scanner;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 
 /**
  * The InteractiveCalculator class provides a REPL (Read-Eval-Print Loop) interface to perform
  * calculations with fractions using BigFraction and BFCalculator. It supports addition,
  * subtraction, multiplication, division, and storing values in registers.
+ *
+ * <p>With {@code --registers DIR} the registers are kept in a write-ahead log in DIR, so stored
+ * values survive a restart. With {@code --precedence}, '*' and '/' bind more tightly than '+' and
+ * '-' and parentheses may be used; otherwise expressions are evaluated strictly left to right.
+ *
+ * <p>Input is pipelined: while more complete lines are already waiting, they are evaluated and
+ * their results buffered, and the output is flushed only once no complete line is waiting, so a
+ * client that pipes in many commands gets their results in a few large writes. A partial line
+ * that has arrived without its newline does not hold back the replies to the lines before it. The "> " prompt is only
+ * shown when running at a terminal.
  */
 public class InteractiveCalculator {
 
+  /** The option naming a directory for durable registers. */
+  private static final String REGISTERS_OPTION = "--registers";
+
+  /** The flag selecting operator precedence and parentheses. */
+  private static final String PRECEDENCE_OPTION = "--precedence";
+
+  /** The command that ends a session. */
+  static final String QUIT_COMMAND = "QUIT";
+
   /**
    * The main method runs the interactive calculator, accepting input from the user, processing
    * commands or expressions, and displaying results.
    *
-   * @param args command-line arguments (not used in this implementation)
+   * @param args command-line arguments: optionally --registers DIR and --precedence
    */
   public static void main(String[] args) {
-    Scanner scanner = new Scanner(System.in);
-    PrintWriter output = new PrintWriter(System.out, true); // PrintWriter for output
-
-    BFCalculator calculator = new BFCalculator();
-    BFRegisterSet registers = new BFRegisterSet();
-    String input;
-
-    while (true) {
-      output.print("> ");
-      output.flush();
-      input = scanner.nextLine().trim();
-
-      if (input.equalsIgnoreCase("QUIT")) {
-        break;
-      } else if (input.startsWith("STORE ")) {
-        handleStoreCommand(input, registers, calculator, output);
+    String registersDir = null;
+    boolean precedence = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals(PRECEDENCE_OPTION)) {
+        precedence = true;
+      } else if (args[i].equals(REGISTERS_OPTION) && i + 1 < args.length) {
+        registersDir = args[++i];
       } else {
-        try {
-          BigFraction result = evaluateExpression(input, calculator, registers);
-          output.println(formatOutput(result));
-        } catch (IllegalArgumentException e) {
-          output.println(e.getMessage());
-        } // end of catch
+        System.err.println("Unknown option " + args[i]);
+        return;
       } // end of else
-    } // end of while loop
-    scanner.close();
+    } // end of for loop
+    BFRegisterSet registers;
+    if (registersDir != null) {
+      try {
+        registers = new PersistentBFRegisterSet(Paths.get(registersDir));
+      } catch (IOException e) {
+        System.err.println("Cannot open registers in " + registersDir + ": " + e.getMessage());
+        return;
+      } // end of catch
+    } else {
+      registers = new BFRegisterSet();
+    } // end of else
+    LineReader input = new LineReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    PrintWriter output = // Flushed only once the pending input is used up
+        new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+    boolean prompt = System.console() != null; // Only prompt a person at a terminal
+
+    BFCalculator calculator = new BFCalculator();
+    ExpressionCompiler compiler = // Caches parsed expressions
+        new ExpressionCompiler(ExpressionCompiler.DEFAULT_CAPACITY, precedence);
+
+    try {
+      while (true) {
+        if (!input.hasLine()) {
+          // No complete line is buffered, so answer everything so far before waiting
+          if (prompt) {
+            output.print("> ");
+          } // end of if
+          output.flush();
+        } // end of if
+        String line = input.readLine();
+        if (line == null || line.trim().equalsIgnoreCase(QUIT_COMMAND)) {
+          break;
+        } // end of if
+        output.println(respond(line.trim(), calculator, registers, compiler));
+      } // end of while loop
+    } catch (IOException e) {
+      System.err.println("Cannot read input: " + e.getMessage());
+    } // end of catch
+    output.flush();
+    if (registers instanceof PersistentBFRegisterSet) {
+      try {
+        ((PersistentBFRegisterSet) registers).close(); // Commits the last stores
+      } catch (IOException e) {
+        System.err.println("Cannot save registers: " + e.getMessage());
+      } // end of catch
+    } // end of if
     output.close();
   } // end of method
 
+  /**
+   * Runs one expression or STORE command and returns the line to print in reply. The network server
+   * answers its sessions through this too, so both speak the same protocol.
+   *
+   * @param input the trimmed command line, other than QUIT
+   * @param calculator the BFCalculator that evaluates expressions
+   * @param registers the BFRegisterSet that STORE commands write
+   * @param compiler the ExpressionCompiler that caches parsed expressions
+   * @return the reply
+   */
+  static String respond(
+      String input, BFCalculator calculator, BFRegisterSet registers, ExpressionCompiler compiler) {
+    if (input.startsWith("STORE ")) {
+      return handleStoreCommand(input, registers, calculator);
+    } // end of if
+    try {
+      return formatOutput(compiler.evaluate(input, calculator, registers));
+    } catch (IllegalArgumentException | ArithmeticException e) {
+      return e.getMessage(); // Including division by zero
+    } // end of catch
+  } // end of method
+
   /**
    * Handles the STORE command to store the calculator's current value in a register.
    *
    * @param input the full command line input (e.g., "STORE a")
    * @param registers the BFRegisterSet to store the value in
    * @param calculator the BFCalculator providing the current value
-   * @param output the PrintWriter for output
+   * @return the reply, which is an error line if durable registers cannot be written
    */
-  private static void handleStoreCommand(
-      String input, BFRegisterSet registers, BFCalculator calculator, PrintWriter output) {
+  private static String handleStoreCommand(
+      String input, BFRegisterSet registers, BFCalculator calculator) {
     String[] parts = input.split(" ");
-    if (parts.length != 2 || parts[1].length() != 1 || !Character.isLowerCase(parts[1].charAt(0))) {
+    if (parts.length != 2 || parts[1].length() != 1 || !isRegister(parts[1].charAt(0))) {
       // Register must be a lowercase letter (a-z)
-      output.println("*** ERROR [STORE command received invalid register] ***");
-    } else {
-      char register = parts[1].charAt(0);
-      registers.store(register, calculator.get());
-      output.println("STORED");
-    } // end of else case
-  } // end of method
-
-  /**
-   * Evaluates an expression involving fractions and operators.
-   *
-   * @param input the expression to evaluate (e.g., "1/2 + 1/3")
-   * @param calculator the BFCalculator to perform the calculations
-   * @param registers the BFRegisterSet to retrieve stored values
-   * @return the result of the evaluated expression as a BigFraction
-   * @throws IllegalArgumentException if the expression is invalid
-   */
-  private static BigFraction evaluateExpression(
-      String input, BFCalculator calculator, BFRegisterSet registers)
-      throws IllegalArgumentException {
-    if (input.isEmpty() || input.matches(".*[+\\-*/]$")) {
-      throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
+      return "*** ERROR [STORE command received invalid register] ***";
     } // end of if
-
-    String[] tokens = input.split(" ");
-    BigFraction result = parseValue(tokens[0], registers);
-    calculator.clear(); // Clear the calculator for each new expression
-    calculator.add(result);
-
-    for (int i = 1; i < tokens.length; i += 2) {
-      if (i + 1 >= tokens.length) {
-        throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-      } // end of if
-
-      String operator = tokens[i];
-      BigFraction nextValue = parseValue(tokens[i + 1], registers);
-
-      switch (operator) {
-        case "+":
-          calculator.add(nextValue);
-          break;
-        case "-":
-          calculator.subtract(nextValue);
-          break;
-        case "*":
-          calculator.multiply(nextValue);
-          break;
-        case "/":
-          calculator.divide(nextValue);
-          break;
-        default:
-          throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-      } // end of switch case
-    } // end of for loop
-
-    return calculator.get();
+    char register = parts[1].charAt(0);
+    try {
+      registers.store(register, calculator.get());
+    } catch (UncheckedIOException e) {
+      // A failed log write must not end the session or lose the replies buffered so far
+      return "*** ERROR [STORE command could not save the register: "
+          + e.getCause().getMessage()
+          + "] ***";
+    } // end of catch
+    return "STORED";
   } // end of method
 
   /**
-   * Parses a token (either a number or a register) into a BigFraction value.
+   * Determines whether a character names a register. Only 'a' to 'z' do; other lowercase letters,
+   * such as 'é', pass {@link Character#isLowerCase} but are not registers.
    *
-   * @param token the token to parse
-   * @param registers the BFRegisterSet to retrieve register values
-   * @return the BigFraction value corresponding to the token
-   * @throws IllegalArgumentException if the token is invalid
+   * @param c the character
+   * @return true if c is between 'a' and 'z'
    */
-  private static BigFraction parseValue(String token, BFRegisterSet registers)
-      throws IllegalArgumentException {
-    if (token.length() == 1 && Character.isLetter(token.charAt(0))) {
-      char register = token.charAt(0);
-      // Only allow lowercase letters as valid registers (a-z)
-      if (!Character.isLowerCase(register)) {
-        throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-      } // end of if
-      BigFraction value = registers.get(register);
-      if (value == null) {
-        throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-      } // end of if
-      return value;
-    } else if (token.matches("-?[0-9]+(/[0-9]+)?")) {
-      return new BigFraction(token);
-    } else {
-      throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-    } // end of else
+  private static boolean isRegister(char c) {
+    return c >= 'a' && c <= 'z';
   } // end of method
 
   /**
    * Formats the output of a BigFraction. If the result is a whole number, it returns only the
-   * numerator. Otherwise, it returns the fraction in the numerator/denominator form.
+   * numerator. Otherwise, it returns the fraction in the numerator/denominator form. BigFraction's
+   * own cached string form already does both.
    *
    * @param result the BigFraction to format
    * @return the formatted result as a string
    */
   private static String formatOutput(BigFraction result) {
-    // Check if the denominator is 1, meaning the result is a whole number
-    if (result.denominator().equals(BigInteger.ONE)) {
-      return result.numerator().toString(); // Display as a whole number
-    } // end of if
-    return result.toString(); // Otherwise, display as a fraction
+    return result.toString();
   } // end of method
+
+  /**
+   * Reads lines like a BufferedReader, but can also tell whether a complete line is already
+   * buffered. {@link java.io.BufferedReader#ready} is true as soon as any character is buffered,
+   * so it cannot tell a waiting line from the start of one that is still arriving. Lines end at
+   * '\n'; the '\r' of a "\r\n" is left on the line, where trimming removes it.
+   */
+  private static final class LineReader {
+
+    /** The size of the character buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The source of the characters. */
+    private final Reader in;
+
+    /** The characters read but not yet returned. */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /** The index of the next character to return. */
+    private int pos;
+
+    /** The index after the last buffered character. */
+    private int end;
+
+    /**
+     * Creates a line reader.
+     *
+     * @param in the source of the characters
+     */
+    LineReader(Reader in) {
+      this.in = in;
+    } // end of constructor
+
+    /**
+     * Determines whether a complete line is buffered, so that reading it will not block.
+     *
+     * @return true if a newline is among the buffered characters
+     */
+    boolean hasLine() {
+      for (int i = pos; i < end; i++) {
+        if (buffer[i] == '\n') {
+          return true;
+        } // end of if
+      } // end of for loop
+      return false;
+    } // end of method
+
+    /**
+     * Reads the next line, blocking until it is complete.
+     *
+     * @return the line without its newline, or null at the end of the input
+     * @throws IOException if the input cannot be read
+     */
+    String readLine() throws IOException {
+      StringBuilder line = new StringBuilder();
+      while (true) {
+        if (pos == end) {
+          pos = 0;
+          end = Math.max(0, in.read(buffer, 0, buffer.length));
+          if (end == 0) {
+            return (line.length() == 0) ? null : line.toString();
+          } // end of if
+        } // end of if
+        int start = pos;
+        while (pos < end && buffer[pos] != '\n') {
+          pos++;
+        } // end of while loop
+        line.append(buffer, start, pos - start);
+        if (pos < end) {
+          pos++; // Skip the newline
+          return line.toString();
+        } // end of if
+      } // end of while loop
+    } // end of method
+  } // end of class
 } // end of class
@@ -0,0 +1,291 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.util.AsciiCharSequence;
+import edu.grinnell.csc207.util.BFCalculator;
+import edu.grinnell.csc207.util.BFRegisterSet;
+import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.ExpressionParser;
+import edu.grinnell.csc207.util.PrecedenceParser;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedBatch class is QuickCalculator's NIO batch path. It maps the input file in chunks
+ * with {@link FileChannel#map}, hands each line's bytes to the expression lexer through an {@link
+ * AsciiCharSequence} view instead of decoding a String per line, and writes results through one
+ * reused direct ByteBuffer. Output is byte-for-byte that of the Reader-based path.
+ *
+ * <p>The mapping size can be changed with {@code -Dbfcalc.mmap.chunk=BYTES}; tests use a few
+ * bytes so that lines cross chunk boundaries and outgrow the mapping.
+ */
+class MappedBatch {
+
+  /** The number of bytes mapped at a time, unless the chunk property says otherwise. */
+  static final int CHUNK_SIZE = 1 << 26;
+
+  /** The system property giving the number of bytes mapped at a time. */
+  static final String CHUNK_SIZE_PROPERTY = "bfcalc.mmap.chunk";
+
+  /** The size of the reused output buffer. */
+  private static final int OUTPUT_SIZE = 1 << 16;
+
+  /** The prefix of a STORE command. */
+  private static final String STORE_PREFIX = "STORE ";
+
+  /** The separator between a command and its result. */
+  private static final String RESULT_SEPARATOR = " -> ";
+
+  /** The suffix printed after a command that fails. */
+  private static final String FAILURE = ": FAILED [Invalid expression]";
+
+  /** The end-of-line sequence, matching PrintWriter.println. */
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  /** The calculator that evaluates expressions. */
+  private final BFCalculator calculator;
+
+  /** The registers that STORE commands write. */
+  private final BFRegisterSet registers;
+
+  /** Whether expressions use operator precedence and parentheses. */
+  private final boolean precedence;
+
+  /** The reused view of the current line. */
+  private final AsciiCharSequence line = new AsciiCharSequence();
+
+  /** The reused builder that each result is formatted into. */
+  private final StringBuilder digits = new StringBuilder();
+
+  /** The reused output buffer. */
+  private final ByteBuffer out = ByteBuffer.allocateDirect(OUTPUT_SIZE);
+
+  /** The channel results are written to. */
+  private final WritableByteChannel sink;
+
+  /** The number of lines between flushes. */
+  private final int flushInterval;
+
+  /** The number of bytes mapped at a time. */
+  private final int chunkSize;
+
+  /** The number of lines written since the last flush. */
+  private int sinceFlush;
+
+  /**
+   * Creates a batch runner.
+   *
+   * @param calculator the calculator that evaluates expressions
+   * @param registers the registers that STORE commands write
+   * @param precedence whether expressions use operator precedence and parentheses
+   * @param sink the channel results are written to
+   * @param flushInterval the number of lines between flushes
+   */
+  MappedBatch(
+      BFCalculator calculator,
+      BFRegisterSet registers,
+      boolean precedence,
+      WritableByteChannel sink,
+      int flushInterval) {
+    this.calculator = calculator;
+    this.registers = registers;
+    this.precedence = precedence;
+    this.sink = sink;
+    this.flushInterval = flushInterval;
+    this.chunkSize = Math.max(1, Integer.getInteger(CHUNK_SIZE_PROPERTY, CHUNK_SIZE));
+  } // End of MappedBatch constructor
+
+  /**
+   * Processes every line of a file, then flushes the output.
+   *
+   * @param file the file of expressions and STORE commands, one per line
+   * @throws IOException if the file cannot be read or the output cannot be written
+   */
+  void run(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      long mapSize = chunkSize;
+      while (position < size) {
+        int length = (int) Math.min(mapSize, size - position);
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+          if (chunk.get(i) == '\n') {
+            processLine(chunk, lineStart, i);
+            lineStart = i + 1;
+          } // end of if
+        } // end of for loop
+        if (position + length == size) {
+          if (lineStart < length) {
+            processLine(chunk, lineStart, length); // Final line without a newline
+          } // end of if
+          position = size;
+        } else if (lineStart == 0) {
+          // One line is longer than the mapping; map more of it next time
+          if (mapSize == Integer.MAX_VALUE) {
+            throw new IOException("Line at byte " + position + " is too long to map");
+          } // end of if
+          mapSize = Math.min(mapSize * 2, Integer.MAX_VALUE);
+        } else {
+          position += lineStart; // Resume at the start of the partial line
+          mapSize = chunkSize;
+        } // end of else
+      } // end of while loop
+    } // end of try
+    flush();
+  } // End of run method
+
+  /**
+   * Processes one line of input, ignoring a trailing carriage return as readLine does.
+   *
+   * @param chunk the mapped bytes
+   * @param start the index of the first byte of the line
+   * @param end the index of the newline, or of the end of the chunk
+   * @throws IOException if the output cannot be written
+   */
+  private void processLine(ByteBuffer chunk, int start, int end) throws IOException {
+    if (end > start && chunk.get(end - 1) == '\r') {
+      end--;
+    } // end of if
+    line.reset(chunk, start, end - start);
+    if (startsWith(line, STORE_PREFIX)) {
+      processStore(chunk, start, end);
+    } else {
+      try {
+        BigFraction result =
+            precedence
+                ? PrecedenceParser.evaluate(line, calculator, registers)
+                : ExpressionParser.evaluate(line, calculator, registers);
+        writeBytes(chunk, start, end);
+        writeAscii(RESULT_SEPARATOR);
+        digits.setLength(0);
+        result.appendTo(digits);
+        writeAscii(digits);
+      } catch (IllegalArgumentException | ArithmeticException e) {
+        writeBytes(chunk, start, end);
+        writeAscii(FAILURE);
+      } // end of catch
+    } // end of else
+    endLine();
+  } // End of processLine method
+
+  /**
+   * Processes a STORE command. As in QuickCalculator, the register must be a single letter,
+   * optionally followed by trailing spaces.
+   *
+   * @param chunk the mapped bytes
+   * @param start the index of the first byte of the line
+   * @param end the index just past the line
+   * @throws IOException if the output cannot be written
+   */
+  private void processStore(ByteBuffer chunk, int start, int end) throws IOException {
+    int registerAt = STORE_PREFIX.length();
+    int trailing = registerAt + 1;
+    while (trailing < line.length() && line.charAt(trailing) == ' ') {
+      trailing++;
+    } // end of while loop
+    writeBytes(chunk, start, end);
+    char register = (line.length() > registerAt) ? line.charAt(registerAt) : ' ';
+    if (trailing >= line.length() && register >= 'a' && register <= 'z') {
+      registers.store(register, calculator.get());
+      writeAscii(RESULT_SEPARATOR);
+      writeAscii("STORED");
+    } else {
+      writeAscii(FAILURE);
+    } // end of else
+  } // End of processStore method
+
+  /**
+   * Determines whether a sequence starts with a prefix.
+   *
+   * @param text the sequence to check
+   * @param prefix the prefix
+   * @return true if text starts with prefix
+   */
+  private static boolean startsWith(CharSequence text, String prefix) {
+    if (text.length() < prefix.length()) {
+      return false;
+    } // end of if
+    for (int i = 0; i < prefix.length(); i++) {
+      if (text.charAt(i) != prefix.charAt(i)) {
+        return false;
+      } // end of if
+    } // end of for loop
+    return true;
+  } // End of startsWith method
+
+  /**
+   * Copies raw bytes to the output.
+   *
+   * @param source the buffer holding the bytes
+   * @param start the index of the first byte
+   * @param end the index just past the last byte
+   * @throws IOException if the output cannot be written
+   */
+  private void writeBytes(ByteBuffer source, int start, int end) throws IOException {
+    while (start < end) {
+      if (!out.hasRemaining()) {
+        drain();
+      } // end of if
+      int count = Math.min(out.remaining(), end - start);
+      out.put(out.position(), source, start, count);
+      out.position(out.position() + count);
+      start += count;
+    } // end of while loop
+  } // End of writeBytes method
+
+  /**
+   * Writes ASCII text to the output.
+   *
+   * @param text the text, which must contain only ASCII characters
+   * @throws IOException if the output cannot be written
+   */
+  private void writeAscii(CharSequence text) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      if (!out.hasRemaining()) {
+        drain();
+      } // end of if
+      out.put((byte) text.charAt(i));
+    } // end of for loop
+  } // End of writeAscii method
+
+  /**
+   * Ends an output line, flushing every flushInterval lines.
+   *
+   * @throws IOException if the output cannot be written
+   */
+  private void endLine() throws IOException {
+    writeAscii(LINE_SEPARATOR);
+    if (++sinceFlush == flushInterval) {
+      flush();
+    } // end of if
+  } // End of endLine method
+
+  /**
+   * Writes everything buffered so far.
+   *
+   * @throws IOException if the output cannot be written
+   */
+  void flush() throws IOException {
+    drain();
+    sinceFlush = 0;
+  } // End of flush method
+
+  /**
+   * Empties the output buffer into the sink.
+   *
+   * @throws IOException if the output cannot be written
+   */
+  private void drain() throws IOException {
+    out.flip();
+    while (out.hasRemaining()) {
+      sink.write(out);
+    } // end of while loop
+    out.clear();
+  } // End of drain method
+} // End of MappedBatch class
@@ -0,0 +1,192 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.util.BFCalculator;
+import edu.grinnell.csc207.util.BFRegisterSet;
+import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.ExpressionCompiler;
+import edu.grinnell.csc207.util.ExpressionParser;
+import edu.grinnell.csc207.util.PrecedenceParser;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelBatch class is QuickCalculator's multi-core batch path. Lines are read in blocks
+ * that end at a STORE command (or after BLOCK_SIZE lines), and the expressions in each block are
+ * evaluated on a fork-join pool. Each worker thread has its own BFCalculator and
+ * ExpressionCompiler; the shared BFRegisterSet is only read while a block runs, since STORE
+ * commands are applied between blocks. Output is printed in input order and matches the
+ * sequential path line for line.
+ */
+class ParallelBatch {
+
+  /** The largest number of lines evaluated together. */
+  static final int BLOCK_SIZE = 4096;
+
+  /** The number of lines below which a task stops splitting. */
+  private static final int SPLIT_THRESHOLD = 64;
+
+  /** The prefix of a STORE command. */
+  private static final String STORE_PREFIX = "STORE ";
+
+  /** The pool that evaluates blocks. */
+  private final ForkJoinPool pool;
+
+  /** The registers, written only between blocks. */
+  private final BFRegisterSet registers;
+
+  /** The calculator that holds the value STORE commands see. */
+  private final BFCalculator barrier = new BFCalculator();
+
+  /** Each worker's private calculator. */
+  private final ThreadLocal<BFCalculator> calculators = ThreadLocal.withInitial(BFCalculator::new);
+
+  /** Whether expressions use operator precedence and parentheses. */
+  private final boolean precedence;
+
+  /** Each worker's private plan cache. */
+  private final ThreadLocal<ExpressionCompiler> compilers;
+
+  /** The lines of the current block. */
+  private final String[] lines = new String[BLOCK_SIZE];
+
+  /** The output of each line of the current block. */
+  private final String[] outputs = new String[BLOCK_SIZE];
+
+  /** The calculator value after each line of the current block. */
+  private final BigFraction[] values = new BigFraction[BLOCK_SIZE];
+
+  /** Whether each line of the current block reset the calculator. */
+  private final boolean[] cleared = new boolean[BLOCK_SIZE];
+
+  /**
+   * Creates a parallel batch runner.
+   *
+   * @param threads the number of worker threads
+   * @param registers the registers expressions read and STORE commands write
+   * @param precedence whether expressions use operator precedence and parentheses
+   */
+  ParallelBatch(int threads, BFRegisterSet registers, boolean precedence) {
+    this.pool = new ForkJoinPool(threads);
+    this.registers = registers;
+    this.precedence = precedence;
+    this.compilers =
+        ThreadLocal.withInitial(
+            () -> new ExpressionCompiler(ExpressionCompiler.DEFAULT_CAPACITY, precedence));
+  } // End of ParallelBatch constructor
+
+  /**
+   * Processes every line of a reader, printing results in input order.
+   *
+   * @param reader the source of commands, one per line
+   * @param output the PrintWriter for output
+   * @throws IOException if the reader fails
+   */
+  void run(BufferedReader reader, PrintWriter output) throws IOException {
+    try {
+      String line = reader.readLine();
+      while (line != null) {
+        int count = 0;
+        while (line != null && count < BLOCK_SIZE && !line.startsWith(STORE_PREFIX)) {
+          lines[count++] = line;
+          line = reader.readLine();
+        } // end of while loop
+        evaluateBlock(count, output);
+        if (line != null && line.startsWith(STORE_PREFIX)) {
+          QuickCalculator.handleStoreCommand(line, registers, barrier, output);
+          line = reader.readLine();
+        } // end of if
+        output.flush();
+      } // end of while loop
+    } finally {
+      pool.shutdown();
+    } // end of try
+  } // End of run method
+
+  /**
+   * Evaluates the first count lines of the block in parallel, prints their output, and carries
+   * the calculator value of the last line that reset it over to the barrier calculator.
+   *
+   * @param count the number of lines in the block
+   * @param output the PrintWriter for output
+   */
+  private void evaluateBlock(int count, PrintWriter output) {
+    if (count == 0) {
+      return;
+    } // end of if
+    pool.invoke(new EvaluateRange(0, count));
+    int last = -1;
+    for (int i = 0; i < count; i++) {
+      output.println(outputs[i]);
+      if (cleared[i]) {
+        last = i;
+      } // end of if
+    } // end of for loop
+    if (last >= 0) {
+      barrier.clear();
+      barrier.add(values[last]);
+    } // end of if
+  } // End of evaluateBlock method
+
+  /**
+   * Evaluates one line on the current worker's calculator and records the results.
+   *
+   * @param index the index of the line in the block
+   */
+  private void evaluateLine(int index) {
+    String line = lines[index];
+    BFCalculator calculator = calculators.get();
+    try {
+      BigFraction result = compilers.get().evaluate(line, calculator, registers);
+      outputs[index] = line + " -> " + QuickCalculator.formatOutput(result);
+      cleared[index] = true;
+    } catch (IllegalArgumentException | ArithmeticException e) {
+      outputs[index] = line + ": FAILED [Invalid expression]";
+      cleared[index] =
+          precedence
+              ? PrecedenceParser.clearsCalculator(line)
+              : ExpressionParser.clearsCalculator(line);
+    } // end of catch
+    values[index] = calculator.get();
+    lines[index] = null;
+  } // End of evaluateLine method
+
+  /** A fork-join task that evaluates a range of lines of the current block. */
+  private class EvaluateRange extends RecursiveAction {
+
+    /** The serialization version, as RecursiveAction is Serializable. */
+    private static final long serialVersionUID = 1L;
+
+    /** The index of the first line of the range. */
+    private final int from;
+
+    /** The index just past the last line of the range. */
+    private final int to;
+
+    /**
+     * Creates a task for a range of lines.
+     *
+     * @param from the index of the first line
+     * @param to the index just past the last line
+     */
+    EvaluateRange(int from, int to) {
+      this.from = from;
+      this.to = to;
+    } // End of EvaluateRange constructor
+
+    /** Evaluates the range, splitting it in half while it is large. */
+    @Override
+    protected void compute() {
+      if (to - from <= SPLIT_THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          evaluateLine(i);
+        } // end of for loop
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new EvaluateRange(from, middle), new EvaluateRange(middle, to));
+      } // end of else
+    } // End of compute method
+  } // End of EvaluateRange class
+} // End of ParallelBatch class
@@ -3,15 +3,62 @@ package edu.grinnell.csc207.main;
 import edu.grinnell.csc207.util.BFCalculator;
 import edu.grinnell.csc207.util.BFRegisterSet;
 import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.ExpressionCompiler;
+import edu.grinnell.csc207.util.ExpressionDag;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * The QuickCalculator class evaluates fractional expressions and executes store commands from the
  * command line. It takes expressions as arguments and evaluates them in sequence.
+ *
+ * <p>With {@code --input FILE} (or {@code --input -} for standard input) it instead streams one
+ * expression or STORE command per line, so batches of any size run in constant memory. Output is
+ * buffered and flushed every {@code --flush-every N} lines and at the end. Adding {@code --mmap}
+ * reads the file through memory-mapped NIO buffers instead of a Reader, and {@code --parallel N}
+ * evaluates the expressions between STORE commands on N threads. With {@code --dag} the whole run
+ * shares one {@link ExpressionDag}, so sub-expressions that repeat across lines are computed once
+ * until a STORE changes a register they read.
+ *
+ * <p>Expressions are evaluated strictly left to right unless {@code --precedence} is given, in
+ * which case '*' and '/' bind more tightly than '+' and '-' and parentheses may be used.
  */
 public class QuickCalculator {
 
+  /** The option naming a file (or "-" for standard input) to read commands from. */
+  private static final String INPUT_OPTION = "--input";
+
+  /** The option setting how many lines are written between flushes. */
+  private static final String FLUSH_OPTION = "--flush-every";
+
+  /** The flag selecting the memory-mapped reader for --input. */
+  private static final String MMAP_OPTION = "--mmap";
+
+  /** The option setting the number of threads for --input. */
+  private static final String PARALLEL_OPTION = "--parallel";
+
+  /** The flag selecting operator precedence and parentheses. */
+  private static final String PRECEDENCE_OPTION = "--precedence";
+
+  /** The flag that shares common sub-expressions across lines. */
+  private static final String DAG_OPTION = "--dag";
+
+  /** The input name that selects standard input. */
+  private static final String STDIN_NAME = "-";
+
+  /** The number of output lines written between flushes unless --flush-every says otherwise. */
+  private static final int DEFAULT_FLUSH_INTERVAL = 1024;
+
   /**
    * The main method takes command-line arguments as input, processes each argument as an expression
    * or store command, and outputs the result.
@@ -22,22 +69,260 @@ public class QuickCalculator {
     BFCalculator calculator = new BFCalculator();
     BFRegisterSet registers = new BFRegisterSet();
     PrintWriter output =
-        new PrintWriter(System.out, true); // Use PrintWriter instead of System.out.println
+        new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))); // Flushed below
 
-    for (String arg : args) {
-      if (arg.startsWith("STORE ")) {
-        handleStoreCommand(arg, registers, calculator, output);
+    // Leading options; anything else is treated as an expression, as before
+    String inputName = null;
+    boolean mapped = false;
+    boolean precedence = false;
+    boolean shared = false;
+    int threads = 1;
+    int flushInterval = DEFAULT_FLUSH_INTERVAL;
+    int first = 0;
+    while (first < args.length) {
+      if (args[first].equals(MMAP_OPTION)) {
+        mapped = true;
+        first++;
+      } else if (args[first].equals(PRECEDENCE_OPTION)) {
+        precedence = true;
+        first++;
+      } else if (args[first].equals(DAG_OPTION)) {
+        shared = true;
+        first++;
+      } else if (first + 1 < args.length && args[first].equals(INPUT_OPTION)) {
+        inputName = args[first + 1];
+        first += 2;
+      } else if (first + 1 < args.length && args[first].equals(FLUSH_OPTION)) {
+        flushInterval = parsePositive(args[first + 1]);
+        if (flushInterval < 1) {
+          System.err.println(FLUSH_OPTION + " requires a positive number of lines");
+          return;
+        } // end of if
+        first += 2;
+      } else if (first + 1 < args.length && args[first].equals(PARALLEL_OPTION)) {
+        threads = parsePositive(args[first + 1]);
+        if (threads < 1) {
+          System.err.println(PARALLEL_OPTION + " requires a positive number of threads");
+          return;
+        } // end of if
+        first += 2;
       } else {
-        try {
-          BigFraction result = evaluateExpression(arg, calculator, registers);
-          output.println(arg + " -> " + formatOutput(result));
-        } catch (IllegalArgumentException e) {
-          output.println(arg + ": FAILED [Invalid expression]");
-        } // end of catch
+        break;
       } // end of else
-    } // end of for loop
+    } // end of while loop
+    ExpressionCompiler compiler = // Caches parsed expressions
+        new ExpressionCompiler(ExpressionCompiler.DEFAULT_CAPACITY, precedence);
+    ExpressionDag dag = shared ? new ExpressionDag(calculator, registers, compiler) : null;
+    if (shared && (mapped || threads > 1)) {
+      System.err.println(
+          DAG_OPTION + " cannot be combined with " + MMAP_OPTION + " or " + PARALLEL_OPTION);
+      return;
+    } // end of if
+
+    if (inputName != null) {
+      if (first < args.length) {
+        System.err.println("Expressions cannot be combined with " + INPUT_OPTION);
+        return;
+      } // end of if
+      if (mapped) {
+        if (threads > 1) {
+          System.err.println(MMAP_OPTION + " cannot be combined with " + PARALLEL_OPTION);
+          return;
+        } // end of if
+        runMapped(inputName, calculator, registers, precedence, flushInterval);
+        return;
+      } // end of if
+      try (BufferedReader reader = openInput(inputName)) {
+        if (threads > 1) {
+          new ParallelBatch(threads, registers, precedence).run(reader, output);
+        } else if (dag != null) {
+          processStream(reader, dag, output, flushInterval);
+        } else {
+          processStream(reader, calculator, registers, compiler, output, flushInterval);
+        } // end of else
+      } catch (IOException e) {
+        output.flush();
+        System.err.println("Cannot read " + inputName + ": " + e.getMessage());
+      } // end of catch
+    } else {
+      for (int i = first; i < args.length; i++) {
+        if (dag != null) {
+          processCommand(args[i], dag, output);
+        } else {
+          processCommand(args[i], calculator, registers, compiler, output);
+        } // end of else
+      } // end of for loop
+    } // end of else
+    output.flush();
   } // End of main method
 
+  /**
+   * Processes every line of a reader as an expression or STORE command, flushing the output
+   * every flushInterval lines. Only one line is held in memory at a time.
+   *
+   * @param reader The source of commands, one per line.
+   * @param calculator The BFCalculator to perform calculations.
+   * @param registers The BFRegisterSet that holds register values.
+   * @param compiler The ExpressionCompiler that caches parsed expressions.
+   * @param output The PrintWriter for output.
+   * @param flushInterval The number of lines between flushes.
+   * @throws IOException If the reader fails.
+   */
+  static void processStream(
+      BufferedReader reader,
+      BFCalculator calculator,
+      BFRegisterSet registers,
+      ExpressionCompiler compiler,
+      PrintWriter output,
+      int flushInterval)
+      throws IOException {
+    int sinceFlush = 0;
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      processCommand(line, calculator, registers, compiler, output);
+      if (++sinceFlush == flushInterval) {
+        output.flush();
+        sinceFlush = 0;
+      } // end of if
+    } // end of for loop
+  } // End of processStream method
+
+  /**
+   * Processes every line of a reader as processStream does, evaluating through a shared DAG.
+   *
+   * @param reader The source of commands, one per line.
+   * @param dag The ExpressionDag that evaluates expressions and applies STORE commands.
+   * @param output The PrintWriter for output.
+   * @param flushInterval The number of lines between flushes.
+   * @throws IOException If the reader fails.
+   */
+  static void processStream(
+      BufferedReader reader, ExpressionDag dag, PrintWriter output, int flushInterval)
+      throws IOException {
+    int sinceFlush = 0;
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      processCommand(line, dag, output);
+      if (++sinceFlush == flushInterval) {
+        output.flush();
+        sinceFlush = 0;
+      } // end of if
+    } // end of for loop
+  } // End of processStream method
+
+  /**
+   * Processes one expression or STORE command through a shared DAG and prints its result, in the
+   * same form as the other processCommand.
+   *
+   * @param command The expression or STORE command.
+   * @param dag The ExpressionDag that evaluates expressions and applies STORE commands.
+   * @param output The PrintWriter for output.
+   */
+  static void processCommand(String command, ExpressionDag dag, PrintWriter output) {
+    if (command.startsWith("STORE ")) {
+      char register = storeRegister(command);
+      if (register != 0) {
+        dag.store(register);
+        output.println(command + " -> STORED");
+      } else {
+        output.println(command + ": FAILED [Invalid expression]");
+      } // end of else
+    } else {
+      try {
+        BigFraction result = dag.evaluate(command);
+        output.print(command);
+        output.print(" -> ");
+        output.println(formatOutput(result));
+      } catch (IllegalArgumentException | ArithmeticException e) {
+        output.println(command + ": FAILED [Invalid expression]");
+      } // end of catch
+    } // end of else
+  } // End of processCommand method
+
+  /**
+   * Processes one expression or STORE command and prints its result.
+   *
+   * @param command The expression or STORE command.
+   * @param calculator The BFCalculator to perform calculations.
+   * @param registers The BFRegisterSet that holds register values.
+   * @param compiler The ExpressionCompiler that caches parsed expressions.
+   * @param output The PrintWriter for output.
+   */
+  static void processCommand(
+      String command,
+      BFCalculator calculator,
+      BFRegisterSet registers,
+      ExpressionCompiler compiler,
+      PrintWriter output) {
+    if (command.startsWith("STORE ")) {
+      handleStoreCommand(command, registers, calculator, output);
+    } else {
+      try {
+        BigFraction result = compiler.evaluate(command, calculator, registers);
+        output.print(command);
+        output.print(" -> ");
+        output.println(formatOutput(result));
+      } catch (IllegalArgumentException | ArithmeticException e) {
+        // Division by zero fails this command rather than the whole batch
+        output.println(command + ": FAILED [Invalid expression]");
+      } // end of catch
+    } // end of else
+  } // End of processCommand method
+
+  /**
+   * Runs a file through the memory-mapped batch path, writing straight to standard output.
+   *
+   * @param inputName The file name; standard input cannot be mapped.
+   * @param calculator The BFCalculator to perform calculations.
+   * @param registers The BFRegisterSet that holds register values.
+   * @param precedence Whether to use operator precedence and parentheses.
+   * @param flushInterval The number of lines between flushes.
+   */
+  private static void runMapped(
+      String inputName,
+      BFCalculator calculator,
+      BFRegisterSet registers,
+      boolean precedence,
+      int flushInterval) {
+    if (inputName.equals(STDIN_NAME)) {
+      System.err.println(MMAP_OPTION + " requires a file, not standard input");
+      return;
+    } // end of if
+    FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+    MappedBatch batch = new MappedBatch(calculator, registers, precedence, stdout, flushInterval);
+    try {
+      batch.run(Paths.get(inputName));
+    } catch (IOException e) {
+      System.err.println("Cannot read " + inputName + ": " + e.getMessage());
+    } // end of catch
+  } // End of runMapped method
+
+  /**
+   * Opens the named input for reading, with "-" meaning standard input.
+   *
+   * @param name The file name, or "-".
+   * @return A buffered reader over the input.
+   * @throws IOException If the file cannot be opened.
+   */
+  private static BufferedReader openInput(String name) throws IOException {
+    if (name.equals(STDIN_NAME)) {
+      return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    } // end of if
+    return Files.newBufferedReader(Paths.get(name), StandardCharsets.UTF_8);
+  } // End of openInput method
+
+  /**
+   * Parses the value of a numeric option such as --flush-every.
+   *
+   * @param value The option's value.
+   * @return The number, or -1 if the value is not a number.
+   */
+  private static int parsePositive(String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    } // end of catch
+  } // End of parsePositive method
+
   /**
    * Handles the STORE command by storing the calculator's current value in the specified register.
    *
@@ -46,11 +331,10 @@ public class QuickCalculator {
    * @param calculator The BFCalculator object that holds the current value.
    * @param output The PrintWriter for output.
    */
-  private static void handleStoreCommand(
+  static void handleStoreCommand(
       String arg, BFRegisterSet registers, BFCalculator calculator, PrintWriter output) {
-    String[] parts = arg.split(" ");
-    if (parts.length == 2 && parts[1].length() == 1 && Character.isLowerCase(parts[1].charAt(0))) {
-      char register = parts[1].charAt(0);
+    char register = storeRegister(arg);
+    if (register != 0) {
       registers.store(register, calculator.get());
       output.println(arg + " -> STORED");
     } else {
@@ -59,95 +343,31 @@ public class QuickCalculator {
   } // End of handleStoreCommand method
 
   /**
-   * Evaluates a mathematical expression and returns the result.
+   * Finds the register a STORE command names.
    *
-   * @param input The expression as a string.
-   * @param calculator The BFCalculator to perform calculations.
-   * @param registers The BFRegisterSet that holds register values.
-   * @return The result of the expression as a BigFraction.
-   * @throws IllegalArgumentException If the expression is invalid.
-   */
-  private static BigFraction evaluateExpression(
-      String input, BFCalculator calculator, BFRegisterSet registers)
-      throws IllegalArgumentException {
-    if (input.isEmpty() || input.matches(".*[+\\-*/]$")) {
-      throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-    } // end of if
-
-    String[] tokens = input.split(" ");
-    BigFraction result = parseValue(tokens[0], registers);
-    calculator.clear(); // Clear the calculator for each new expression
-    calculator.add(result);
-
-    for (int i = 1; i < tokens.length; i += 2) {
-      if (i + 1 >= tokens.length) {
-        throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-      } // end of if case
-
-      String operator = tokens[i];
-      BigFraction nextValue = parseValue(tokens[i + 1], registers);
-
-      switch (operator) {
-        case "+":
-          calculator.add(nextValue);
-          break;
-        case "-":
-          calculator.subtract(nextValue);
-          break;
-        case "*":
-          calculator.multiply(nextValue);
-          break;
-        case "/":
-          calculator.divide(nextValue);
-          break;
-        default:
-          throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-      } // End of switch block
-    } // end of for loop
-
-    return calculator.get();
-  } // End of evaluateExpression method
-
-  /**
-   * Parses a token to determine whether it is a number or a register and returns the corresponding
-   * BigFraction value.
-   *
-   * @param token The token to parse.
-   * @param registers The BFRegisterSet that holds register values.
-   * @return The parsed BigFraction value.
-   * @throws IllegalArgumentException If the token is not a valid number or register.
+   * @param arg The STORE command.
+   * @return The register, or 0 if the command does not name exactly one letter from 'a' to 'z'.
    */
-  private static BigFraction parseValue(String token, BFRegisterSet registers)
-      throws IllegalArgumentException {
-    if (token.length() == 1 && Character.isLetter(token.charAt(0))) {
-      char register = token.charAt(0);
-      if (!Character.isLowerCase(register)) {
-        throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-      } // end of if
-      BigFraction value = registers.get(register);
-      if (value == null) {
-        throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
+  private static char storeRegister(String arg) {
+    String[] parts = arg.split(" ");
+    if (parts.length == 2 && parts[1].length() == 1) {
+      char register = parts[1].charAt(0);
+      if (register >= 'a' && register <= 'z') {
+        return register; // Other lowercase letters, such as 'é', are not registers
       } // end of if
-      return value;
-    } else if (token.matches("-?[0-9]+(/[0-9]+)?")) {
-      return new BigFraction(token);
-    } else {
-      throw new IllegalArgumentException("*** ERROR [Invalid expression] ***");
-    } // end of else
-  } // End of parseValue method
+    } // end of if
+    return 0;
+  } // End of storeRegister method
 
   /**
    * Formats the output of a BigFraction. If the result is a whole number, it returns the numerator
-   * only. Otherwise, it returns the fraction as a string.
+   * only. Otherwise, it returns the fraction as a string. BigFraction's own string form already
+   * does both and is cached, so printing a result again costs nothing.
    *
    * @param result The BigFraction to format.
    * @return The formatted string representation of the result.
    */
-  private static String formatOutput(BigFraction result) {
-    // Directly compare the denominator to BigInteger.ONE
-    if (result.denominator().equals(BigInteger.ONE)) {
-      return result.numerator().toString(); // Return the numerator as a whole number
-    } // end of if
-    return result.toString(); // Otherwise, return the fraction as a string
+  static String formatOutput(BigFraction result) {
+    return result.toString();
   } // End of formatOutput method
 } // End of QuickCalculator class
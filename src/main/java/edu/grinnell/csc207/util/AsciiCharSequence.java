@@ -0,0 +1,98 @@
+package edu.grinnell.csc207.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable {@link CharSequence} view of a range of bytes in a {@link ByteBuffer}, with each byte
+ * read as one ISO-8859-1 character. It lets the {@link ExpressionLexer} scan ASCII input, such as
+ * a memory-mapped file, without first decoding it into a String. The view does not copy the
+ * bytes, so it is only valid while the underlying buffer is.
+ */
+public final class AsciiCharSequence implements CharSequence {
+
+  /** A mask that turns a signed byte into an unsigned character code. */
+  private static final int BYTE_MASK = 0xFF;
+
+  /** The buffer holding the bytes. */
+  private ByteBuffer buffer;
+
+  /** The index in the buffer of the first byte of the view. */
+  private int offset;
+
+  /** The number of bytes in the view. */
+  private int length;
+
+  /** Creates an empty view; call {@link #reset} to point it at some bytes. */
+  public AsciiCharSequence() {
+    reset(ByteBuffer.allocate(0), 0, 0);
+  } // End constructor AsciiCharSequence
+
+  /**
+   * Points the view at a new range of bytes.
+   *
+   * @param bytes the buffer holding the bytes
+   * @param start the index in the buffer of the first byte
+   * @param count the number of bytes
+   * @return this view
+   */
+  public AsciiCharSequence reset(ByteBuffer bytes, int start, int count) {
+    this.buffer = bytes;
+    this.offset = start;
+    this.length = count;
+    return this;
+  } // End method reset
+
+  /**
+   * Returns the number of characters in the view.
+   *
+   * @return the length
+   */
+  @Override
+  public int length() {
+    return length;
+  } // End method length
+
+  /**
+   * Returns one character of the view.
+   *
+   * @param index the index of the character
+   * @return the character
+   * @throws IndexOutOfBoundsException if index is outside the view
+   */
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException(index);
+    } // End if block for an index outside the view
+    return (char) (buffer.get(offset + index) & BYTE_MASK);
+  } // End method charAt
+
+  /**
+   * Returns a new view of part of this view, sharing the same bytes.
+   *
+   * @param start the index of the first character, inclusive
+   * @param end the index of the last character, exclusive
+   * @return the new view
+   * @throws IndexOutOfBoundsException if the range is outside this view
+   */
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("[" + start + ", " + end + ")");
+    } // End if block for a range outside the view
+    return new AsciiCharSequence().reset(buffer, offset + start, end - start);
+  } // End method subSequence
+
+  /**
+   * Decodes the view into a String.
+   *
+   * @return the characters of the view
+   */
+  @Override
+  public String toString() {
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  } // End method toString
+} // End class AsciiCharSequence
@@ -1,14 +1,59 @@
 package edu.grinnell.csc207.util;
 
+import java.math.BigInteger;
+
 /**
  * A calculator for operations on fractions using BigFraction. It maintains a running total and
  * supports addition, subtraction, multiplication, and division operations.
+ *
+ * <p>A calculator built with {@link #BFCalculator(int)} runs in accumulator mode: the running total
+ * is kept as an unreduced numerator and denominator, in longs while they fit, and is only reduced
+ * when a long would overflow, when either part has grown by the given number of bits since the
+ * last reduction, or when {@link #get()} is called. Adding terms whose denominators divide the
+ * total's only touches the numerator. Long sums and products then skip most GCDs and intermediate
+ * BigFractions, and give exactly the same results.
+ *
+ * <p>A calculator built with {@link #BFCalculator(OperationCache)} looks up operations on large
+ * values in a memo that may be shared with other calculators, so repeated products and quotients
+ * of the same large fractions are computed only once.
+ *
+ * <p>Precedence plans and expression DAGs compute their intermediate values apart from the running
+ * total, through {@link #apply}. Those steps use the memo and are counted in the metrics, but not
+ * accumulator mode, which only represents the running total; the final result joins the total
+ * through {@link #add}.
  */
 public class BFCalculator {
 
-  /** The last computed value of the calculator. */
+  /** A reasonable growth in bits after which accumulator mode reduces its running total. */
+  public static final int DEFAULT_REDUCE_BITS = 1024;
+
+  /** The last computed value of the calculator, when the total is not pending. */
   private BigFraction lastValue;
 
+  /** The growth in bits after which the total is reduced, or 0 outside accumulator mode. */
+  private final int reduceBits;
+
+  /** The memo for operations on large values, or null. */
+  private final OperationCache cache;
+
+  /** Whether the running total is held unreduced in the fields below rather than in lastValue. */
+  private boolean pending;
+
+  /** The size in bits past which the BigInteger total is next reduced. */
+  private int reduceAt;
+
+  /** The unreduced numerator, when bigNum is null. */
+  private long smallNum;
+
+  /** The unreduced, positive denominator, when bigNum is null. */
+  private long smallDenom;
+
+  /** The unreduced numerator once it no longer fits in a long, or null. */
+  private BigInteger bigNum;
+
+  /** The unreduced, positive denominator once it no longer fits in a long. */
+  private BigInteger bigDenom;
+
   /** Constant representing the value 0, used for initializing BigFraction. */
   private static final int ZERO = 0;
 
@@ -20,7 +65,35 @@ public class BFCalculator {
    * of the calculator to 0 (represented as a fraction 0/1).
    */
   public BFCalculator() {
-    lastValue = new BigFraction(ZERO, ONE); // Start with 0
+    lastValue = BigFraction.valueOf(ZERO, ONE); // Start with 0
+    reduceBits = 0;
+    cache = null;
+  } // End constructor BFCalculator
+
+  /**
+   * Constructor for a calculator in accumulator mode, starting at 0/1.
+   *
+   * @param reduceBits the number of bits the running total may grow by before it is reduced.
+   * @throws IllegalArgumentException if reduceBits is not positive.
+   */
+  public BFCalculator(int reduceBits) {
+    if (reduceBits < 1) {
+      throw new IllegalArgumentException("The reduction threshold must be positive.");
+    } // End if block for invalid thresholds
+    this.lastValue = BigFraction.valueOf(ZERO, ONE);
+    this.reduceBits = reduceBits;
+    this.cache = null;
+  } // End constructor BFCalculator
+
+  /**
+   * Constructor for a calculator that memoizes operations on large values, starting at 0/1.
+   *
+   * @param cache the memo to use, which may be shared with other calculators.
+   */
+  public BFCalculator(OperationCache cache) {
+    this.lastValue = BigFraction.valueOf(ZERO, ONE);
+    this.reduceBits = 0;
+    this.cache = cache;
   } // End constructor BFCalculator
 
   /**
@@ -29,6 +102,13 @@ public class BFCalculator {
    * @return the last computed value as a BigFraction.
    */
   public BigFraction get() {
+    if (pending) {
+      lastValue =
+          (bigNum == null)
+              ? BigFraction.valueOf(smallNum, smallDenom)
+              : new BigFraction(bigNum, bigDenom);
+      pending = false;
+    } // End if block to reduce the pending total
     return lastValue;
   } // End method get
 
@@ -38,7 +118,15 @@ public class BFCalculator {
    * @param val the fraction to add.
    */
   public void add(BigFraction val) {
-    lastValue = lastValue.add(val);
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    if (reduceBits == 0) {
+      lastValue = (cache == null) ? lastValue.add(val) : cache.apply('+', lastValue, val);
+    } else {
+      accumulate('+', val);
+    } // End if block for accumulator mode
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordOperation(CalculatorMetrics.ADD, val, start);
+    } // End if block for metrics
   } // End method add
 
   /**
@@ -47,7 +135,15 @@ public class BFCalculator {
    * @param val the fraction to subtract.
    */
   public void subtract(BigFraction val) {
-    lastValue = lastValue.subtract(val);
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    if (reduceBits == 0) {
+      lastValue = (cache == null) ? lastValue.subtract(val) : cache.apply('-', lastValue, val);
+    } else {
+      accumulate('-', val);
+    } // End if block for accumulator mode
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordOperation(CalculatorMetrics.SUBTRACT, val, start);
+    } // End if block for metrics
   } // End method subtract
 
   /**
@@ -56,7 +152,15 @@ public class BFCalculator {
    * @param val the fraction to multiply by.
    */
   public void multiply(BigFraction val) {
-    lastValue = lastValue.multiply(val);
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    if (reduceBits == 0) {
+      lastValue = (cache == null) ? lastValue.multiply(val) : cache.apply('*', lastValue, val);
+    } else {
+      accumulate('*', val);
+    } // End if block for accumulator mode
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordOperation(CalculatorMetrics.MULTIPLY, val, start);
+    } // End if block for metrics
   } // End method multiply
 
   /**
@@ -66,14 +170,214 @@ public class BFCalculator {
    * @throws ArithmeticException if the fraction to divide by is zero.
    */
   public void divide(BigFraction val) {
-    lastValue = lastValue.divide(val);
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    if (reduceBits == 0) {
+      lastValue = (cache == null) ? lastValue.divide(val) : cache.apply('/', lastValue, val);
+    } else if (val.signum() == 0) {
+      throw new ArithmeticException("Cannot divide by zero.");
+    } else {
+      accumulate('/', val);
+    } // End if block for accumulator mode
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordOperation(CalculatorMetrics.DIVIDE, val, start);
+    } // End if block for metrics
   } // End method divide
 
+  /**
+   * Applies an operator to two values without touching the running total, using the memo if there
+   * is one and recording the operation in the metrics as the other operations do.
+   *
+   * @param op the operator: '+', '-', '*' or '/'.
+   * @param left the left-hand operand.
+   * @param right the right-hand operand.
+   * @return the result.
+   * @throws ArithmeticException if dividing by zero.
+   */
+  BigFraction apply(char op, BigFraction left, BigFraction right) {
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    BigFraction result =
+        (cache == null) ? CompiledExpression.combine(op, left, right) : cache.apply(op, left, right);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordOperation(metricsIndex(op), right, start);
+    } // End if block for metrics
+    return result;
+  } // End method apply
+
   /**
    * Resets the calculator's value to 0/1. Clears the calculator by resetting the last computed
    * value to 0 (represented as 0/1).
    */
   public void clear() {
-    lastValue = new BigFraction(ZERO, ONE);
+    lastValue = BigFraction.valueOf(ZERO, ONE);
+    pending = false;
   } // End method clear
+
+  /**
+   * Returns the index of an operator in the per-operator metrics.
+   *
+   * @param op the operator: '+', '-', '*' or '/'.
+   * @return its index.
+   */
+  private static int metricsIndex(char op) {
+    switch (op) {
+      case '+':
+        return CalculatorMetrics.ADD;
+      case '-':
+        return CalculatorMetrics.SUBTRACT;
+      case '*':
+        return CalculatorMetrics.MULTIPLY;
+      default:
+        return CalculatorMetrics.DIVIDE;
+    } // End switch block
+  } // End method metricsIndex
+
+  /**
+   * Applies an operation to the unreduced running total, staying in longs while possible.
+   *
+   * @param op the operator: '+', '-', '*' or '/'.
+   * @param val the operand, which is not zero when op is '/'.
+   */
+  private void accumulate(char op, BigFraction val) {
+    if (!pending) {
+      if (lastValue.isSmall()) {
+        smallNum = lastValue.smallNumerator();
+        smallDenom = lastValue.smallDenominator();
+        bigNum = null;
+      } else {
+        bigNum = lastValue.numerator();
+        bigDenom = lastValue.denominator();
+        reduceAt = Math.max(bigNum.bitLength(), bigDenom.bitLength()) + reduceBits;
+      } // End if block to load the total
+      pending = true;
+    } // End if block for a reduced total
+    if (bigNum == null && val.isSmall()) {
+      if (combineSmall(op, val.smallNumerator(), val.smallDenominator())) {
+        return;
+      } // End if block for a step that fit
+      reduceSmall(); // Only reduce once the unreduced total would overflow
+      if (bigNum == null && combineSmall(op, val.smallNumerator(), val.smallDenominator())) {
+        return;
+      } // End if block for a step that fit once reduced
+    } // End if block for the long path
+    if (bigNum == null) {
+      bigNum = BigInteger.valueOf(smallNum);
+      bigDenom = BigInteger.valueOf(smallDenom);
+      reduceAt = Long.SIZE + reduceBits;
+    } // End if block to promote the total
+    combineBig(op, val.numerator(), val.denominator());
+    if (bigNum.bitLength() > reduceAt || bigDenom.bitLength() > reduceAt) {
+      reduceBig();
+    } // End if block for a total that grew past the threshold
+  } // End method accumulate
+
+  /**
+   * Applies an operation to the long total, leaving it unchanged if a long would overflow.
+   *
+   * @param op the operator.
+   * @param n the operand's numerator.
+   * @param d the operand's denominator.
+   * @return true if the result fit in longs.
+   */
+  private boolean combineSmall(char op, long n, long d) {
+    try {
+      long resultNum;
+      long resultDenom;
+      if (op == '*') {
+        resultNum = Math.multiplyExact(smallNum, n);
+        resultDenom = Math.multiplyExact(smallDenom, d);
+      } else if (op == '/') {
+        resultNum = Math.multiplyExact(smallNum, d);
+        resultDenom = Math.multiplyExact(smallDenom, n);
+        if (resultDenom < 0) {
+          resultNum = Math.negateExact(resultNum);
+          resultDenom = Math.negateExact(resultDenom);
+        } // End if block to keep the denominator positive
+      } else if (smallDenom % d == 0) {
+        // The total's denominator is already a multiple of d, so only the numerator changes
+        long scaled = Math.multiplyExact(n, smallDenom / d);
+        resultNum =
+            (op == '+') ? Math.addExact(smallNum, scaled) : Math.subtractExact(smallNum, scaled);
+        resultDenom = smallDenom;
+      } else {
+        long scaled = Math.multiplyExact(n, smallDenom);
+        resultNum =
+            (op == '+')
+                ? Math.addExact(Math.multiplyExact(smallNum, d), scaled)
+                : Math.subtractExact(Math.multiplyExact(smallNum, d), scaled);
+        resultDenom = Math.multiplyExact(smallDenom, d);
+      } // End if block for each operator
+      smallNum = resultNum;
+      smallDenom = resultDenom;
+      return true;
+    } catch (ArithmeticException overflow) {
+      return false;
+    } // End try/catch for long overflow
+  } // End method combineSmall
+
+  /**
+   * Applies an operation to the BigInteger total.
+   *
+   * @param op the operator.
+   * @param n the operand's numerator.
+   * @param d the operand's denominator.
+   */
+  private void combineBig(char op, BigInteger n, BigInteger d) {
+    if (op == '*') {
+      bigNum = LargeArithmetic.multiply(bigNum, n);
+      bigDenom = LargeArithmetic.multiply(bigDenom, d);
+    } else if (op == '/') {
+      bigNum = LargeArithmetic.multiply(bigNum, d);
+      bigDenom = LargeArithmetic.multiply(bigDenom, n);
+      if (bigDenom.signum() < 0) {
+        bigNum = bigNum.negate();
+        bigDenom = bigDenom.negate();
+      } // End if block to keep the denominator positive
+    } else if (d.equals(BigInteger.ONE) || d.equals(bigDenom)) {
+      // The denominator stays the same, so only the numerator changes
+      BigInteger scaled = d.equals(bigDenom) ? n : LargeArithmetic.multiply(n, bigDenom);
+      bigNum = (op == '+') ? bigNum.add(scaled) : bigNum.subtract(scaled);
+    } else {
+      BigInteger scaled = LargeArithmetic.multiply(n, bigDenom);
+      bigNum = LargeArithmetic.multiply(bigNum, d);
+      bigNum = (op == '+') ? bigNum.add(scaled) : bigNum.subtract(scaled);
+      bigDenom = LargeArithmetic.multiply(bigDenom, d);
+    } // End if block for each operator
+  } // End method combineBig
+
+  /** Reduces the long total, promoting it to BigInteger if a part cannot be negated. */
+  private void reduceSmall() {
+    if (smallNum == Long.MIN_VALUE || smallDenom == Long.MIN_VALUE) {
+      bigNum = BigInteger.valueOf(smallNum);
+      bigDenom = BigInteger.valueOf(smallDenom);
+      reduceAt = Long.SIZE + reduceBits; // As for any total promoted from longs
+      return;
+    } // End if block for values that cannot be negated
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    long gcd = BigFraction.gcd(Math.abs(smallNum), smallDenom);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordGcd(start);
+    } // End if block for metrics
+    smallNum /= gcd;
+    smallDenom /= gcd;
+  } // End method reduceSmall
+
+  /**
+   * Reduces the BigInteger total, returning it to longs if it fits again. The next reduction waits
+   * until the total has grown by reduceBits, so reductions stay rare however large it gets.
+   */
+  private void reduceBig() {
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    BigInteger gcd = LargeArithmetic.gcd(bigNum, bigDenom);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordGcd(start);
+    } // End if block for metrics
+    bigNum = bigNum.divide(gcd);
+    bigDenom = bigDenom.divide(gcd);
+    reduceAt = Math.max(bigNum.bitLength(), bigDenom.bitLength()) + reduceBits;
+    if (bigNum.bitLength() < Long.SIZE && bigDenom.bitLength() < Long.SIZE) {
+      smallNum = bigNum.longValue();
+      smallDenom = bigDenom.longValue();
+      bigNum = null;
+    } // End if block for totals that fit in longs
+  } // End method reduceBig
 } // End class BFCalculator
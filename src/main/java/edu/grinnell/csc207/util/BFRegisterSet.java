@@ -12,15 +12,25 @@ public class BFRegisterSet {
   private final BigFraction[] registers;
 
   /** Number of registers, corresponding to the 26 letters of the alphabet. */
-  private static final int REGISTER_COUNT = 26;
+  static final int REGISTER_COUNT = 26;
 
   /** Initializes an array of 26 registers, each starting with a value of 0/1. */
   public BFRegisterSet() {
     registers = new BigFraction[REGISTER_COUNT];
     // Initialize each register to 0/1 (representing a fraction of 0)
-    Arrays.fill(registers, new BigFraction(0, 1));
+    Arrays.fill(registers, BigFraction.valueOf(0, 1));
   } // End of constructor BFRegisterSet()
 
+  /**
+   * Initializes the registers from an array of 26 values, one for each letter from 'a' to 'z'.
+   * The array is copied.
+   *
+   * @param values the initial register values.
+   */
+  BFRegisterSet(BigFraction[] values) {
+    registers = Arrays.copyOf(values, REGISTER_COUNT);
+  } // End of constructor BFRegisterSet(BigFraction[])
+
   /**
    * Stores a BigFraction value in a specified register.
    *
@@ -48,4 +58,16 @@ public class BFRegisterSet {
     } // End of if block
     return registers[register - 'a']; // Return the value stored in the corresponding register
   } // End of get method
+
+  /**
+   * Retrieves the BigFraction value stored in a register by its slot index, where slot 0 is
+   * register 'a'. No bounds checking beyond the array's own is done; callers such as compiled
+   * expressions validate register names once, ahead of time.
+   *
+   * @param slot the index of the register, from 0 to 25.
+   * @return the BigFraction value stored in the register.
+   */
+  BigFraction getSlot(int slot) {
+    return registers[slot];
+  } // End of getSlot method
 } // End of BFRegisterSet class
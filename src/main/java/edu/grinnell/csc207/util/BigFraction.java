@@ -1,19 +1,68 @@
 package edu.grinnell.csc207.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.stream.Collector;
 
 /**
  * A class representing fractions with arbitrary precision using {@link BigInteger}. This class
  * supports operations such as addition, subtraction, multiplication, and division.
+ *
+ * <p>Fractions whose numerator and denominator both fit in a {@code long} are kept in a pair of
+ * {@code long} fields and computed with exact long arithmetic. A fraction is promoted to the
+ * {@link BigInteger} representation only when a result overflows, so the representation is
+ * always canonical: a value is stored in longs if and only if it fits in them.
  */
-public class BigFraction {
+public class BigFraction implements Comparable<BigFraction> {
 
-  /** The numerator of the fraction. */
+  /** The largest magnitude of a numerator in the table of small fractions. */
+  private static final int CACHE_NUMERATOR = 1024;
+
+  /** The largest denominator in the table of small fractions. */
+  private static final int CACHE_DENOMINATOR = 64;
+
+  /** The number of table entries for each denominator. */
+  private static final int CACHE_ROW = 2 * CACHE_NUMERATOR + 1;
+
+  /** The multiplier that combines the hash codes of the numerator and denominator. */
+  private static final int HASH_MULTIPLIER = 31;
+
+  /** The largest number of decimal digits that always fits in a long. */
+  private static final int LONG_DIGITS = 18;
+
+  /**
+   * The canonical instance of every n/d with |n| at most {@link #CACHE_NUMERATOR} and d from 1 to
+   * {@link #CACHE_DENOMINATOR}, indexed by {@link #cacheIndex} and filled in on first use so that
+   * startup stays quick. Unreduced pairs share the instance of their reduced form. Two threads
+   * racing on an empty entry may briefly create equal instances, which is harmless because
+   * fractions are immutable.
+   */
+  private static final BigFraction[] CACHE = new BigFraction[CACHE_ROW * CACHE_DENOMINATOR];
+
+  /** The fraction 0/1, returned by operations whose result is zero. */
+  private static final BigFraction ZERO = cached(0, 1);
+
+  /** The numerator of the fraction, or null when the fraction is stored in longs. */
   private final BigInteger num;
 
-  /** The denominator of the fraction. */
+  /** The denominator of the fraction, or null when the fraction is stored in longs. */
   private final BigInteger denom;
 
+  /** The numerator of the fraction when it fits in a long. */
+  private final long smallNum;
+
+  /** The denominator of the fraction when it fits in a long (always positive). */
+  private final long smallDenom;
+
+  /** The hash code, computed on first use; 0 until then. */
+  private int hash;
+
+  /** The string form, computed on first use; null until then. */
+  private String string;
+
   /**
    * Constructs a BigFraction with the specified numerator and denominator. The fraction is
    * automatically simplified.
@@ -34,9 +83,20 @@ public class BigFraction {
     } // End if block to ensure the denominator is positive
 
     // Simplify the fraction by dividing by the GCD
-    BigInteger gcd = numerator.gcd(denominator);
-    this.num = numerator.divide(gcd); // Using 'this' to reference class field
-    this.denom = denominator.divide(gcd); // Using 'this' to reference class field
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    BigInteger gcd = LargeArithmetic.gcd(numerator, denominator);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordGcd(start);
+    } // End if block for metrics
+    BigInteger reducedNum = numerator.divide(gcd);
+    BigInteger reducedDenom = denominator.divide(gcd);
+
+    // Keep the result in longs whenever it fits
+    boolean small = fitsInLong(reducedNum) && fitsInLong(reducedDenom);
+    this.num = small ? null : reducedNum;
+    this.denom = small ? null : reducedDenom;
+    this.smallNum = small ? reducedNum.longValue() : 0;
+    this.smallDenom = small ? reducedDenom.longValue() : 0;
   } // End constructor BigFraction(BigInteger, BigInteger)
 
   /**
@@ -44,9 +104,30 @@ public class BigFraction {
    *
    * @param numerator the numerator of the fraction
    * @param denominator the denominator of the fraction (must not be zero)
+   * @throws ArithmeticException if the denominator is zero
    */
   public BigFraction(int numerator, int denominator) {
-    this(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+    if (denominator == 0) {
+      throw new ArithmeticException("Denominator cannot be zero");
+    } // End if block to send the error when denominator is zero
+
+    // Widen first so that negating Integer.MIN_VALUE cannot overflow
+    long n = numerator;
+    long d = denominator;
+    if (d < 0) {
+      n = -n;
+      d = -d;
+    } // End if block to ensure the denominator is positive
+
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    long gcd = gcd(Math.abs(n), d);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordGcd(start);
+    } // End if block for metrics
+    this.num = null;
+    this.denom = null;
+    this.smallNum = n / gcd;
+    this.smallDenom = d / gcd;
   } // End constructor BigFraction(int, int)
 
   /**
@@ -56,21 +137,38 @@ public class BigFraction {
    * @param str the string representing the fraction
    */
   public BigFraction(String str) {
+    BigFraction parsed;
     if (str.contains("/")) {
       String[] parts = str.split("/");
-      this.num =
-          new BigFraction(new BigInteger(parts[0].trim()), new BigInteger(parts[1].trim()))
-              .numerator();
-      this.denom =
-          new BigFraction(new BigInteger(parts[0].trim()), new BigInteger(parts[1].trim()))
-              .denominator();
+      parsed = new BigFraction(new BigInteger(parts[0].trim()), new BigInteger(parts[1].trim()));
     } else {
       // Handle whole numbers like "42"
-      this.num = new BigInteger(str.trim());
-      this.denom = BigInteger.ONE;
+      parsed = new BigFraction(new BigInteger(str.trim()), BigInteger.ONE);
     } // End if block to initialize the fields based on string input
+    this.num = parsed.num;
+    this.denom = parsed.denom;
+    this.smallNum = parsed.smallNum;
+    this.smallDenom = parsed.smallDenom;
   } // End constructor BigFraction(String)
 
+  /**
+   * Constructs a BigFraction directly from its representation, without any normalization. Either
+   * the BigInteger parts are null and the long parts hold a reduced fraction with a positive
+   * denominator and no {@code Long.MIN_VALUE}, or the BigInteger parts hold a reduced fraction
+   * that does not fit in longs.
+   *
+   * @param bigNum the numerator when it does not fit in a long, or null
+   * @param bigDenom the denominator when it does not fit in a long, or null
+   * @param longNum the numerator when bigNum is null
+   * @param longDenom the denominator when bigNum is null
+   */
+  private BigFraction(BigInteger bigNum, BigInteger bigDenom, long longNum, long longDenom) {
+    this.num = bigNum;
+    this.denom = bigDenom;
+    this.smallNum = longNum;
+    this.smallDenom = longDenom;
+  } // End constructor BigFraction(BigInteger, BigInteger, long, long)
+
   /**
    * Adds the current fraction to another fraction.
    *
@@ -78,10 +176,19 @@ public class BigFraction {
    * @return a new BigFraction representing the sum
    */
   public BigFraction add(BigFraction other) {
-    BigInteger newNumerator =
-        this.num.multiply(other.denom).add(other.num.multiply(this.denom));
-    BigInteger newDenominator = this.denom.multiply(other.denom);
-    return new BigFraction(newNumerator, newDenominator);
+    if (other.isZero()) {
+      return this;
+    } else if (this.isZero()) {
+      return other;
+    } // End if block for adding zero
+    if (this.isSmall() && other.isSmall()) {
+      try {
+        return sumOf(this.smallNum, this.smallDenom, other.smallNum, other.smallDenom);
+      } catch (ArithmeticException overflow) {
+        // Fall through to the BigInteger computation
+      } // End try/catch for long overflow
+    } // End if block for the long fast path
+    return sumOf(this.numerator(), this.denominator(), other.numerator(), other.denominator());
   } // End method add
 
   /**
@@ -91,12 +198,15 @@ public class BigFraction {
    * @return a new BigFraction representing the result
    */
   public BigFraction subtract(BigFraction other) {
-    BigInteger newNumerator =
-        this.num
-            .multiply(other.denom)
-            .subtract(other.num.multiply(this.denom));
-    BigInteger newDenominator = this.denom.multiply(other.denom);
-    return new BigFraction(newNumerator, newDenominator);
+    if (this.isSmall() && other.isSmall()) {
+      try {
+        return sumOf(this.smallNum, this.smallDenom, -other.smallNum, other.smallDenom);
+      } catch (ArithmeticException overflow) {
+        // Fall through to the BigInteger computation
+      } // End try/catch for long overflow
+    } // End if block for the long fast path
+    return sumOf(
+        this.numerator(), this.denominator(), other.numerator().negate(), other.denominator());
   } // End method subtract
 
   /**
@@ -106,9 +216,21 @@ public class BigFraction {
    * @return a new BigFraction representing the product
    */
   public BigFraction multiply(BigFraction other) {
-    BigInteger newNumerator = this.num.multiply(other.num);
-    BigInteger newDenominator = this.denom.multiply(other.denom);
-    return new BigFraction(newNumerator, newDenominator);
+    if (this.isZero() || other.isZero()) {
+      return ZERO;
+    } else if (other.isOne()) {
+      return this;
+    } else if (this.isOne()) {
+      return other;
+    } // End if block for multiplying by zero or one
+    if (this.isSmall() && other.isSmall()) {
+      try {
+        return productOf(this.smallNum, this.smallDenom, other.smallNum, other.smallDenom);
+      } catch (ArithmeticException overflow) {
+        // Fall through to the BigInteger computation
+      } // End try/catch for long overflow
+    } // End if block for the long fast path
+    return productOf(this.numerator(), this.denominator(), other.numerator(), other.denominator());
   } // End method multiply
 
   /**
@@ -119,21 +241,78 @@ public class BigFraction {
    * @throws ArithmeticException if dividing by zero
    */
   public BigFraction divide(BigFraction other) {
-    if (other.num.equals(BigInteger.ZERO)) {
+    int sign = other.signum();
+    if (sign == 0) {
       throw new ArithmeticException("Cannot divide by zero.");
     } // End if block to send the error when numerator is zero
-    BigInteger newNumerator = this.num.multiply(other.denom);
-    BigInteger newDenominator = this.denom.multiply(other.num);
-    return new BigFraction(newNumerator, newDenominator);
+    // Multiply by the reciprocal, keeping its denominator positive
+    if (this.isSmall() && other.isSmall()) {
+      try {
+        return productOf(
+            this.smallNum, this.smallDenom, sign * other.smallDenom, sign * other.smallNum);
+      } catch (ArithmeticException overflow) {
+        // Fall through to the BigInteger computation
+      } // End try/catch for long overflow
+    } // End if block for the long fast path
+    BigInteger recipNum = other.denominator();
+    BigInteger recipDenom = other.numerator();
+    if (sign < 0) {
+      recipNum = recipNum.negate();
+      recipDenom = recipDenom.negate();
+    } // End if block to keep the reciprocal's denominator positive
+    return productOf(this.numerator(), this.denominator(), recipNum, recipDenom);
   } // End method divide
 
+  /**
+   * Negates the current fraction.
+   *
+   * @return a new BigFraction with the opposite sign
+   */
+  public BigFraction negate() {
+    if (this.isSmall()) {
+      return new BigFraction(null, null, -this.smallNum, this.smallDenom);
+    } // End if block for fractions stored in longs
+    return ofReduced(this.num.negate(), this.denom);
+  } // End method negate
+
+  /**
+   * Adds up many fractions. Terms are grouped by denominator, each group's numerators are added as
+   * plain integers, and only the final total is reduced, which is much faster than repeated
+   * {@link #add} when the terms share denominators.
+   *
+   * @param values the fractions to add
+   * @return their sum, or 0 if there are none
+   */
+  public static BigFraction sum(Iterable<BigFraction> values) {
+    FractionSum total = new FractionSum();
+    for (BigFraction value : values) {
+      total.add(value);
+    } // End for loop over the values
+    return total.result();
+  } // End method sum
+
+  /**
+   * Returns a collector that adds up a stream of fractions as {@link #sum(Iterable)} does. It may
+   * be used with parallel streams.
+   *
+   * @return the collector
+   */
+  public static Collector<BigFraction, ?, BigFraction> summing() {
+    return Collector.of(
+        FractionSum::new,
+        FractionSum::add,
+        FractionSum::combine,
+        FractionSum::result,
+        Collector.Characteristics.UNORDERED);
+  } // End method summing
+
   /**
    * Returns the numerator of the fraction.
    *
    * @return the numerator as a BigInteger
    */
   public BigInteger numerator() {
-    return this.num;
+    return (this.num != null) ? this.num : BigInteger.valueOf(this.smallNum);
   } // End method numerator
 
   /**
@@ -142,19 +321,578 @@ public class BigFraction {
    * @return the denominator as a BigInteger
    */
   public BigInteger denominator() {
-    return this.denom;
+    return (this.denom != null) ? this.denom : BigInteger.valueOf(this.smallDenom);
   } // End method denominator
 
   /**
-   * Returns a string representation of the fraction.
+   * Returns the sign of the fraction.
+   *
+   * @return -1, 0, or 1 as the fraction is negative, zero, or positive
+   */
+  public int signum() {
+    return (this.num != null) ? this.num.signum() : Long.signum(this.smallNum);
+  } // End method signum
+
+  /**
+   * Returns a string representation of the fraction, computed once and then cached.
    *
    * @return the string representation of the fraction
    */
   @Override
   public String toString() {
-    if (denom.equals(BigInteger.ONE)) {
-      return num.toString(); // Return whole numbers without "/1"
-    } // End if block to return whole numbers without "/1"
-    return num + "/" + denom;
+    String result = this.string;
+    if (result == null) {
+      if (this.isSmall()) {
+        result =
+            (smallDenom == 1)
+                ? Long.toString(smallNum) // Return whole numbers without "/1"
+                : smallNum + "/" + smallDenom;
+      } else {
+        StringBuilder builder = new StringBuilder();
+        appendTo(builder);
+        result = builder.toString();
+      } // End if block for fractions stored in longs
+      this.string = result;
+    } // End if block for the first call
+    return result;
   } // End method toString
+
+  /**
+   * Appends the string form of the fraction to a builder. Unless {@link #toString()} has already
+   * cached it, large parts are converted straight into the builder by divide and conquer, without
+   * building intermediate strings, so a builder reused across values avoids most allocation.
+   *
+   * @param out the builder to append to
+   */
+  public void appendTo(StringBuilder out) {
+    if (this.string != null) {
+      out.append(this.string);
+    } else if (this.isSmall()) {
+      out.append(smallNum);
+      if (smallDenom != 1) {
+        out.append('/').append(smallDenom);
+      } // End if block to write whole numbers without "/1"
+    } else {
+      DecimalConversion.append(num, out);
+      if (!denom.equals(BigInteger.ONE)) {
+        out.append('/');
+        DecimalConversion.append(denom, out);
+      } // End if block to write whole numbers without "/1"
+    } // End if block for each representation
+  } // End method appendTo(StringBuilder)
+
+  /**
+   * Appends the string form of the fraction to any Appendable.
+   *
+   * @param out the destination
+   * @throws IOException if the destination fails
+   */
+  public void appendTo(Appendable out) throws IOException {
+    if (out instanceof StringBuilder) {
+      appendTo((StringBuilder) out);
+    } else {
+      out.append(toString());
+    } // End if block for builders
+  } // End method appendTo(Appendable)
+
+  /**
+   * Returns the value in decimal notation, rounded to a number of digits after the point with
+   * ties rounded away from zero, as in "0.333" for 1/3 with three digits. The digits come from a
+   * single division of the numerator, scaled by a power of ten, by the denominator.
+   *
+   * @param digits the number of digits after the decimal point
+   * @return the decimal string, with no point when digits is 0
+   * @throws IllegalArgumentException if digits is negative
+   */
+  public String toDecimal(int digits) {
+    if (digits < 0) {
+      throw new IllegalArgumentException("The number of digits cannot be negative.");
+    } // End if block for a negative number of digits
+    BigInteger scaled = this.numerator().abs().multiply(BigInteger.TEN.pow(digits));
+    BigInteger[] quotient = scaled.divideAndRemainder(this.denominator());
+    BigInteger rounded = quotient[0];
+    if (quotient[1].shiftLeft(1).compareTo(this.denominator()) >= 0) {
+      rounded = rounded.add(BigInteger.ONE);
+    } // End if block to round up
+    StringBuilder out = new StringBuilder();
+    if (this.signum() < 0 && rounded.signum() != 0) {
+      out.append('-');
+    } // End if block for negative values
+    int start = out.length();
+    DecimalConversion.append(rounded, out);
+    if (digits > 0) {
+      int missing = digits + 1 - (out.length() - start);
+      if (missing > 0) {
+        out.insert(start, "0".repeat(missing));
+      } // End if block for values below one
+      out.insert(out.length() - digits, '.');
+    } // End if block for digits after the point
+    return out.toString();
+  } // End method toDecimal
+
+  /**
+   * Writes the fraction in a compact binary form: a few bytes for fractions stored in longs, and
+   * the magnitude bytes of each part otherwise. See {@link BigFractionWriter} for writing many.
+   *
+   * @param out the destination
+   * @throws IOException if the destination fails
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    BigFractionCodec.write(this, out);
+  } // End method writeTo(DataOutput)
+
+  /**
+   * Writes the fraction in binary form into a buffer.
+   *
+   * @param out the buffer
+   * @throws java.nio.BufferOverflowException if the buffer does not have room for the fraction
+   */
+  public void writeTo(ByteBuffer out) {
+    BigFractionCodec.write(this, out);
+  } // End method writeTo(ByteBuffer)
+
+  /**
+   * Reads a fraction written by {@link #writeTo(DataOutput)}. The parts are taken as written,
+   * already in lowest terms, without reducing them again.
+   *
+   * @param in the source
+   * @return the fraction
+   * @throws java.io.EOFException if the source ends inside the fraction
+   * @throws java.io.StreamCorruptedException if the bytes are not a valid encoding
+   * @throws IOException if the source fails
+   */
+  public static BigFraction readFrom(DataInput in) throws IOException {
+    return BigFractionCodec.read(in);
+  } // End method readFrom(DataInput)
+
+  /**
+   * Reads a fraction written by {@link #writeTo(ByteBuffer)}.
+   *
+   * @param in the buffer
+   * @return the fraction
+   * @throws java.nio.BufferUnderflowException if the buffer ends inside the fraction
+   * @throws IllegalArgumentException if the bytes are not a valid encoding
+   */
+  public static BigFraction readFrom(ByteBuffer in) {
+    return BigFractionCodec.read(in);
+  } // End method readFrom(ByteBuffer)
+
+  /**
+   * Determines whether another object is a fraction with the same value. Because every fraction
+   * is kept reduced, in one canonical representation, this compares the parts directly.
+   *
+   * @param other the object to compare with
+   * @return true if other is a BigFraction equal to this one
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (!(other instanceof BigFraction)) {
+      return false;
+    } // End if block for identical and foreign objects
+    BigFraction that = (BigFraction) other;
+    if (this.isSmall() || that.isSmall()) {
+      return this.num == that.num
+          && this.smallNum == that.smallNum
+          && this.smallDenom == that.smallDenom;
+    } // End if block for fractions stored in longs
+    return this.num.equals(that.num) && this.denom.equals(that.denom);
+  } // End method equals
+
+  /**
+   * Returns a hash code for the fraction, computed once and then cached.
+   *
+   * @return the hash code
+   */
+  @Override
+  public int hashCode() {
+    int h = this.hash;
+    if (h == 0) {
+      h =
+          this.isSmall()
+              ? Long.hashCode(this.smallNum) * HASH_MULTIPLIER + Long.hashCode(this.smallDenom)
+              : this.num.hashCode() * HASH_MULTIPLIER + this.denom.hashCode();
+      this.hash = h;
+    } // End if block for the first call
+    return h;
+  } // End method hashCode
+
+  /**
+   * Compares the values of two fractions. The signs are compared first, then, for large values,
+   * the bit lengths of the parts, which settle most comparisons between values of different
+   * magnitudes. Only the rest need a cross-multiplication, which is done in 128 bits for small
+   * fractions.
+   *
+   * @param other the fraction to compare with
+   * @return a negative number, zero, or a positive number as this fraction is less than, equal
+   *     to, or greater than other
+   */
+  @Override
+  public int compareTo(BigFraction other) {
+    int sign = this.signum();
+    int otherSign = other.signum();
+    if (sign != otherSign) {
+      return Integer.compare(sign, otherSign);
+    } else if (sign == 0) {
+      return 0;
+    } // End if block for different signs or zeros
+    if (this.isSmall() && other.isSmall()) {
+      long a = this.smallNum;
+      long d = other.smallDenom;
+      long c = other.smallNum;
+      long b = this.smallDenom;
+      long highAd = Math.multiplyHigh(a, d);
+      long highCb = Math.multiplyHigh(c, b);
+      if (highAd != highCb) {
+        return Long.compare(highAd, highCb);
+      } // End if block for different high halves
+      return Long.compareUnsigned(a * d, c * b);
+    } // End if block for fractions stored in longs
+
+    // |a/b| is above 2^(bits(a) - bits(b) - 1) and at most 2^(bits(a) - bits(b) + 1)
+    BigInteger a = this.numerator();
+    BigInteger b = this.denominator();
+    BigInteger c = other.numerator();
+    BigInteger d = other.denominator();
+    int scale = a.bitLength() - b.bitLength();
+    int otherScale = c.bitLength() - d.bitLength();
+    if (Math.abs(scale - otherScale) >= 2) {
+      return (scale > otherScale) ? sign : -sign;
+    } // End if block for magnitudes that the bit lengths settle
+    return LargeArithmetic.multiply(a, d).compareTo(LargeArithmetic.multiply(c, b));
+  } // End method compareTo
+
+  /**
+   * Determines whether this fraction is stored in the long representation.
+   *
+   * @return true if the numerator and denominator are held in longs
+   */
+  boolean isSmall() {
+    return this.num == null;
+  } // End method isSmall
+
+  /**
+   * Determines whether this fraction is 0.
+   *
+   * @return true if the fraction is 0
+   */
+  private boolean isZero() {
+    return this.num == null && this.smallNum == 0;
+  } // End method isZero
+
+  /**
+   * Determines whether this fraction is 1.
+   *
+   * @return true if the fraction is 1
+   */
+  private boolean isOne() {
+    return this.num == null && this.smallNum == 1 && this.smallDenom == 1;
+  } // End method isOne
+
+  /**
+   * Returns the numerator of a fraction stored in the long representation.
+   *
+   * @return the numerator, meaningful only when {@link #isSmall()} is true
+   */
+  long smallNumerator() {
+    return this.smallNum;
+  } // End method smallNumerator
+
+  /**
+   * Returns the denominator of a fraction stored in the long representation.
+   *
+   * @return the denominator, meaningful only when {@link #isSmall()} is true
+   */
+  long smallDenominator() {
+    return this.smallDenom;
+  } // End method smallDenominator
+
+  /**
+   * Returns the fraction with a given numerator and denominator as longs, simplifying it with the
+   * binary GCD instead of going through BigInteger. Small fractions, with a numerator of at most
+   * 1024 in magnitude and a denominator from 1 to 64, come from a preallocated table of canonical
+   * instances, so after first use they need no allocation or GCD.
+   *
+   * @param numerator the numerator of the fraction
+   * @param denominator the denominator of the fraction (must not be zero)
+   * @return the simplified fraction
+   * @throws ArithmeticException if the denominator is zero
+   */
+  public static BigFraction valueOf(long numerator, long denominator) {
+    if (denominator == 0) {
+      throw new ArithmeticException("Denominator cannot be zero");
+    } // End if block to send the error when denominator is zero
+    if (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE) {
+      return new BigFraction(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+    } // End if block for values that cannot be negated
+    if (denominator < 0) {
+      numerator = -numerator;
+      denominator = -denominator;
+    } // End if block to ensure the denominator is positive
+    if (denominator <= CACHE_DENOMINATOR && Math.abs(numerator) <= CACHE_NUMERATOR) {
+      return cached((int) numerator, (int) denominator);
+    } // End if block for cached fractions
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    long gcd = gcd(Math.abs(numerator), denominator);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordGcd(start);
+    } // End if block for metrics
+    return new BigFraction(null, null, numerator / gcd, denominator / gcd);
+  } // End method valueOf(long, long)
+
+  /**
+   * Returns the fraction written in a string of the form "numerator/denominator" or a whole
+   * number, as {@link #BigFraction(String)} parses it. Small values come from the same table as
+   * {@link #valueOf(long, long)}, and parts short enough to fit in a long are parsed without
+   * BigInteger. Strings with more than one slash go to the constructor, which ignores everything
+   * after the second slash.
+   *
+   * @param str the string representing the fraction
+   * @return the simplified fraction
+   * @throws NumberFormatException if the string is not a fraction
+   * @throws ArithmeticException if the denominator is zero
+   */
+  public static BigFraction valueOf(String str) {
+    int slash = str.indexOf('/');
+    String numText = ((slash < 0) ? str : str.substring(0, slash)).trim();
+    String denomText = (slash < 0) ? "1" : str.substring(slash + 1).trim();
+    if (numText.length() > LONG_DIGITS
+        || denomText.length() > LONG_DIGITS
+        || denomText.indexOf('/') >= 0) {
+      return new BigFraction(str);
+    } // End if block for parts that may not fit in a long or need the constructor's parsing
+    return valueOf(Long.parseLong(numText), Long.parseLong(denomText));
+  } // End method valueOf(String)
+
+  /**
+   * Finds the table entry of a small fraction.
+   *
+   * @param numerator a numerator of at most {@link #CACHE_NUMERATOR} in magnitude
+   * @param denominator a denominator from 1 to {@link #CACHE_DENOMINATOR}
+   * @return the index of n/d in {@link #CACHE}
+   */
+  private static int cacheIndex(long numerator, long denominator) {
+    return (int) ((denominator - 1) * CACHE_ROW + numerator + CACHE_NUMERATOR);
+  } // End method cacheIndex
+
+  /**
+   * Returns the canonical instance of a small fraction, creating it and the instance of its
+   * reduced form if they are not in the table yet.
+   *
+   * @param numerator a numerator of at most {@link #CACHE_NUMERATOR} in magnitude
+   * @param denominator a denominator from 1 to {@link #CACHE_DENOMINATOR}
+   * @return the fraction
+   */
+  private static BigFraction cached(int numerator, int denominator) {
+    int index = cacheIndex(numerator, denominator);
+    BigFraction value = CACHE[index];
+    if (value == null) {
+      long gcd = gcd(Math.abs(numerator), denominator);
+      int reducedIndex = cacheIndex(numerator / gcd, denominator / gcd);
+      value = CACHE[reducedIndex];
+      if (value == null) {
+        value = new BigFraction(null, null, numerator / gcd, denominator / gcd);
+        CACHE[reducedIndex] = value;
+      } // End if block for a new reduced fraction
+      CACHE[index] = value;
+    } // End if block for an empty entry
+    return value;
+  } // End method cached
+
+  /**
+   * Builds a fraction from a numerator and denominator that are already in lowest terms with a
+   * positive denominator, skipping the GCD. The long representation is used when the parts fit.
+   *
+   * @param numerator the reduced numerator
+   * @param denominator the reduced, positive denominator
+   * @return the fraction
+   */
+  static BigFraction ofReduced(BigInteger numerator, BigInteger denominator) {
+    if (fitsInLong(numerator) && fitsInLong(denominator)) {
+      return new BigFraction(null, null, numerator.longValue(), denominator.longValue());
+    } // End if block for values that fit in longs
+    return new BigFraction(numerator, denominator, 0, 0);
+  } // End method ofReduced
+
+  /**
+   * Builds a fraction from an already-reduced pair of longs, promoting to BigInteger if the
+   * numerator is {@code Long.MIN_VALUE}.
+   *
+   * @param numerator the reduced numerator
+   * @param denominator the reduced, positive denominator
+   * @return the fraction
+   */
+  static BigFraction ofReduced(long numerator, long denominator) {
+    if (numerator == Long.MIN_VALUE) {
+      return new BigFraction(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator), 0, 0);
+    } // End if block for values that cannot be negated
+    return new BigFraction(null, null, numerator, denominator);
+  } // End method ofReduced
+
+  /**
+   * Computes a/b + c/d for reduced fractions in longs. Following Knuth (TAOCP 4.5.1), the
+   * denominators are divided by their GCD before multiplying, so intermediates stay small and the
+   * only other GCD is taken against that (usually tiny) common factor.
+   *
+   * @param a the first numerator
+   * @param b the first denominator
+   * @param c the second numerator
+   * @param d the second denominator
+   * @return the reduced sum
+   * @throws ArithmeticException if an intermediate overflows a long
+   */
+  private static BigFraction sumOf(long a, long b, long c, long d) {
+    long d1 = timedGcd(b, d);
+    if (d1 == 1) {
+      return ofReduced(
+          Math.addExact(Math.multiplyExact(a, d), Math.multiplyExact(c, b)),
+          Math.multiplyExact(b, d));
+    } // End if block for coprime denominators
+    long t = Math.addExact(Math.multiplyExact(a, d / d1), Math.multiplyExact(c, b / d1));
+    if (t == 0) {
+      return ZERO;
+    } // End if block for a zero sum
+    long d2 = timedGcd(Math.absExact(t), d1);
+    return ofReduced(t / d2, Math.multiplyExact(b / d1, d / d2));
+  } // End method sumOf
+
+  /**
+   * Computes a/b + c/d for reduced fractions in BigIntegers, as in {@link #sumOf(long, long, long,
+   * long)}.
+   *
+   * @param a the first numerator
+   * @param b the first denominator
+   * @param c the second numerator
+   * @param d the second denominator
+   * @return the reduced sum
+   */
+  private static BigFraction sumOf(BigInteger a, BigInteger b, BigInteger c, BigInteger d) {
+    BigInteger d1 = timedGcd(b, d);
+    if (d1.equals(BigInteger.ONE)) {
+      return ofReduced(
+          LargeArithmetic.multiply(a, d).add(LargeArithmetic.multiply(c, b)),
+          LargeArithmetic.multiply(b, d));
+    } // End if block for coprime denominators
+    BigInteger t =
+        LargeArithmetic.multiply(a, d.divide(d1)).add(LargeArithmetic.multiply(c, b.divide(d1)));
+    if (t.signum() == 0) {
+      return ZERO;
+    } // End if block for a zero sum
+    BigInteger d2 = timedGcd(t, d1);
+    return ofReduced(t.divide(d2), LargeArithmetic.multiply(b.divide(d1), d.divide(d2)));
+  } // End method sumOf
+
+  /**
+   * Computes (a/b) * (c/d) for reduced fractions in longs. Each numerator is cancelled against the
+   * other fraction's denominator before multiplying, so the product is already in lowest terms.
+   *
+   * @param a the first numerator
+   * @param b the first denominator
+   * @param c the second numerator
+   * @param d the second denominator
+   * @return the reduced product
+   * @throws ArithmeticException if an intermediate overflows a long
+   */
+  private static BigFraction productOf(long a, long b, long c, long d) {
+    if (a == 0 || c == 0) {
+      return ZERO;
+    } // End if block for a zero factor
+    long g1 = timedGcd(Math.abs(a), d);
+    long g2 = timedGcd(Math.abs(c), b);
+    return ofReduced(
+        Math.multiplyExact(a / g1, c / g2), Math.multiplyExact(b / g2, d / g1));
+  } // End method productOf
+
+  /**
+   * Computes (a/b) * (c/d) for reduced fractions in BigIntegers, as in {@link #productOf(long,
+   * long, long, long)}.
+   *
+   * @param a the first numerator
+   * @param b the first denominator
+   * @param c the second numerator
+   * @param d the second denominator
+   * @return the reduced product
+   */
+  private static BigFraction productOf(BigInteger a, BigInteger b, BigInteger c, BigInteger d) {
+    if (a.signum() == 0 || c.signum() == 0) {
+      return ZERO;
+    } // End if block for a zero factor
+    BigInteger g1 = timedGcd(a, d);
+    BigInteger g2 = timedGcd(c, b);
+    return ofReduced(
+        LargeArithmetic.multiply(a.divide(g1), c.divide(g2)),
+        LargeArithmetic.multiply(b.divide(g2), d.divide(g1)));
+  } // End method productOf
+
+  /**
+   * Computes the greatest common divisor of two non-negative longs with Stein's binary GCD
+   * algorithm. As with {@link BigInteger#gcd}, gcd(0, b) is b.
+   *
+   * @param a a non-negative value
+   * @param b a non-negative value
+   * @return the greatest common divisor of a and b
+   */
+  static long gcd(long a, long b) {
+    if (a == 0) {
+      return b;
+    } else if (b == 0) {
+      return a;
+    } // End if block for zero operands
+    int shift = Long.numberOfTrailingZeros(a | b);
+    a >>= Long.numberOfTrailingZeros(a);
+    do {
+      b >>= Long.numberOfTrailingZeros(b);
+      if (a > b) {
+        long temp = a;
+        a = b;
+        b = temp;
+      } // End if block to keep a <= b
+      b -= a;
+    } while (b != 0);
+    return a << shift;
+  } // End method gcd
+
+  /**
+   * Computes {@link #gcd(long, long)}, recording its count and time when metrics are enabled.
+   *
+   * @param a a non-negative value
+   * @param b a non-negative value
+   * @return the greatest common divisor of a and b
+   */
+  private static long timedGcd(long a, long b) {
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    long gcd = gcd(a, b);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordGcd(start);
+    } // End if block for metrics
+    return gcd;
+  } // End method timedGcd(long, long)
+
+  /**
+   * Computes {@link LargeArithmetic#gcd}, recording its count and time when metrics are enabled.
+   *
+   * @param a a value
+   * @param b a value
+   * @return the greatest common divisor of a and b
+   */
+  private static BigInteger timedGcd(BigInteger a, BigInteger b) {
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    BigInteger gcd = LargeArithmetic.gcd(a, b);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordGcd(start);
+    } // End if block for metrics
+    return gcd;
+  } // End method timedGcd(BigInteger, BigInteger)
+
+  /**
+   * Determines whether a BigInteger can be held in the long representation. {@code
+   * Long.MIN_VALUE} is excluded so that every stored long can be negated.
+   *
+   * @param value the value to check
+   * @return true if value fits in a long and is not {@code Long.MIN_VALUE}
+   */
+  private static boolean fitsInLong(BigInteger value) {
+    return value.bitLength() < Long.SIZE && value.longValue() != Long.MIN_VALUE;
+  } // End method fitsInLong
 } // End class BigFraction
@@ -0,0 +1,587 @@
+package edu.grinnell.csc207.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Bulk operations over columns of fractions, held either as a {@code BigFraction[]} or, for values
+ * that fit in longs, as a structure of arrays: a {@code long[]} of numerators and a parallel
+ * {@code long[]} of denominators. Structure-of-arrays values must be in lowest terms with positive
+ * denominators, as BigFraction keeps them, and never {@code Long.MIN_VALUE}.
+ *
+ * <p>Sums are taken as a balanced tree of pairwise additions rather than one running total, so
+ * intermediate denominators stay close to the size of the terms. Inputs of at least {@link
+ * #PARALLEL_THRESHOLD} elements are split across the common fork-join pool, or across the pool
+ * of the calling task when there is one. The long kernels combine values with exact arithmetic
+ * and no allocation; a sum that overflows carries on in BigFraction, while an element-wise result
+ * that does not fit throws ArithmeticException.
+ */
+public class BigFractionArrays {
+
+  /** The length from which operations run in parallel. */
+  public static final int PARALLEL_THRESHOLD = 1 << 13;
+
+  /** The number of elements a parallel task handles without splitting further. */
+  private static final int GRAIN = 1 << 12;
+
+  /** The number of terms summed one after another at the leaves of the tree. */
+  private static final int LEAF = 32;
+
+  /** The number of blocks per worker in a parallel prefix sum. */
+  private static final int BLOCKS_PER_WORKER = 4;
+
+  /** Prevents instantiation of this utility class. */
+  private BigFractionArrays() {} // End constructor BigFractionArrays
+
+  /**
+   * Sums a column.
+   *
+   * @param values the terms
+   * @return their sum, or 0 if there are none
+   */
+  public static BigFraction sum(BigFraction[] values) {
+    return sumOf(values.length, i -> values[i]);
+  } // End method sum
+
+  /**
+   * Computes the dot product of two columns.
+   *
+   * @param a the first column
+   * @param b the second column
+   * @return the sum of a[i] * b[i]
+   * @throws IllegalArgumentException if the columns differ in length
+   */
+  public static BigFraction dot(BigFraction[] a, BigFraction[] b) {
+    checkLengths(a.length, b.length);
+    return sumOf(a.length, i -> a[i].multiply(b[i]));
+  } // End method dot
+
+  /**
+   * Multiplies every value of a column by a factor.
+   *
+   * @param values the column
+   * @param factor the factor
+   * @return a new column of the products
+   */
+  public static BigFraction[] scale(BigFraction[] values, BigFraction factor) {
+    BigFraction[] result = new BigFraction[values.length];
+    forEach(values.length, i -> result[i] = values[i].multiply(factor));
+    return result;
+  } // End method scale
+
+  /**
+   * Adds two columns element by element.
+   *
+   * @param a the first column
+   * @param b the second column
+   * @return a new column holding a[i] + b[i]
+   * @throws IllegalArgumentException if the columns differ in length
+   */
+  public static BigFraction[] addElementwise(BigFraction[] a, BigFraction[] b) {
+    checkLengths(a.length, b.length);
+    BigFraction[] result = new BigFraction[a.length];
+    forEach(a.length, i -> result[i] = a[i].add(b[i]));
+    return result;
+  } // End method addElementwise
+
+  /**
+   * Computes the running totals of a column.
+   *
+   * @param values the column
+   * @return a new column whose element i is values[0] + ... + values[i]
+   */
+  public static BigFraction[] prefixSum(BigFraction[] values) {
+    return prefixSumOf(values.length, i -> values[i]);
+  } // End method prefixSum
+
+  /**
+   * Sums a column of small fractions.
+   *
+   * @param num the numerators
+   * @param den the denominators
+   * @return their sum, or 0 if there are none
+   * @throws IllegalArgumentException if the arrays differ in length
+   */
+  public static BigFraction sum(long[] num, long[] den) {
+    checkLengths(num.length, den.length);
+    if (num.length < PARALLEL_THRESHOLD) {
+      return treeSum(num, den, 0, num.length);
+    } // End if block for small inputs
+    return pool().invoke(new LongSumTask(num, den, 0, num.length));
+  } // End method sum
+
+  /**
+   * Computes the dot product of two columns of small fractions.
+   *
+   * @param aNum the numerators of the first column
+   * @param aDen the denominators of the first column
+   * @param bNum the numerators of the second column
+   * @param bDen the denominators of the second column
+   * @return the sum of a[i] * b[i]
+   * @throws IllegalArgumentException if the arrays differ in length
+   */
+  public static BigFraction dot(long[] aNum, long[] aDen, long[] bNum, long[] bDen) {
+    checkLengths(aNum.length, aDen.length);
+    checkLengths(aNum.length, bNum.length);
+    checkLengths(aNum.length, bDen.length);
+    return sumOf(
+        aNum.length,
+        i ->
+            BigFraction.ofReduced(aNum[i], aDen[i])
+                .multiply(BigFraction.ofReduced(bNum[i], bDen[i])));
+  } // End method dot
+
+  /**
+   * Multiplies every value of a column of small fractions by a factor, in longs.
+   *
+   * @param num the numerators
+   * @param den the denominators
+   * @param factor the factor, which must fit in longs
+   * @param outNum receives the numerators of the products (may be num)
+   * @param outDen receives the denominators of the products (may be den)
+   * @throws IllegalArgumentException if the arrays differ in length
+   * @throws ArithmeticException if the factor or a product does not fit in longs, in which case
+   *     the output may be partly written
+   */
+  public static void scale(
+      long[] num, long[] den, BigFraction factor, long[] outNum, long[] outDen) {
+    checkLengths(num.length, den.length);
+    checkLengths(num.length, outNum.length);
+    checkLengths(num.length, outDen.length);
+    if (!factor.isSmall()) {
+      throw new ArithmeticException("The factor does not fit in longs.");
+    } // End if block for large factors
+    long c = factor.smallNumerator();
+    long d = factor.smallDenominator();
+    forEach(num.length, i -> multiplyInto(num[i], den[i], c, d, outNum, outDen, i));
+  } // End method scale
+
+  /**
+   * Adds two columns of small fractions element by element, in longs.
+   *
+   * @param aNum the numerators of the first column
+   * @param aDen the denominators of the first column
+   * @param bNum the numerators of the second column
+   * @param bDen the denominators of the second column
+   * @param outNum receives the numerators of the sums (may be an input)
+   * @param outDen receives the denominators of the sums (may be an input)
+   * @throws IllegalArgumentException if the arrays differ in length
+   * @throws ArithmeticException if a sum does not fit in longs, in which case the output may be
+   *     partly written
+   */
+  public static void addElementwise(
+      long[] aNum, long[] aDen, long[] bNum, long[] bDen, long[] outNum, long[] outDen) {
+    checkLengths(aNum.length, aDen.length);
+    checkLengths(aNum.length, bNum.length);
+    checkLengths(aNum.length, bDen.length);
+    checkLengths(aNum.length, outNum.length);
+    checkLengths(aNum.length, outDen.length);
+    forEach(aNum.length, i -> addInto(aNum[i], aDen[i], bNum[i], bDen[i], outNum, outDen, i));
+  } // End method addElementwise
+
+  /**
+   * Computes the running totals of a column of small fractions. The totals are returned as
+   * BigFractions because they may outgrow longs.
+   *
+   * @param num the numerators
+   * @param den the denominators
+   * @return a new column whose element i is the sum of the first i + 1 fractions
+   * @throws IllegalArgumentException if the arrays differ in length
+   */
+  public static BigFraction[] prefixSum(long[] num, long[] den) {
+    checkLengths(num.length, den.length);
+    return prefixSumOf(num.length, i -> BigFraction.ofReduced(num[i], den[i]));
+  } // End method prefixSum
+
+  /**
+   * Sums terms given by index, in parallel for large counts.
+   *
+   * @param count the number of terms
+   * @param term computes term i
+   * @return the sum
+   */
+  private static BigFraction sumOf(int count, IntFunction<BigFraction> term) {
+    if (count < PARALLEL_THRESHOLD) {
+      return treeSum(term, 0, count);
+    } // End if block for small inputs
+    return pool().invoke(new SumTask(term, 0, count));
+  } // End method sumOf
+
+  /**
+   * Sums a range of terms as a balanced tree of additions.
+   *
+   * @param term computes term i
+   * @param from the index of the first term
+   * @param to the index just past the last term
+   * @return the sum
+   */
+  private static BigFraction treeSum(IntFunction<BigFraction> term, int from, int to) {
+    if (to - from <= LEAF) {
+      BigFraction total = BigFraction.valueOf(0, 1);
+      for (int i = from; i < to; i++) {
+        total = total.add(term.apply(i));
+      } // End for loop over the leaf
+      return total;
+    } // End if block for leaves
+    int middle = (from + to) >>> 1;
+    return treeSum(term, from, middle).add(treeSum(term, middle, to));
+  } // End method treeSum
+
+  /**
+   * Sums a range of small fractions as a balanced tree, adding in longs at the leaves.
+   *
+   * @param num the numerators
+   * @param den the denominators
+   * @param from the index of the first term
+   * @param to the index just past the last term
+   * @return the sum
+   */
+  private static BigFraction treeSum(long[] num, long[] den, int from, int to) {
+    if (to - from > LEAF) {
+      int middle = (from + to) >>> 1;
+      return treeSum(num, den, from, middle).add(treeSum(num, den, middle, to));
+    } // End if block for inner nodes
+    long[] totalNum = {0};
+    long[] totalDen = {1};
+    int i = from;
+    try {
+      for (; i < to; i++) {
+        addInto(totalNum[0], totalDen[0], num[i], den[i], totalNum, totalDen, 0);
+      } // End for loop over the leaf
+      return BigFraction.ofReduced(totalNum[0], totalDen[0]);
+    } catch (ArithmeticException overflow) {
+      BigFraction total = BigFraction.ofReduced(totalNum[0], totalDen[0]);
+      for (; i < to; i++) {
+        total = total.add(BigFraction.ofReduced(num[i], den[i]));
+      } // End for loop over the rest of the leaf
+      return total;
+    } // End try/catch for long overflow
+  } // End method treeSum
+
+  /**
+   * Computes running totals of terms given by index. Large inputs are cut into blocks whose sums
+   * are taken in parallel; each block then runs its totals from the sum of the blocks before it.
+   * Both passes over the blocks are forked one task per block. With a single worker the two passes
+   * would only double the work, so the totals are then taken in one sequential scan.
+   *
+   * @param count the number of terms
+   * @param term computes term i
+   * @return the running totals
+   */
+  private static BigFraction[] prefixSumOf(int count, IntFunction<BigFraction> term) {
+    BigFraction[] result = new BigFraction[count];
+    ForkJoinPool pool = pool();
+    if (count < PARALLEL_THRESHOLD || pool.getParallelism() < 2) {
+      scan(term, BigFraction.valueOf(0, 1), 0, count, result);
+      return result;
+    } // End if block for small inputs and single workers
+    int blocks = pool.getParallelism() * BLOCKS_PER_WORKER;
+    int blockSize = (count + blocks - 1) / blocks;
+    BigFraction[] offsets = new BigFraction[blocks];
+    pool.invoke(
+        new ForEachTask(
+            b -> {
+              int from = Math.min(b * blockSize, count);
+              offsets[b] = treeSum(term, from, Math.min(from + blockSize, count));
+            },
+            0,
+            blocks,
+            1));
+    BigFraction running = BigFraction.valueOf(0, 1);
+    for (int b = 0; b < blocks; b++) {
+      BigFraction blockSum = offsets[b];
+      offsets[b] = running;
+      running = running.add(blockSum);
+    } // End for loop to turn block sums into offsets
+    pool.invoke(
+        new ForEachTask(
+            b -> {
+              int from = Math.min(b * blockSize, count);
+              scan(term, offsets[b], from, Math.min(from + blockSize, count), result);
+            },
+            0,
+            blocks,
+            1));
+    return result;
+  } // End method prefixSumOf
+
+  /**
+   * Writes running totals for a range of terms.
+   *
+   * @param term computes term i
+   * @param offset the total of the terms before the range
+   * @param from the index of the first term
+   * @param to the index just past the last term
+   * @param result receives the totals
+   */
+  private static void scan(
+      IntFunction<BigFraction> term, BigFraction offset, int from, int to, BigFraction[] result) {
+    BigFraction total = offset;
+    for (int i = from; i < to; i++) {
+      total = total.add(term.apply(i));
+      result[i] = total;
+    } // End for loop over the range
+  } // End method scan
+
+  /**
+   * Runs a body for every index below a count, in parallel for large counts.
+   *
+   * @param count the number of indices
+   * @param body the body
+   */
+  private static void forEach(int count, IntConsumer body) {
+    if (count < PARALLEL_THRESHOLD) {
+      for (int i = 0; i < count; i++) {
+        body.accept(i);
+      } // End for loop over the indices
+    } else {
+      pool().invoke(new ForEachTask(body, 0, count, GRAIN));
+    } // End if block for small inputs
+  } // End method forEach
+
+  /**
+   * Returns the pool to split work across: that of the calling task, or else the common pool.
+   *
+   * @return the pool
+   */
+  private static ForkJoinPool pool() {
+    return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+  } // End method pool
+
+  /**
+   * Stores a/b + c/d, for reduced fractions, at one index of a pair of output arrays. As in
+   * BigFraction, the denominators are divided by their GCD before multiplying (Knuth, TAOCP
+   * 4.5.1), so the result comes out reduced. Nothing is written if the result does not fit.
+   *
+   * @param a the first numerator
+   * @param b the first denominator
+   * @param c the second numerator
+   * @param d the second denominator
+   * @param outNum receives the numerator
+   * @param outDen receives the denominator
+   * @param index the index to write
+   * @throws ArithmeticException if the result does not fit in longs
+   */
+  private static void addInto(
+      long a, long b, long c, long d, long[] outNum, long[] outDen, int index) {
+    long d1 = BigFraction.gcd(b, d);
+    long n;
+    long m;
+    if (d1 == 1) {
+      n = Math.addExact(Math.multiplyExact(a, d), Math.multiplyExact(c, b));
+      m = Math.multiplyExact(b, d);
+    } else {
+      long t = Math.addExact(Math.multiplyExact(a, d / d1), Math.multiplyExact(c, b / d1));
+      long d2 = (t == 0) ? d1 : BigFraction.gcd(Math.absExact(t), d1);
+      n = t / d2;
+      m = (t == 0) ? 1 : Math.multiplyExact(b / d1, d / d2);
+    } // End if block for coprime denominators
+    outNum[index] = notMinValue(n);
+    outDen[index] = m;
+  } // End method addInto
+
+  /**
+   * Stores (a/b) * (c/d), for reduced fractions, at one index of a pair of output arrays,
+   * cancelling across before multiplying so the result comes out reduced. Nothing is written if
+   * the result does not fit.
+   *
+   * @param a the first numerator
+   * @param b the first denominator
+   * @param c the second numerator
+   * @param d the second denominator
+   * @param outNum receives the numerator
+   * @param outDen receives the denominator
+   * @param index the index to write
+   * @throws ArithmeticException if the result does not fit in longs
+   */
+  private static void multiplyInto(
+      long a, long b, long c, long d, long[] outNum, long[] outDen, int index) {
+    if (a == 0 || c == 0) {
+      outNum[index] = 0;
+      outDen[index] = 1;
+      return;
+    } // End if block for a zero factor
+    long g1 = BigFraction.gcd(Math.abs(a), d);
+    long g2 = BigFraction.gcd(Math.abs(c), b);
+    long n = Math.multiplyExact(a / g1, c / g2);
+    long m = Math.multiplyExact(b / g2, d / g1);
+    outNum[index] = notMinValue(n);
+    outDen[index] = m;
+  } // End method multiplyInto
+
+  /**
+   * Rejects {@code Long.MIN_VALUE}, which the long representation cannot hold.
+   *
+   * @param value the value
+   * @return the value
+   * @throws ArithmeticException if the value is Long.MIN_VALUE
+   */
+  private static long notMinValue(long value) {
+    if (value == Long.MIN_VALUE) {
+      throw new ArithmeticException("long overflow");
+    } // End if block for the value that cannot be negated
+    return value;
+  } // End method notMinValue
+
+  /**
+   * Checks that two arrays have the same length.
+   *
+   * @param first the length of the first array
+   * @param second the length of the second array
+   * @throws IllegalArgumentException if they differ
+   */
+  private static void checkLengths(int first, int second) {
+    if (first != second) {
+      throw new IllegalArgumentException("Arrays must have the same length.");
+    } // End if block for mismatched lengths
+  } // End method checkLengths
+
+  /** A fork-join task that sums a range of terms. */
+  private static class SumTask extends RecursiveTask<BigFraction> {
+
+    /** The serialization version, as RecursiveTask is Serializable. */
+    private static final long serialVersionUID = 1L;
+
+    /** Computes term i. */
+    private final IntFunction<BigFraction> term;
+
+    /** The index of the first term. */
+    private final int from;
+
+    /** The index just past the last term. */
+    private final int to;
+
+    /**
+     * Creates a task for a range of terms.
+     *
+     * @param term computes term i
+     * @param from the index of the first term
+     * @param to the index just past the last term
+     */
+    SumTask(IntFunction<BigFraction> term, int from, int to) {
+      this.term = term;
+      this.from = from;
+      this.to = to;
+    } // End constructor SumTask
+
+    /**
+     * Sums the range, splitting it in half while it is large.
+     *
+     * @return the sum
+     */
+    @Override
+    protected BigFraction compute() {
+      if (to - from <= GRAIN) {
+        return treeSum(term, from, to);
+      } // End if block for small ranges
+      int middle = (from + to) >>> 1;
+      SumTask right = new SumTask(term, middle, to);
+      right.fork();
+      BigFraction left = new SumTask(term, from, middle).compute();
+      return left.add(right.join());
+    } // End method compute
+  } // End class SumTask
+
+  /** A fork-join task that sums a range of small fractions. */
+  private static class LongSumTask extends RecursiveTask<BigFraction> {
+
+    /** The serialization version, as RecursiveTask is Serializable. */
+    private static final long serialVersionUID = 1L;
+
+    /** The numerators. */
+    private final long[] num;
+
+    /** The denominators. */
+    private final long[] den;
+
+    /** The index of the first term. */
+    private final int from;
+
+    /** The index just past the last term. */
+    private final int to;
+
+    /**
+     * Creates a task for a range of terms.
+     *
+     * @param num the numerators
+     * @param den the denominators
+     * @param from the index of the first term
+     * @param to the index just past the last term
+     */
+    LongSumTask(long[] num, long[] den, int from, int to) {
+      this.num = num;
+      this.den = den;
+      this.from = from;
+      this.to = to;
+    } // End constructor LongSumTask
+
+    /**
+     * Sums the range, splitting it in half while it is large.
+     *
+     * @return the sum
+     */
+    @Override
+    protected BigFraction compute() {
+      if (to - from <= GRAIN) {
+        return treeSum(num, den, from, to);
+      } // End if block for small ranges
+      int middle = (from + to) >>> 1;
+      LongSumTask right = new LongSumTask(num, den, middle, to);
+      right.fork();
+      BigFraction left = new LongSumTask(num, den, from, middle).compute();
+      return left.add(right.join());
+    } // End method compute
+  } // End class LongSumTask
+
+  /** A fork-join task that runs a body over a range of indices. */
+  private static class ForEachTask extends RecursiveAction {
+
+    /** The serialization version, as RecursiveAction is Serializable. */
+    private static final long serialVersionUID = 1L;
+
+    /** The body. */
+    private final IntConsumer body;
+
+    /** The first index. */
+    private final int from;
+
+    /** The index just past the last. */
+    private final int to;
+
+    /** The number of indices run without splitting further. */
+    private final int grain;
+
+    /**
+     * Creates a task for a range of indices.
+     *
+     * @param body the body
+     * @param from the first index
+     * @param to the index just past the last
+     * @param grain the number of indices run without splitting further
+     */
+    ForEachTask(IntConsumer body, int from, int to, int grain) {
+      this.body = body;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    } // End constructor ForEachTask
+
+    /** Runs the range, splitting it in half while it is large. */
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        for (int i = from; i < to; i++) {
+          body.accept(i);
+        } // End for loop over the range
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new ForEachTask(body, from, middle, grain), new ForEachTask(body, middle, to, grain));
+      } // End if block for small ranges
+    } // End method compute
+  } // End class ForEachTask
+} // End class BigFractionArrays
@@ -0,0 +1,315 @@
+package edu.grinnell.csc207.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary encoding of fractions behind {@link BigFraction#writeTo} and {@link
+ * BigFraction#readFrom}. Each fraction starts with a tag byte:
+ *
+ * <ul>
+ *   <li>{@link #SMALL}: the numerator as a zigzag varint, then the denominator as a varint. Used
+ *       whenever the fraction is stored in longs, so small values take only a few bytes.
+ *   <li>{@link #LARGE}: the numerator's magnitude length in bytes, negated for negative values, as
+ *       a zigzag varint, then the magnitude bytes, big-endian; then the denominator's length as a
+ *       varint and its magnitude bytes.
+ * </ul>
+ *
+ * <p>Varints hold seven bits per byte, least significant group first, with the high bit set on
+ * every byte but the last. Encoded fractions are already in lowest terms, so decoding never takes
+ * a GCD; it only checks that the denominator is positive.
+ */
+final class BigFractionCodec {
+
+  /** The tag of a fraction whose parts fit in longs. */
+  static final int SMALL = 0;
+
+  /** The tag of a fraction whose parts are written as magnitude bytes. */
+  static final int LARGE = 1;
+
+  /** The most bytes a 64-bit varint can take. */
+  static final int MAX_VARINT_BYTES = 10;
+
+  /** The most bytes a small fraction can take. */
+  static final int MAX_SMALL_BYTES = 1 + 2 * MAX_VARINT_BYTES;
+
+  /** The number of payload bits in each varint byte. */
+  private static final int VARINT_SHIFT = 7;
+
+  /** The payload bits of a varint byte. */
+  private static final int VARINT_MASK = 0x7F;
+
+  /** The continuation bit of a varint byte. */
+  private static final int VARINT_MORE = 0x80;
+
+  /** The message for malformed input. */
+  private static final String CORRUPT = "Malformed fraction encoding";
+
+  /** Prevents instantiation of this utility class. */
+  private BigFractionCodec() {} // End constructor BigFractionCodec
+
+  /**
+   * Returns the number of bytes a fraction encodes to, or an upper bound for small fractions.
+   *
+   * @param value the fraction
+   * @return the number of bytes needed to encode it
+   */
+  static int maxSize(BigFraction value) {
+    if (value.isSmall()) {
+      return MAX_SMALL_BYTES;
+    } // End if block for fractions stored in longs
+    return 1
+        + 2 * MAX_VARINT_BYTES
+        + magnitudeLength(value.numerator())
+        + magnitudeLength(value.denominator());
+  } // End method maxSize
+
+  /**
+   * Encodes a fraction into a buffer.
+   *
+   * @param value the fraction
+   * @param out the buffer, which must have at least {@link #maxSize} bytes remaining
+   */
+  static void write(BigFraction value, ByteBuffer out) {
+    if (value.isSmall()) {
+      out.put((byte) SMALL);
+      putVarint(out, zigzag(value.smallNumerator()));
+      putVarint(out, value.smallDenominator());
+      return;
+    } // End if block for fractions stored in longs
+    BigInteger num = value.numerator();
+    byte[] numBytes = num.abs().toByteArray();
+    byte[] denomBytes = value.denominator().toByteArray();
+    out.put((byte) LARGE);
+    putVarint(out, zigzag((long) num.signum() * numBytes.length));
+    out.put(numBytes);
+    putVarint(out, denomBytes.length);
+    out.put(denomBytes);
+  } // End method write(BigFraction, ByteBuffer)
+
+  /**
+   * Encodes a fraction onto a DataOutput.
+   *
+   * @param value the fraction
+   * @param out the destination
+   * @throws IOException if the destination fails
+   */
+  static void write(BigFraction value, DataOutput out) throws IOException {
+    if (value.isSmall()) {
+      out.writeByte(SMALL);
+      writeVarint(out, zigzag(value.smallNumerator()));
+      writeVarint(out, value.smallDenominator());
+      return;
+    } // End if block for fractions stored in longs
+    BigInteger num = value.numerator();
+    byte[] numBytes = num.abs().toByteArray();
+    byte[] denomBytes = value.denominator().toByteArray();
+    out.writeByte(LARGE);
+    writeVarint(out, zigzag((long) num.signum() * numBytes.length));
+    out.write(numBytes);
+    writeVarint(out, denomBytes.length);
+    out.write(denomBytes);
+  } // End method write(BigFraction, DataOutput)
+
+  /**
+   * Decodes a fraction from a buffer.
+   *
+   * @param in the buffer, positioned at the tag byte
+   * @return the fraction
+   * @throws BufferUnderflowException if the buffer ends inside the fraction
+   * @throws IllegalArgumentException if the bytes are not a valid encoding
+   */
+  static BigFraction read(ByteBuffer in) {
+    int tag = in.get();
+    if (tag == SMALL) {
+      long num = unzigzag(getVarint(in));
+      long denom = getVarint(in);
+      if (denom <= 0) {
+        throw new IllegalArgumentException(CORRUPT);
+      } // End if block for an invalid denominator
+      return BigFraction.ofReduced(num, denom);
+    } else if (tag != LARGE) {
+      throw new IllegalArgumentException(CORRUPT);
+    } // End if block for each tag
+    long signedLength = unzigzag(getVarint(in));
+    BigInteger num = new BigInteger(Long.signum(signedLength), getBytes(in, signedLength));
+    BigInteger denom = new BigInteger(1, getBytes(in, getVarint(in)));
+    if (denom.signum() == 0) {
+      throw new IllegalArgumentException(CORRUPT);
+    } // End if block for an invalid denominator
+    return BigFraction.ofReduced(num, denom);
+  } // End method read(ByteBuffer)
+
+  /**
+   * Decodes a fraction from a DataInput.
+   *
+   * @param in the source, positioned at the tag byte
+   * @return the fraction
+   * @throws java.io.EOFException if the input ends inside the fraction
+   * @throws StreamCorruptedException if the bytes are not a valid encoding
+   * @throws IOException if the source fails
+   */
+  static BigFraction read(DataInput in) throws IOException {
+    int tag = in.readByte();
+    if (tag == SMALL) {
+      long num = unzigzag(readVarint(in));
+      long denom = readVarint(in);
+      if (denom <= 0) {
+        throw new StreamCorruptedException(CORRUPT);
+      } // End if block for an invalid denominator
+      return BigFraction.ofReduced(num, denom);
+    } else if (tag != LARGE) {
+      throw new StreamCorruptedException(CORRUPT);
+    } // End if block for each tag
+    long signedLength = unzigzag(readVarint(in));
+    BigInteger num = new BigInteger(Long.signum(signedLength), readBytes(in, signedLength));
+    BigInteger denom = new BigInteger(1, readBytes(in, readVarint(in)));
+    if (denom.signum() == 0) {
+      throw new StreamCorruptedException(CORRUPT);
+    } // End if block for an invalid denominator
+    return BigFraction.ofReduced(num, denom);
+  } // End method read(DataInput)
+
+  /**
+   * Returns the length of the magnitude bytes of a value, as written by {@link #write}.
+   *
+   * @param value the value
+   * @return the number of magnitude bytes
+   */
+  private static int magnitudeLength(BigInteger value) {
+    return value.bitLength() / Byte.SIZE + 1;
+  } // End method magnitudeLength
+
+  /**
+   * Maps a signed value to an unsigned one so that small magnitudes of either sign stay small.
+   *
+   * @param value the signed value
+   * @return the zigzag encoding
+   */
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> (Long.SIZE - 1));
+  } // End method zigzag
+
+  /**
+   * Reverses {@link #zigzag}.
+   *
+   * @param value the zigzag encoding
+   * @return the signed value
+   */
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  } // End method unzigzag
+
+  /**
+   * Writes an unsigned varint into a buffer.
+   *
+   * @param out the buffer
+   * @param value the value, treated as unsigned
+   */
+  private static void putVarint(ByteBuffer out, long value) {
+    while ((value & ~VARINT_MASK) != 0) {
+      out.put((byte) ((value & VARINT_MASK) | VARINT_MORE));
+      value >>>= VARINT_SHIFT;
+    } // End while loop over the leading groups
+    out.put((byte) value);
+  } // End method putVarint
+
+  /**
+   * Writes an unsigned varint onto a DataOutput.
+   *
+   * @param out the destination
+   * @param value the value, treated as unsigned
+   * @throws IOException if the destination fails
+   */
+  private static void writeVarint(DataOutput out, long value) throws IOException {
+    while ((value & ~VARINT_MASK) != 0) {
+      out.writeByte((int) ((value & VARINT_MASK) | VARINT_MORE));
+      value >>>= VARINT_SHIFT;
+    } // End while loop over the leading groups
+    out.writeByte((int) value);
+  } // End method writeVarint
+
+  /**
+   * Reads an unsigned varint from a buffer.
+   *
+   * @param in the buffer
+   * @return the value
+   * @throws IllegalArgumentException if the varint is longer than 64 bits
+   */
+  private static long getVarint(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += VARINT_SHIFT) {
+      int b = in.get();
+      value |= (long) (b & VARINT_MASK) << shift;
+      if ((b & VARINT_MORE) == 0) {
+        return value;
+      } // End if block for the last byte
+    } // End for loop over the groups
+    throw new IllegalArgumentException(CORRUPT);
+  } // End method getVarint
+
+  /**
+   * Reads an unsigned varint from a DataInput.
+   *
+   * @param in the source
+   * @return the value
+   * @throws StreamCorruptedException if the varint is longer than 64 bits
+   * @throws IOException if the source fails
+   */
+  private static long readVarint(DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += VARINT_SHIFT) {
+      int b = in.readByte();
+      value |= (long) (b & VARINT_MASK) << shift;
+      if ((b & VARINT_MORE) == 0) {
+        return value;
+      } // End if block for the last byte
+    } // End for loop over the groups
+    throw new StreamCorruptedException(CORRUPT);
+  } // End method readVarint
+
+  /**
+   * Reads magnitude bytes from a buffer.
+   *
+   * @param in the buffer
+   * @param length the number of bytes, or its negation
+   * @return the bytes
+   * @throws IllegalArgumentException if the length is zero or too large
+   * @throws BufferUnderflowException if the buffer holds fewer bytes than the length
+   */
+  private static byte[] getBytes(ByteBuffer in, long length) {
+    long count = Math.abs(length);
+    if (count == 0 || count > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(CORRUPT);
+    } else if (count > in.remaining()) {
+      throw new BufferUnderflowException();
+    } // End if block for an invalid or incomplete length
+    byte[] bytes = new byte[(int) count];
+    in.get(bytes);
+    return bytes;
+  } // End method getBytes
+
+  /**
+   * Reads magnitude bytes from a DataInput.
+   *
+   * @param in the source
+   * @param length the number of bytes, or its negation
+   * @return the bytes
+   * @throws StreamCorruptedException if the length is zero or too large
+   * @throws IOException if the source fails
+   */
+  private static byte[] readBytes(DataInput in, long length) throws IOException {
+    long count = Math.abs(length);
+    if (count == 0 || count > Integer.MAX_VALUE) {
+      throw new StreamCorruptedException(CORRUPT);
+    } // End if block for an invalid length
+    byte[] bytes = new byte[(int) count];
+    in.readFully(bytes);
+    return bytes;
+  } // End method readBytes
+} // End class BigFractionCodec
@@ -0,0 +1,124 @@
+package edu.grinnell.csc207.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a stream of fractions written by {@link BigFractionWriter} or {@link
+ * BigFraction#writeTo}. Input is read through one reused buffer, which grows only for a fraction
+ * larger than itself. Fractions are decoded without reducing them again, since they were written
+ * in lowest terms. A reader is not thread-safe.
+ */
+public class BigFractionReader implements Closeable {
+
+  /** The source. */
+  private final ReadableByteChannel channel;
+
+  /** The bytes read but not yet decoded, in read mode. */
+  private ByteBuffer buffer;
+
+  /** Whether the channel has reached its end. */
+  private boolean exhausted;
+
+  /**
+   * Creates a reader from a channel.
+   *
+   * @param channel the source
+   */
+  public BigFractionReader(ReadableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(BigFractionWriter.DEFAULT_BUFFER_SIZE).flip();
+  } // End constructor BigFractionReader(ReadableByteChannel)
+
+  /**
+   * Creates a reader from a stream.
+   *
+   * @param in the source
+   */
+  public BigFractionReader(InputStream in) {
+    this(Channels.newChannel(in));
+  } // End constructor BigFractionReader(InputStream)
+
+  /**
+   * Reads the next fraction.
+   *
+   * @return the fraction, or null at the end of the stream
+   * @throws EOFException if the stream ends inside a fraction
+   * @throws StreamCorruptedException if the bytes are not a valid encoding
+   * @throws IOException if the channel fails
+   */
+  public BigFraction read() throws IOException {
+    while (true) {
+      int start = buffer.position();
+      try {
+        return BigFractionCodec.read(buffer);
+      } catch (BufferUnderflowException e) {
+        buffer.position(start);
+      } catch (IllegalArgumentException e) {
+        throw new StreamCorruptedException(e.getMessage());
+      } // End try/catch for fractions split across reads
+      if (!fill()) {
+        if (buffer.hasRemaining()) {
+          throw new EOFException("The stream ends inside a fraction.");
+        } // End if block for a truncated fraction
+        return null;
+      } // End if block for the end of the stream
+    } // End while loop to read until a fraction is complete
+  } // End method read
+
+  /**
+   * Reads every remaining fraction.
+   *
+   * @return the fractions, in order
+   * @throws IOException if the channel fails or the stream is malformed
+   */
+  public List<BigFraction> readAll() throws IOException {
+    List<BigFraction> values = new ArrayList<>();
+    for (BigFraction value = read(); value != null; value = read()) {
+      values.add(value);
+    } // End for loop over the stream
+    return values;
+  } // End method readAll
+
+  /**
+   * Closes the channel.
+   *
+   * @throws IOException if the channel fails
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  } // End method close
+
+  /**
+   * Reads more bytes after those not yet decoded, growing the buffer if it is already full.
+   *
+   * @return false if the channel has no more bytes
+   * @throws IOException if the channel fails
+   */
+  private boolean fill() throws IOException {
+    if (exhausted) {
+      return false;
+    } // End if block for an exhausted channel
+    buffer.compact();
+    if (!buffer.hasRemaining()) {
+      buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+    } // End if block for a fraction larger than the buffer
+    int count = channel.read(buffer);
+    buffer.flip();
+    if (count < 0) {
+      exhausted = true;
+      return false;
+    } // End if block for the end of the channel
+    return true;
+  } // End method fill
+} // End class BigFractionReader
@@ -0,0 +1,103 @@
+package edu.grinnell.csc207.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a stream of fractions in the binary form of {@link BigFraction#writeTo(ByteBuffer)}.
+ * Fractions are encoded into one reused buffer, which is written to the channel only when it
+ * fills or is flushed, so writing many small values costs no allocation and few system calls.
+ * A writer is not thread-safe.
+ */
+public class BigFractionWriter implements Closeable, Flushable {
+
+  /** The default size of the buffer. */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  /** The destination. */
+  private final WritableByteChannel channel;
+
+  /** The encoded fractions not yet written; grown for fractions larger than it. */
+  private ByteBuffer buffer;
+
+  /**
+   * Creates a writer onto a channel.
+   *
+   * @param channel the destination
+   */
+  public BigFractionWriter(WritableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+  } // End constructor BigFractionWriter(WritableByteChannel)
+
+  /**
+   * Creates a writer onto a stream.
+   *
+   * @param out the destination
+   */
+  public BigFractionWriter(OutputStream out) {
+    this(Channels.newChannel(out));
+  } // End constructor BigFractionWriter(OutputStream)
+
+  /**
+   * Writes one fraction.
+   *
+   * @param value the fraction
+   * @throws IOException if the channel fails
+   */
+  public void write(BigFraction value) throws IOException {
+    int needed = BigFractionCodec.maxSize(value);
+    if (buffer.remaining() < needed) {
+      flush();
+      if (buffer.capacity() < needed) {
+        buffer = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+      } // End if block for fractions larger than the buffer
+    } // End if block for a full buffer
+    BigFractionCodec.write(value, buffer);
+  } // End method write(BigFraction)
+
+  /**
+   * Writes every fraction of an array, in order.
+   *
+   * @param values the fractions
+   * @throws IOException if the channel fails
+   */
+  public void write(BigFraction[] values) throws IOException {
+    for (BigFraction value : values) {
+      write(value);
+    } // End for loop over the values
+  } // End method write(BigFraction[])
+
+  /**
+   * Writes the buffered fractions to the channel.
+   *
+   * @throws IOException if the channel fails
+   */
+  @Override
+  public void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    } // End while loop to drain the buffer
+    buffer.clear();
+  } // End method flush
+
+  /**
+   * Writes the buffered fractions and closes the channel.
+   *
+   * @throws IOException if the channel fails
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    } // End try/finally to close the channel
+  } // End method close
+} // End class BigFractionWriter
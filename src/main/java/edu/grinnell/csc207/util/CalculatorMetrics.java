@@ -0,0 +1,270 @@
+package edu.grinnell.csc207.util;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Optional metrics for the calculators: a count and latency histogram for each operator, the
+ * distribution of operand sizes in bits, the number of GCDs taken while building fractions and the
+ * time they took, and expression latencies and parse failures.
+ *
+ * <p>Metrics are off unless the JVM is started with {@code -Dbfcalc.metrics=true}. Every recording
+ * site checks the constant {@link #ENABLED} first, so when it is false the JIT removes the checks
+ * and the cost is nothing. When enabled, the metrics are registered with the platform MBean server
+ * as {@value #OBJECT_NAME}, and {@code -Dbfcalc.metrics.dump=SECONDS} also prints {@link
+ * #getReport()} to standard error at that interval.
+ */
+public final class CalculatorMetrics implements CalculatorMetricsMXBean {
+
+  /** The system property that enables metrics. */
+  public static final String ENABLED_PROPERTY = "bfcalc.metrics";
+
+  /** The system property giving the period of the text dump, in seconds. */
+  public static final String DUMP_PROPERTY = "bfcalc.metrics.dump";
+
+  /** Whether metrics are recorded; fixed when the class is loaded. */
+  public static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+  /** The name of the registered MBean. */
+  public static final String OBJECT_NAME = "edu.grinnell.csc207:type=CalculatorMetrics";
+
+  /** The index of addition in the per-operator metrics. */
+  static final int ADD = 0;
+
+  /** The index of subtraction in the per-operator metrics. */
+  static final int SUBTRACT = 1;
+
+  /** The index of multiplication in the per-operator metrics. */
+  static final int MULTIPLY = 2;
+
+  /** The index of division in the per-operator metrics. */
+  static final int DIVIDE = 3;
+
+  /** The names of the operators, by index. */
+  private static final String[] OPERATOR_NAMES = {"add", "subtract", "multiply", "divide"};
+
+  /** The percentile reported as the median. */
+  private static final double MEDIAN = 50;
+
+  /** The percentile reported as the tail. */
+  private static final double TAIL = 99;
+
+  /** The number of milliseconds in a second. */
+  private static final long MILLIS_PER_SECOND = 1000;
+
+  /** The single set of metrics. */
+  private static final CalculatorMetrics INSTANCE = new CalculatorMetrics();
+
+  /** The latency of each operator, in nanoseconds; each count is the operator's count. */
+  private final LogHistogram[] operations = new LogHistogram[OPERATOR_NAMES.length];
+
+  /** The size in bits of the larger part of each operand. */
+  private final LogHistogram operandBits = new LogHistogram();
+
+  /** The latency of each expression evaluated successfully, in nanoseconds. */
+  private final LogHistogram expressions = new LogHistogram();
+
+  /** The number of GCDs taken while building fractions. */
+  private final AtomicLong gcdCount = new AtomicLong();
+
+  /** The time spent in those GCDs, in nanoseconds. */
+  private final AtomicLong gcdNanos = new AtomicLong();
+
+  /** The number of expressions that failed to parse. */
+  private final AtomicLong parseFailures = new AtomicLong();
+
+  static {
+    if (ENABLED) {
+      try {
+        ManagementFactory.getPlatformMBeanServer()
+            .registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+      } catch (JMException e) {
+        System.err.println("Cannot register " + OBJECT_NAME + ": " + e.getMessage());
+      } // End try/catch for registration
+      long period = Long.getLong(DUMP_PROPERTY, 0);
+      if (period > 0) {
+        startDump(System.err, period * MILLIS_PER_SECOND);
+      } // End if block for the periodic dump
+    } // End if block for enabled metrics
+  } // End static initializer
+
+  /** Creates the empty metrics. */
+  private CalculatorMetrics() {
+    for (int i = 0; i < operations.length; i++) {
+      operations[i] = new LogHistogram();
+    } // End for loop
+  } // End constructor CalculatorMetrics
+
+  /**
+   * Returns the single set of metrics, which is empty unless {@link #ENABLED} is true.
+   *
+   * @return the metrics
+   */
+  public static CalculatorMetrics get() {
+    return INSTANCE;
+  } // End method get
+
+  /**
+   * Prints the report to a stream at a fixed interval from a daemon thread.
+   *
+   * @param out the stream
+   * @param periodMillis the interval in milliseconds
+   */
+  public static void startDump(PrintStream out, long periodMillis) {
+    ScheduledExecutorService dumper =
+        Executors.newSingleThreadScheduledExecutor(
+            task -> {
+              Thread thread = new Thread(task, "calculator-metrics-dump");
+              thread.setDaemon(true);
+              return thread;
+            });
+    dumper.scheduleAtFixedRate(
+        () -> out.print(INSTANCE.getReport()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  } // End method startDump
+
+  /**
+   * Records one calculator operation. Callers check {@link #ENABLED} first.
+   *
+   * @param operator the operator's index, such as {@link #ADD}
+   * @param operand the operand
+   * @param startNanos the value of {@link System#nanoTime()} when the operation began
+   */
+  static void recordOperation(int operator, BigFraction operand, long startNanos) {
+    INSTANCE.operations[operator].record(System.nanoTime() - startNanos);
+    int bits;
+    if (operand.isSmall()) {
+      int numBits = Long.SIZE - Long.numberOfLeadingZeros(Math.abs(operand.smallNumerator()));
+      int denomBits = Long.SIZE - Long.numberOfLeadingZeros(operand.smallDenominator());
+      bits = Math.max(numBits, denomBits);
+    } else {
+      bits = Math.max(operand.numerator().bitLength(), operand.denominator().bitLength());
+    } // End if block for each representation
+    INSTANCE.operandBits.record(bits);
+  } // End method recordOperation
+
+  /**
+   * Records one GCD. Callers check {@link #ENABLED} first.
+   *
+   * @param startNanos the value of {@link System#nanoTime()} when the GCD began
+   */
+  static void recordGcd(long startNanos) {
+    INSTANCE.gcdNanos.addAndGet(System.nanoTime() - startNanos);
+    INSTANCE.gcdCount.incrementAndGet();
+  } // End method recordGcd
+
+  /**
+   * Records one expression evaluated successfully. Callers check {@link #ENABLED} first.
+   *
+   * @param startNanos the value of {@link System#nanoTime()} when evaluation began
+   */
+  static void recordExpression(long startNanos) {
+    INSTANCE.expressions.record(System.nanoTime() - startNanos);
+  } // End method recordExpression
+
+  /** Records one expression that failed to parse. Callers check {@link #ENABLED} first. */
+  static void recordParseFailure() {
+    INSTANCE.parseFailures.incrementAndGet();
+  } // End method recordParseFailure
+
+  @Override
+  public long getAddCount() {
+    return operations[ADD].count();
+  } // End method getAddCount
+
+  @Override
+  public long getSubtractCount() {
+    return operations[SUBTRACT].count();
+  } // End method getSubtractCount
+
+  @Override
+  public long getMultiplyCount() {
+    return operations[MULTIPLY].count();
+  } // End method getMultiplyCount
+
+  @Override
+  public long getDivideCount() {
+    return operations[DIVIDE].count();
+  } // End method getDivideCount
+
+  @Override
+  public long getGcdCount() {
+    return gcdCount.get();
+  } // End method getGcdCount
+
+  @Override
+  public long getGcdNanos() {
+    return gcdNanos.get();
+  } // End method getGcdNanos
+
+  @Override
+  public long getExpressionCount() {
+    return expressions.count();
+  } // End method getExpressionCount
+
+  @Override
+  public long getExpressionP99Nanos() {
+    return expressions.percentile(TAIL);
+  } // End method getExpressionP99Nanos
+
+  @Override
+  public long getParseFailures() {
+    return parseFailures.get();
+  } // End method getParseFailures
+
+  @Override
+  public String getReport() {
+    StringBuilder report = new StringBuilder("calculator metrics\n");
+    for (int i = 0; i < operations.length; i++) {
+      appendHistogram(report, OPERATOR_NAMES[i], "ns", operations[i]);
+    } // End for loop
+    appendHistogram(report, "operand", "bits", operandBits);
+    appendHistogram(report, "expression", "ns", expressions);
+    report.append(
+        String.format("  %-10s count=%d time=%dns%n", "gcd", getGcdCount(), getGcdNanos()));
+    report.append(String.format("  %-10s count=%d%n", "parse-fail", getParseFailures()));
+    return report.toString();
+  } // End method getReport
+
+  @Override
+  public void reset() {
+    for (LogHistogram histogram : operations) {
+      histogram.reset();
+    } // End for loop
+    operandBits.reset();
+    expressions.reset();
+    gcdCount.set(0);
+    gcdNanos.set(0);
+    parseFailures.set(0);
+  } // End method reset
+
+  /**
+   * Appends one line summarizing a histogram to the report.
+   *
+   * @param report the report
+   * @param name the metric's name
+   * @param unit the unit of its values
+   * @param histogram the histogram
+   */
+  private static void appendHistogram(
+      StringBuilder report, String name, String unit, LogHistogram histogram) {
+    report.append(
+        String.format(
+            "  %-10s count=%d mean=%.0f%s p50=%d%s p99=%d%s max=%d%s%n",
+            name,
+            histogram.count(),
+            histogram.mean(),
+            unit,
+            histogram.percentile(MEDIAN),
+            unit,
+            histogram.percentile(TAIL),
+            unit,
+            histogram.max(),
+            unit));
+  } // End method appendHistogram
+} // End of CalculatorMetrics class
@@ -0,0 +1,81 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * The JMX view of {@link CalculatorMetrics}, registered as {@value CalculatorMetrics#OBJECT_NAME}
+ * when metrics are enabled.
+ */
+public interface CalculatorMetricsMXBean {
+
+  /**
+   * Returns the number of additions.
+   *
+   * @return the count
+   */
+  long getAddCount();
+
+  /**
+   * Returns the number of subtractions.
+   *
+   * @return the count
+   */
+  long getSubtractCount();
+
+  /**
+   * Returns the number of multiplications.
+   *
+   * @return the count
+   */
+  long getMultiplyCount();
+
+  /**
+   * Returns the number of divisions.
+   *
+   * @return the count
+   */
+  long getDivideCount();
+
+  /**
+   * Returns the number of GCDs taken while building fractions.
+   *
+   * @return the count
+   */
+  long getGcdCount();
+
+  /**
+   * Returns the time spent in those GCDs.
+   *
+   * @return the time in nanoseconds
+   */
+  long getGcdNanos();
+
+  /**
+   * Returns the number of expressions evaluated successfully.
+   *
+   * @return the count
+   */
+  long getExpressionCount();
+
+  /**
+   * Returns the 99th percentile of expression latency.
+   *
+   * @return the latency in nanoseconds
+   */
+  long getExpressionP99Nanos();
+
+  /**
+   * Returns the number of expressions that failed to parse.
+   *
+   * @return the count
+   */
+  long getParseFailures();
+
+  /**
+   * Returns every metric as text, in the form of the periodic dump.
+   *
+   * @return the report
+   */
+  String getReport();
+
+  /** Discards every metric recorded so far. */
+  void reset();
+} // End of CalculatorMetricsMXBean interface
@@ -0,0 +1,226 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, pre-parsed form of a calculator expression. Constant operands are stored as
+ * ready-made BigFractions and register operands as slot indices into a {@link BFRegisterSet}, so
+ * evaluating the plan does no lexing or parsing. Plans are built by {@link ExpressionCompiler}.
+ *
+ * <p>A left-to-right plan applies its operators to the calculator one at a time. A precedence
+ * plan, built by {@link PrecedenceParser}, is a postfix program run on a value stack whose depth
+ * was worked out at compile time. Each thread keeps one stack, grown to the deepest plan it has
+ * run, so evaluation allocates nothing but the results. Its binary steps go through {@link
+ * BFCalculator#apply}, so they use the calculator's memo and metrics.
+ */
+public final class CompiledExpression {
+
+  /** The postfix step that pushes the next operand. */
+  static final char PUSH = 'p';
+
+  /** The postfix step that negates the top of the stack. */
+  static final char NEGATE = '~';
+
+  /** The length of each thread's value stack before any plan needs more. */
+  private static final int INITIAL_STACK_DEPTH = 16;
+
+  /** Each thread's value stack for precedence plans. */
+  private static final ThreadLocal<BigFraction[]> STACKS =
+      ThreadLocal.withInitial(() -> new BigFraction[INITIAL_STACK_DEPTH]);
+
+  /** The expression this plan was compiled from. */
+  private final String source;
+
+  /** The constant value of each operand, or null when the operand is a register. */
+  private final BigFraction[] constants;
+
+  /** The register slot of each operand, or -1 when the operand is a constant. */
+  private final int[] slots;
+
+  /** The operator between operand i and operand i + 1, for a left-to-right plan. */
+  private final char[] operators;
+
+  /** The postfix program of a precedence plan, or null for a left-to-right plan. */
+  private final char[] program;
+
+  /** The largest number of values on the stack while the program runs. */
+  private final int depth;
+
+  /**
+   * Creates a plan. The arrays are owned by the plan and must not be modified afterwards.
+   *
+   * @param source the expression the plan was compiled from
+   * @param constants the constant value of each operand, or null for registers
+   * @param slots the register slot of each operand, or -1 for constants
+   * @param operators the operators between consecutive operands
+   */
+  CompiledExpression(String source, BigFraction[] constants, int[] slots, char[] operators) {
+    this.source = source;
+    this.constants = constants;
+    this.slots = slots;
+    this.operators = operators;
+    this.program = null;
+    this.depth = 0;
+  } // End constructor CompiledExpression
+
+  /**
+   * Creates a precedence plan. The arrays are owned by the plan and must not be modified
+   * afterwards.
+   *
+   * @param source the expression the plan was compiled from
+   * @param constants the constant value of each operand, in the order they are pushed
+   * @param slots the register slot of each operand, or -1 for constants
+   * @param program the postfix steps: {@link #PUSH}, {@link #NEGATE} or a binary operator
+   * @param depth the largest number of values on the stack while the program runs
+   */
+  CompiledExpression(
+      String source, BigFraction[] constants, int[] slots, char[] program, int depth) {
+    this.source = source;
+    this.constants = constants;
+    this.slots = slots;
+    this.operators = null;
+    this.program = program;
+    this.depth = depth;
+  } // End constructor CompiledExpression
+
+  /**
+   * Evaluates the plan, leaving the result in the calculator. If a precedence plan divides by
+   * zero, the calculator is left cleared.
+   *
+   * @param calculator the BFCalculator to perform the calculations
+   * @param registers the BFRegisterSet to retrieve stored values
+   * @return the result of the expression
+   * @throws ArithmeticException if the expression divides by zero
+   */
+  public BigFraction evaluate(BFCalculator calculator, BFRegisterSet registers) {
+    calculator.clear();
+    if (program != null) {
+      calculator.add(run(calculator, registers));
+      return calculator.get();
+    } // End if block for precedence plans
+    calculator.add(operand(0, registers));
+    for (int i = 0; i < operators.length; i++) {
+      ExpressionParser.apply(calculator, operators[i], operand(i + 1, registers));
+    } // End for loop over the operators
+    return calculator.get();
+  } // End method evaluate
+
+  /**
+   * Adds the plan's operations to a DAG, sharing the nodes it already has.
+   *
+   * @param dag the DAG to add to
+   * @return the node that computes the plan's result
+   */
+  int addTo(ExpressionDag dag) {
+    if (program == null) {
+      int node = operandNode(0, dag);
+      for (int i = 0; i < operators.length; i++) {
+        node = dag.node(operators[i], node, operandNode(i + 1, dag));
+      } // End for loop over the operators
+      return node;
+    } // End if block for left-to-right plans
+    int[] stack = new int[depth];
+    int top = 0;
+    int next = 0;
+    for (char step : program) {
+      if (step == PUSH) {
+        stack[top++] = operandNode(next++, dag);
+      } else if (step == NEGATE) {
+        stack[top - 1] = dag.node(NEGATE, stack[top - 1], -1);
+      } else {
+        int right = stack[--top];
+        stack[top - 1] = dag.node(step, stack[top - 1], right);
+      } // End if block for each kind of step
+    } // End for loop over the program
+    return stack[0];
+  } // End method addTo
+
+  /**
+   * Returns the expression this plan was compiled from.
+   *
+   * @return the source expression
+   */
+  @Override
+  public String toString() {
+    return source;
+  } // End method toString
+
+  /**
+   * Runs the postfix program of a precedence plan.
+   *
+   * @param calculator the calculator whose memo and metrics the binary steps use
+   * @param registers the registers to read from
+   * @return the value left on the stack
+   * @throws ArithmeticException if the expression divides by zero
+   */
+  private BigFraction run(BFCalculator calculator, BFRegisterSet registers) {
+    BigFraction[] stack = STACKS.get();
+    if (stack.length < depth) {
+      stack = new BigFraction[Math.max(depth, 2 * stack.length)];
+      STACKS.set(stack);
+    } // End if block for a plan deeper than any before
+    int top = 0;
+    int next = 0;
+    try {
+      for (char step : program) {
+        if (step == PUSH) {
+          stack[top++] = operand(next++, registers);
+        } else if (step == NEGATE) {
+          stack[top - 1] = stack[top - 1].negate();
+        } else {
+          BigFraction right = stack[--top];
+          stack[top - 1] = calculator.apply(step, stack[top - 1], right);
+        } // End if block for each kind of step
+      } // End for loop over the program
+      return stack[0];
+    } finally {
+      Arrays.fill(stack, 0, depth, null); // Keeps large values from outliving the evaluation
+    } // End try/finally to clear the stack
+  } // End method run
+
+  /**
+   * Applies a binary operator to two values.
+   *
+   * @param operator one of '+', '-', '*' or '/'
+   * @param left the left-hand operand
+   * @param right the right-hand operand
+   * @return the result
+   * @throws ArithmeticException if dividing by zero
+   */
+  static BigFraction combine(char operator, BigFraction left, BigFraction right) {
+    switch (operator) {
+      case '+':
+        return left.add(right);
+      case '-':
+        return left.subtract(right);
+      case '*':
+        return left.multiply(right);
+      default:
+        return left.divide(right);
+    } // End switch block
+  } // End method combine
+
+  /**
+   * Looks up the value of one operand.
+   *
+   * @param index the index of the operand
+   * @param registers the registers to read from
+   * @return the value of the operand
+   */
+  private BigFraction operand(int index, BFRegisterSet registers) {
+    int slot = slots[index];
+    return (slot < 0) ? constants[index] : registers.getSlot(slot);
+  } // End method operand
+
+  /**
+   * Looks up the DAG node of one operand.
+   *
+   * @param index the index of the operand
+   * @param dag the DAG to look in
+   * @return the node of the operand
+   */
+  private int operandNode(int index, ExpressionDag dag) {
+    int slot = slots[index];
+    return (slot < 0) ? dag.constant(constants[index]) : dag.register(slot);
+  } // End method operandNode
+} // End class CompiledExpression
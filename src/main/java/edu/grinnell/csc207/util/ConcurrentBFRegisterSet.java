@@ -0,0 +1,154 @@
+package edu.grinnell.csc207.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BinaryOperator;
+
+/**
+ * A thread-safe, lock-free set of registers 'a' to 'z' that many threads can share. Each register
+ * is one slot of an {@link AtomicReferenceArray}, so stores and reads are visible across threads
+ * and {@link #accumulate} updates a register atomically by retrying a compare-and-set. Expressions
+ * are evaluated against a consistent {@link #snapshot()}.
+ */
+public class ConcurrentBFRegisterSet {
+
+  /**
+   * One stored value. Every write installs a fresh cell, so seeing the same cell twice means the
+   * register was not written in between, even if the same BigFraction was stored again.
+   */
+  private static final class Cell {
+
+    /** The value held by the register. */
+    private final BigFraction value;
+
+    /**
+     * Creates a cell.
+     *
+     * @param value the value held by the register
+     */
+    Cell(BigFraction value) {
+      this.value = value;
+    } // End of constructor Cell
+  } // End of Cell class
+
+  /** The registers, one cell for each letter from 'a' to 'z'. */
+  private final AtomicReferenceArray<Cell> registers;
+
+  /** Initializes 26 registers, each starting with a value of 0/1. */
+  public ConcurrentBFRegisterSet() {
+    registers = new AtomicReferenceArray<>(BFRegisterSet.REGISTER_COUNT);
+    BigFraction zero = BigFraction.valueOf(0, 1);
+    for (int i = 0; i < BFRegisterSet.REGISTER_COUNT; i++) {
+      registers.set(i, new Cell(zero));
+    } // End of for loop
+  } // End of constructor ConcurrentBFRegisterSet()
+
+  /**
+   * Stores a BigFraction value in a specified register.
+   *
+   * @param register the register ('a' to 'z') to store the value in.
+   * @param value the BigFraction value to store.
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'.
+   */
+  public void store(char register, BigFraction value) {
+    registers.set(slot(register), new Cell(value));
+  } // End of store method
+
+  /**
+   * Retrieves the BigFraction value stored in a specified register.
+   *
+   * @param register the register ('a' to 'z') from which to retrieve the value.
+   * @return the BigFraction value stored in the register.
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'.
+   */
+  public BigFraction get(char register) {
+    return registers.get(slot(register)).value;
+  } // End of get method
+
+  /**
+   * Atomically replaces the value of a register if it still holds the expected instance.
+   *
+   * @param register the register ('a' to 'z') to update.
+   * @param expected the BigFraction instance the register must hold (compared by identity).
+   * @param value the new value.
+   * @return true if the register held expected and now holds value.
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'.
+   */
+  public boolean compareAndSet(char register, BigFraction expected, BigFraction value) {
+    int slot = slot(register);
+    Cell replacement = new Cell(value);
+    while (true) {
+      Cell current = registers.get(slot);
+      if (current.value != expected) {
+        return false;
+      } // End of if block
+      if (registers.compareAndSet(slot, current, replacement)) {
+        return true;
+      } // End of if block
+    } // End of while loop
+  } // End of compareAndSet method
+
+  /**
+   * Atomically combines the value of a register with another value, for example {@code
+   * accumulate('a', BigFraction::add, delta)}. The operation is retried without locking if another
+   * thread writes the register meanwhile, so it should have no side effects.
+   *
+   * @param register the register ('a' to 'z') to update.
+   * @param op the operation, applied as op(current, value).
+   * @param value the right-hand operand.
+   * @return the new value of the register.
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'.
+   */
+  public BigFraction accumulate(char register, BinaryOperator<BigFraction> op, BigFraction value) {
+    int slot = slot(register);
+    while (true) {
+      Cell current = registers.get(slot);
+      Cell next = new Cell(op.apply(current.value, value));
+      if (registers.compareAndSet(slot, current, next)) {
+        return next.value;
+      } // End of if block
+    } // End of while loop
+  } // End of accumulate method
+
+  /**
+   * Takes a consistent copy of all 26 registers: a set of values that were all held at the same
+   * moment. The registers are read twice and the copy is kept once no register changed in
+   * between, which takes a single retry-free pass unless writers are active.
+   *
+   * @return an unshared BFRegisterSet holding the copied values.
+   */
+  public BFRegisterSet snapshot() {
+    Cell[] before = new Cell[BFRegisterSet.REGISTER_COUNT];
+    BigFraction[] values = new BigFraction[BFRegisterSet.REGISTER_COUNT];
+    for (int i = 0; i < before.length; i++) {
+      before[i] = registers.get(i);
+    } // End of for loop
+    while (true) {
+      boolean unchanged = true;
+      for (int i = 0; i < before.length; i++) {
+        Cell cell = registers.get(i);
+        if (cell != before[i]) {
+          before[i] = cell;
+          unchanged = false;
+        } // End of if block
+        values[i] = cell.value;
+      } // End of for loop
+      if (unchanged) {
+        return new BFRegisterSet(values);
+      } // End of if block
+    } // End of while loop
+  } // End of snapshot method
+
+  /**
+   * Converts a register name to its slot.
+   *
+   * @param register the register name.
+   * @return the slot, from 0 to 25.
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'.
+   */
+  private static int slot(char register) {
+    if (register < 'a' || register > 'z') {
+      throw new IllegalArgumentException("Register must be a letter from 'a' to 'z'.");
+    } // End of if block
+    return register - 'a';
+  } // End of slot method
+} // End of ConcurrentBFRegisterSet class
@@ -0,0 +1,81 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes BigIntegers in decimal straight into a StringBuilder. Small values go through {@link
+ * BigInteger#toString()}; large ones are split in half by a power of ten, 10^(2^k), chosen so the
+ * halves have about the same number of digits, and each half is written recursively, the low half
+ * padded with zeros to exactly 2^k digits. With BigInteger's subquadratic division, this makes
+ * conversion subquadratic too, and no intermediate string is built for the whole value.
+ */
+final class DecimalConversion {
+
+  /** Values with fewer bits than this are converted with BigInteger.toString directly. */
+  private static final int DIRECT_BITS = 2048;
+
+  /** log10(2), for estimating the number of digits of a value from its bit length. */
+  private static final double LOG10_2 = Math.log10(2);
+
+  /** The powers 10^(2^k), for k = 0, 1, 2, ..., computed on first use; guarded by itself. */
+  private static final List<BigInteger> POWERS = new ArrayList<>(List.of(BigInteger.TEN));
+
+  /** Prevents instantiation of this utility class. */
+  private DecimalConversion() {} // End constructor DecimalConversion
+
+  /**
+   * Appends the decimal digits of a value, with a leading '-' if it is negative.
+   *
+   * @param value the value
+   * @param out the builder to append to
+   */
+  static void append(BigInteger value, StringBuilder out) {
+    if (value.signum() < 0) {
+      out.append('-');
+      value = value.negate();
+    } // End if block for negative values
+    append(value, 0, out);
+  } // End method append
+
+  /**
+   * Appends the decimal digits of a non-negative value, padded with leading zeros to a width.
+   *
+   * @param value the non-negative value
+   * @param width the smallest number of digits to write
+   * @param out the builder to append to
+   */
+  private static void append(BigInteger value, int width, StringBuilder out) {
+    if (value.bitLength() < DIRECT_BITS) {
+      String digits = value.toString();
+      for (int i = digits.length(); i < width; i++) {
+        out.append('0');
+      } // End for loop to pad with zeros
+      out.append(digits);
+      return;
+    } // End if block for small values
+    double halfDigits = value.bitLength() * LOG10_2 / 2;
+    int k = (int) Math.round(Math.log(halfDigits) / Math.log(2)); // 2^k is about half the digits
+    BigInteger[] halves = value.divideAndRemainder(power(k));
+    int lowDigits = 1 << k;
+    append(halves[0], width - lowDigits, out);
+    append(halves[1], lowDigits, out);
+  } // End method append
+
+  /**
+   * Returns 10^(2^k), squaring the largest known power until it is available.
+   *
+   * @param k the exponent of the exponent
+   * @return 10^(2^k)
+   */
+  private static BigInteger power(int k) {
+    synchronized (POWERS) {
+      while (POWERS.size() <= k) {
+        BigInteger last = POWERS.get(POWERS.size() - 1);
+        POWERS.add(last.multiply(last));
+      } // End while loop to extend the table
+      return POWERS.get(k);
+    } // End synchronized block
+  } // End method power
+} // End class DecimalConversion
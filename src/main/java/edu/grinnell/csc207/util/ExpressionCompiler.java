@@ -0,0 +1,225 @@
+package edu.grinnell.csc207.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles calculator expressions into {@link CompiledExpression} plans and keeps the most
+ * recently used plans in a size-bounded LRU cache keyed by the source string, so that repeated
+ * expressions skip lexing and parsing entirely. A compiler is not thread-safe; give each thread
+ * its own.
+ *
+ * <p>By default expressions are evaluated strictly left to right, as {@link ExpressionParser}
+ * does. A compiler created in precedence mode compiles with {@link PrecedenceParser} instead.
+ * Either way, every operation uses the calculator's memo and metrics. Accumulator mode only
+ * applies to the running total, so precedence plans compute their intermediate values as reduced
+ * fractions and add only the result to the total.
+ */
+public class ExpressionCompiler {
+
+  /** The number of plans kept by a compiler created with the default constructor. */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /** The initial capacity of the underlying map. */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The load factor of the underlying map. */
+  private static final float LOAD_FACTOR = 0.75f;
+
+  /** The cached plans, in access order. */
+  private final Map<String, CompiledExpression> cache;
+
+  /** The lexer reused for every compilation. */
+  private final ExpressionLexer lexer = new ExpressionLexer();
+
+  /** Whether expressions are compiled with operator precedence and parentheses. */
+  private final boolean precedence;
+
+  /** The number of lookups answered from the cache. */
+  private long hits;
+
+  /** The number of lookups that had to compile. */
+  private long misses;
+
+  /** Creates a compiler that caches up to {@link #DEFAULT_CAPACITY} plans. */
+  public ExpressionCompiler() {
+    this(DEFAULT_CAPACITY);
+  } // End constructor ExpressionCompiler()
+
+  /**
+   * Creates a compiler that caches up to the given number of plans.
+   *
+   * @param capacity the maximum number of cached plans (zero disables caching)
+   * @throws IllegalArgumentException if capacity is negative
+   */
+  public ExpressionCompiler(int capacity) {
+    this(capacity, false);
+  } // End constructor ExpressionCompiler(int)
+
+  /**
+   * Creates a compiler that caches up to the given number of plans, choosing how expressions are
+   * grouped.
+   *
+   * @param capacity the maximum number of cached plans (zero disables caching)
+   * @param precedence true to compile with operator precedence and parentheses, false to evaluate
+   *     strictly left to right
+   * @throws IllegalArgumentException if capacity is negative
+   */
+  public ExpressionCompiler(int capacity, boolean precedence) {
+    this.precedence = precedence;
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity cannot be negative");
+    } // End if block for a negative capacity
+    this.cache =
+        new LinkedHashMap<String, CompiledExpression>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+            return size() > capacity;
+          } // End method removeEldestEntry
+        };
+  } // End constructor ExpressionCompiler(int, boolean)
+
+  /**
+   * Returns the plan for an expression, compiling and caching it if needed.
+   *
+   * @param source the expression to compile (e.g., "a * b + 1/3")
+   * @return the compiled plan
+   * @throws IllegalArgumentException if the expression is invalid
+   * @throws ArithmeticException if a constant has a zero denominator
+   */
+  public CompiledExpression compile(String source) {
+    CompiledExpression plan = cache.get(source);
+    if (plan != null) {
+      hits++;
+      return plan;
+    } // End if block for a cache hit
+    misses++;
+    plan = compileUncached(source);
+    cache.put(source, plan);
+    return plan;
+  } // End method compile
+
+  /**
+   * Evaluates an expression through its cached plan. In left-to-right mode, invalid expressions
+   * are handed to {@link ExpressionParser#evaluate} so that their error behavior is exactly that
+   * of the interpreter; in precedence mode they leave the calculator untouched.
+   *
+   * @param source the expression to evaluate
+   * @param calculator the BFCalculator to perform the calculations
+   * @param registers the BFRegisterSet to retrieve stored values
+   * @return the result of the expression
+   * @throws IllegalArgumentException if the expression is invalid
+   */
+  public BigFraction evaluate(String source, BFCalculator calculator, BFRegisterSet registers) {
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    CompiledExpression plan;
+    try {
+      plan = compile(source);
+    } catch (IllegalArgumentException | ArithmeticException e) {
+      if (precedence) {
+        return PrecedenceParser.evaluate(source, calculator, registers); // Rethrows the error
+      } // End if block for precedence mode
+      return ExpressionParser.evaluate(source, calculator, registers); // Records its own metrics
+    } // End try/catch for invalid expressions
+    BigFraction result = plan.evaluate(calculator, registers);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordExpression(start);
+    } // End if block for metrics
+    return result;
+  } // End method evaluate
+
+  /**
+   * Returns the number of lookups answered from the cache.
+   *
+   * @return the hit count
+   */
+  public long hits() {
+    return hits;
+  } // End method hits
+
+  /**
+   * Returns the number of lookups that had to compile.
+   *
+   * @return the miss count
+   */
+  public long misses() {
+    return misses;
+  } // End method misses
+
+  /**
+   * Returns the number of plans currently cached.
+   *
+   * @return the cache size
+   */
+  public int size() {
+    return cache.size();
+  } // End method size
+
+  /**
+   * Compiles an expression without consulting the cache.
+   *
+   * @param source the expression to compile
+   * @return the compiled plan
+   * @throws IllegalArgumentException if the expression is invalid
+   */
+  private CompiledExpression compileUncached(String source) {
+    if (precedence) {
+      return PrecedenceParser.compile(source, lexer);
+    } // End if block for precedence mode
+    int length = source.length();
+    if (length == 0 || ExpressionLexer.isOperator(source.charAt(length - 1))) {
+      throw new IllegalArgumentException(ExpressionParser.INVALID_EXPRESSION);
+    } // End if block for empty or dangling expressions
+
+    List<BigFraction> constants = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+    StringBuilder operators = new StringBuilder();
+    lexer.reset(source);
+    addOperand(lexer.next(), constants, slots);
+    for (ExpressionLexer.Token token = lexer.next();
+        token != ExpressionLexer.Token.END;
+        token = lexer.next()) {
+      if (token != ExpressionLexer.Token.OPERATOR) {
+        throw new IllegalArgumentException(ExpressionParser.INVALID_EXPRESSION);
+      } // End if block for a missing operator
+      operators.append(lexer.operator());
+      addOperand(lexer.next(), constants, slots);
+    } // End for loop over the operator/operand pairs
+
+    int[] slotArray = new int[slots.size()];
+    for (int i = 0; i < slotArray.length; i++) {
+      slotArray[i] = slots.get(i);
+    } // End for loop to unpack the slots
+    return new CompiledExpression(
+        source,
+        constants.toArray(new BigFraction[0]),
+        slotArray,
+        operators.toString().toCharArray());
+  } // End method compileUncached
+
+  /**
+   * Records the operand the lexer just scanned.
+   *
+   * @param token the kind of token scanned
+   * @param constants the constant of each operand so far
+   * @param slots the register slot of each operand so far, -1 for constants
+   * @throws IllegalArgumentException if the token is not a number or register
+   */
+  private void addOperand(
+      ExpressionLexer.Token token, List<BigFraction> constants, List<Integer> slots) {
+    switch (token) {
+      case NUMBER:
+        constants.add(lexer.number());
+        slots.add(-1);
+        break;
+      case REGISTER:
+        constants.add(null);
+        slots.add(lexer.register() - 'a');
+        break;
+      default:
+        throw new IllegalArgumentException(ExpressionParser.INVALID_EXPRESSION);
+    } // End switch block
+  } // End method addOperand
+} // End class ExpressionCompiler
@@ -0,0 +1,408 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A batch evaluator that shares common subexpressions. Every expression is compiled by an {@link
+ * ExpressionCompiler} and added to one directed acyclic graph whose nodes are hash-consed: each
+ * constant, register, and (operator, operand, operand) triple is a single node, however many
+ * expressions contain it. '+' and '*' nodes list their operands in a fixed order, so "a + b" and
+ * "b + a" are one node too. Each node is evaluated once and its value reused until a {@link
+ * #store} writes a register it depends on; nodes that do not read that register keep their values.
+ *
+ * <p>Results, and the value left in the calculator, are exactly those of {@link
+ * ExpressionCompiler#evaluate}. Expressions that are invalid or divide by zero are handed to it, so
+ * their errors and their effect on the calculator are the interpreter's own. Nodes are computed
+ * through {@link BFCalculator#apply}, so they use the calculator's memo and metrics; accumulator
+ * mode only holds the final result. Registers must only be written through {@link #store} while
+ * the DAG is in use. Once the DAG holds more than its capacity of nodes, or remembers its capacity
+ * of expression strings, it is dropped and rebuilt, so long streams run in bounded memory. A DAG
+ * is not thread-safe.
+ */
+public class ExpressionDag {
+
+  /** The number of nodes a DAG created without a capacity may hold before it is rebuilt. */
+  public static final int DEFAULT_CAPACITY = 1 << 20;
+
+  /**
+   * The largest capacity. Node numbers are packed into 28 bits of a key, and this leaves the
+   * expression that crosses the capacity as many nodes again.
+   */
+  public static final int MAX_CAPACITY = 1 << 27;
+
+  /** The operator of a constant node. */
+  private static final char CONSTANT = 'c';
+
+  /** The operator of a register node. */
+  private static final char REGISTER = 'r';
+
+  /** The number of bits each operand takes in a node's key. */
+  private static final int KEY_BITS = 28;
+
+  /** The initial length of the node arrays. */
+  private static final int INITIAL_NODES = 64;
+
+  /** The calculator that holds the value STORE commands see. */
+  private final BFCalculator calculator;
+
+  /** The registers that expressions read and {@link #store} writes. */
+  private final BFRegisterSet registers;
+
+  /** The compiler that parses expressions and evaluates the ones that fail. */
+  private final ExpressionCompiler compiler;
+
+  /** The number of nodes after which the DAG is rebuilt. */
+  private final int capacity;
+
+  /** The node that computes each expression added so far. */
+  private final Map<String, Integer> roots = new HashMap<>();
+
+  /** The node of each constant. */
+  private final Map<BigFraction, Integer> constants = new HashMap<>();
+
+  /** The node of each (operator, operand, operand) triple, keyed as in {@link #key}. */
+  private final Map<Long, Integer> interior = new HashMap<>();
+
+  /** The operator of each node: a binary operator, NEGATE, CONSTANT or REGISTER. */
+  private char[] operators = new char[INITIAL_NODES];
+
+  /** The left operand of each node, the slot of a register node, or -1 for a constant. */
+  private int[] lefts = new int[INITIAL_NODES];
+
+  /** The right operand of each binary node, or -1. */
+  private int[] rights = new int[INITIAL_NODES];
+
+  /** The registers each node reads, one bit per slot. */
+  private int[] masks = new int[INITIAL_NODES];
+
+  /** The value of each node, or null until it is computed. */
+  private BigFraction[] values = new BigFraction[INITIAL_NODES];
+
+  /** The clock reading when each node's value was computed. */
+  private long[] stamps = new long[INITIAL_NODES];
+
+  /** The number of nodes. */
+  private int count;
+
+  /** The clock reading of the last store to each register. */
+  private final long[] storedAt = new long[BFRegisterSet.REGISTER_COUNT];
+
+  /** The number of stores so far, which orders stores and computations. */
+  private long clock;
+
+  /** The stack of nodes waiting on their operands during evaluation. */
+  private int[] pending = new int[INITIAL_NODES];
+
+  /** The number of node values computed. */
+  private long computed;
+
+  /**
+   * Creates a DAG that holds up to {@link #DEFAULT_CAPACITY} nodes.
+   *
+   * @param calculator the calculator that holds the last result
+   * @param registers the registers to read and store
+   * @param compiler the compiler to parse expressions with
+   */
+  public ExpressionDag(
+      BFCalculator calculator, BFRegisterSet registers, ExpressionCompiler compiler) {
+    this(calculator, registers, compiler, DEFAULT_CAPACITY);
+  } // End constructor ExpressionDag
+
+  /**
+   * Creates a DAG that is rebuilt once it holds more than the given number of nodes.
+   *
+   * @param calculator the calculator that holds the last result
+   * @param registers the registers to read and store
+   * @param compiler the compiler to parse expressions with
+   * @param capacity the number of nodes, or of expressions, after which the DAG is rebuilt
+   * @throws IllegalArgumentException if capacity is below the number of registers or above
+   *     {@link #MAX_CAPACITY}
+   */
+  public ExpressionDag(
+      BFCalculator calculator, BFRegisterSet registers, ExpressionCompiler compiler, int capacity) {
+    if (capacity < BFRegisterSet.REGISTER_COUNT) {
+      throw new IllegalArgumentException("The capacity must cover the registers.");
+    } else if (capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("The capacity must be at most " + MAX_CAPACITY + ".");
+    } // End if block for invalid capacities
+    this.calculator = calculator;
+    this.registers = registers;
+    this.compiler = compiler;
+    this.capacity = capacity;
+    reset();
+  } // End constructor ExpressionDag
+
+  /**
+   * Evaluates an expression, reusing the value of every node that is still current, and leaves
+   * the result in the calculator.
+   *
+   * @param source the expression to evaluate
+   * @return the result of the expression
+   * @throws IllegalArgumentException if the expression is invalid
+   * @throws ArithmeticException if the expression divides by zero
+   */
+  public BigFraction evaluate(String source) {
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    BigFraction result;
+    try {
+      result = valueOf(rootOf(source));
+    } catch (IllegalArgumentException | ArithmeticException e) {
+      return compiler.evaluate(source, calculator, registers); // Rethrows the error
+    } // End try/catch for expressions that fail
+    calculator.clear();
+    calculator.add(result);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordExpression(start);
+    } // End if block for metrics
+    return result;
+  } // End method evaluate
+
+  /**
+   * Stores the calculator's value in a register, invalidating the nodes that read it.
+   *
+   * @param register the register ('a' to 'z') to store the value in
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'
+   */
+  public void store(char register) {
+    registers.store(register, calculator.get());
+    storedAt[register - 'a'] = ++clock;
+  } // End method store
+
+  /**
+   * Returns the number of nodes in the DAG, including one for each register.
+   *
+   * @return the node count
+   */
+  public int size() {
+    return count;
+  } // End method size
+
+  /**
+   * Returns the number of expression strings the DAG remembers the nodes of.
+   *
+   * @return the expression count
+   */
+  public int expressions() {
+    return roots.size();
+  } // End method expressions
+
+  /**
+   * Returns the number of node values computed so far. Evaluating an expression whose nodes are
+   * all current computes none.
+   *
+   * @return the number of computations
+   */
+  public long computed() {
+    return computed;
+  } // End method computed
+
+  /**
+   * Returns the node of a constant, adding it if needed.
+   *
+   * @param value the constant
+   * @return its node
+   */
+  int constant(BigFraction value) {
+    Integer node = constants.get(value);
+    if (node == null) {
+      node = add(CONSTANT, -1, -1, 0);
+      values[node] = value; // Never invalidated, since its mask is empty
+      constants.put(value, node);
+    } // End if block for a new constant
+    return node;
+  } // End method constant
+
+  /**
+   * Returns the node of a register, which always exists.
+   *
+   * @param slot the slot of the register, from 0 to 25
+   * @return its node
+   */
+  int register(int slot) {
+    return slot;
+  } // End method register
+
+  /**
+   * Returns the node that applies an operator to one or two nodes, adding it if needed.
+   *
+   * @param operator a binary operator or {@link CompiledExpression#NEGATE}
+   * @param left the left operand, or the only one
+   * @param right the right operand, or -1 for NEGATE
+   * @return the node
+   */
+  int node(char operator, int left, int right) {
+    if ((operator == '+' || operator == '*') && left > right) {
+      int temp = left;
+      left = right;
+      right = temp;
+    } // End if block to order the operands of commutative operators
+    long key = key(operator, left, right);
+    Integer node = interior.get(key);
+    if (node == null) {
+      int mask = (right < 0) ? masks[left] : masks[left] | masks[right];
+      node = add(operator, left, right, mask);
+      interior.put(key, node);
+    } // End if block for a new node
+    return node;
+  } // End method node
+
+  /**
+   * Returns the node of an expression, compiling it and adding its nodes if needed. The DAG is
+   * rebuilt first if it has outgrown its capacity, counting both nodes and expressions, since
+   * distinct strings such as "1/2" and "2/4" can share one node.
+   *
+   * @param source the expression
+   * @return its node
+   * @throws IllegalArgumentException if the expression is invalid
+   * @throws ArithmeticException if a constant has a zero denominator
+   */
+  private int rootOf(String source) {
+    Integer root = roots.get(source);
+    if (root == null) {
+      if (count > capacity || roots.size() >= capacity) {
+        reset();
+      } // End if block for a DAG that outgrew its capacity
+      root = compiler.compile(source).addTo(this);
+      roots.put(source, root);
+    } // End if block for a new expression
+    return root;
+  } // End method rootOf
+
+  /**
+   * Returns the value of a node, first computing every operand below it that is not current. An
+   * explicit stack is used, so deep expressions cannot overflow the call stack.
+   *
+   * @param root the node
+   * @return its value
+   * @throws ArithmeticException if a node divides by zero
+   */
+  private BigFraction valueOf(int root) {
+    int top = 0;
+    pending[top++] = root;
+    while (top > 0) {
+      int node = pending[top - 1];
+      if (isCurrent(node)) {
+        top--;
+        continue;
+      } // End if block for a node computed on another path
+      int left = lefts[node];
+      int right = rights[node];
+      if (operators[node] != REGISTER && !isCurrent(left)) {
+        pending = grow(pending, top);
+        pending[top++] = left;
+      } else if (right >= 0 && !isCurrent(right)) {
+        pending = grow(pending, top);
+        pending[top++] = right;
+      } else {
+        values[node] = compute(node);
+        stamps[node] = clock;
+        computed++;
+        top--;
+      } // End if block for operands that are not current
+    } // End while loop over the pending nodes
+    return values[root];
+  } // End method valueOf
+
+  /**
+   * Computes the value of a node whose operands are current.
+   *
+   * @param node the node
+   * @return its value
+   * @throws ArithmeticException if the node divides by zero
+   */
+  private BigFraction compute(int node) {
+    char operator = operators[node];
+    if (operator == REGISTER) {
+      return registers.getSlot(lefts[node]);
+    } else if (operator == CompiledExpression.NEGATE) {
+      return values[lefts[node]].negate();
+    } // End if block for registers and negation
+    return calculator.apply(operator, values[lefts[node]], values[rights[node]]);
+  } // End method compute
+
+  /**
+   * Determines whether a node has a value computed since the last store to any register it reads.
+   *
+   * @param node the node
+   * @return true if the node's value may be reused
+   */
+  private boolean isCurrent(int node) {
+    if (values[node] == null) {
+      return false;
+    } // End if block for nodes never computed
+    long stamp = stamps[node];
+    for (int mask = masks[node]; mask != 0; mask &= mask - 1) {
+      if (storedAt[Integer.numberOfTrailingZeros(mask)] > stamp) {
+        return false;
+      } // End if block for a register stored since
+    } // End for loop over the registers the node reads
+    return true;
+  } // End method isCurrent
+
+  /**
+   * Appends a node.
+   *
+   * @param operator its operator
+   * @param left its left operand or register slot, or -1
+   * @param right its right operand, or -1
+   * @param mask the registers it reads
+   * @return the new node
+   */
+  private int add(char operator, int left, int right, int mask) {
+    if (count == operators.length) {
+      int length = 2 * count;
+      operators = Arrays.copyOf(operators, length);
+      lefts = Arrays.copyOf(lefts, length);
+      rights = Arrays.copyOf(rights, length);
+      masks = Arrays.copyOf(masks, length);
+      values = Arrays.copyOf(values, length);
+      stamps = Arrays.copyOf(stamps, length);
+    } // End if block for full arrays
+    if (count == 1 << KEY_BITS) {
+      throw new IllegalStateException("The DAG cannot number any more nodes.");
+    } // End if block for a full key space
+    operators[count] = operator;
+    lefts[count] = left;
+    rights[count] = right;
+    masks[count] = mask;
+    return count++;
+  } // End method add
+
+  /** Drops every node and expression, keeping one node for each register. */
+  private void reset() {
+    Arrays.fill(values, 0, count, null);
+    count = 0;
+    roots.clear();
+    constants.clear();
+    interior.clear();
+    for (int slot = 0; slot < BFRegisterSet.REGISTER_COUNT; slot++) {
+      add(REGISTER, slot, -1, 1 << slot);
+    } // End for loop over the registers
+  } // End method reset
+
+  /**
+   * Packs an operator and its operands into one key. Node numbers stay below 2^28, far more than
+   * fit in memory.
+   *
+   * @param operator the operator
+   * @param left the left operand
+   * @param right the right operand, or -1
+   * @return the key
+   */
+  private static long key(char operator, int left, int right) {
+    return ((long) operator << (2 * KEY_BITS)) | ((long) left << KEY_BITS) | (right + 1);
+  } // End method key
+
+  /**
+   * Returns a stack with room for one more entry.
+   *
+   * @param stack the stack
+   * @param top the number of entries in use
+   * @return the stack, or a longer copy of it
+   */
+  private static int[] grow(int[] stack, int top) {
+    return (top < stack.length) ? stack : Arrays.copyOf(stack, 2 * stack.length);
+  } // End method grow
+} // End class ExpressionDag
@@ -0,0 +1,311 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+
+/**
+ * A single-pass tokenizer for calculator expressions such as "1/2 + a * -3". Tokens are separated
+ * by single spaces; trailing spaces are ignored and any other run of spaces yields an empty,
+ * invalid token. Numbers are parsed straight from the characters into longs, falling back to
+ * {@link BigInteger} only for values that do not fit. A lexer can be reused with {@link #reset}.
+ *
+ * <p>In grouping mode, used by {@link PrecedenceParser}, parentheses are tokens of their own even
+ * when written against an operand, any run of spaces separates tokens, and a '-' written against a
+ * register or parenthesis is returned as a separate operator so it can act as unary minus.
+ */
+public class ExpressionLexer {
+
+  /** The kinds of token the lexer produces. */
+  public enum Token {
+    /** A number of the form -?[0-9]+(/[0-9]+)?, available from {@link #number()}. */
+    NUMBER,
+    /** A register name from 'a' to 'z', available from {@link #register()}. */
+    REGISTER,
+    /** One of the operators +, -, * or /, available from {@link #operator()}. */
+    OPERATOR,
+    /** An opening parenthesis, only produced in grouping mode. */
+    OPEN,
+    /** A closing parenthesis, only produced in grouping mode. */
+    CLOSE,
+    /** Anything else. */
+    INVALID,
+    /** The end of the input. */
+    END
+  } // End enum Token
+
+  /** The base of the digits we parse. */
+  private static final int RADIX = 10;
+
+  /** Values below this limit can take another digit without overflowing a long. */
+  private static final long LONG_LIMIT = Long.MAX_VALUE / RADIX;
+
+  /** The characters being scanned. */
+  private CharSequence input;
+
+  /** The index of the next character to scan. */
+  private int pos;
+
+  /** The index just past the last non-space character of the input. */
+  private int end;
+
+  /** Whether parentheses and unary minus are split out and spacing is free. */
+  private boolean grouping;
+
+  /** The number most recently scanned. */
+  private BigFraction number;
+
+  /** The register or operator character most recently scanned. */
+  private char symbol;
+
+  /** The value of the digits most recently scanned, when they fit in a long. */
+  private long digitsValue;
+
+  /** The value of the digits most recently scanned, when they do not fit in a long. */
+  private BigInteger digitsBig;
+
+  /** Creates a lexer with no input; call {@link #reset} before scanning. */
+  public ExpressionLexer() {
+    reset("");
+  } // End constructor ExpressionLexer()
+
+  /**
+   * Creates a lexer over the given input.
+   *
+   * @param input the expression to scan
+   */
+  public ExpressionLexer(CharSequence input) {
+    reset(input);
+  } // End constructor ExpressionLexer(CharSequence)
+
+  /**
+   * Restarts the lexer on new input.
+   *
+   * @param input the expression to scan
+   * @return this lexer
+   */
+  public ExpressionLexer reset(CharSequence input) {
+    return reset(input, false);
+  } // End method reset
+
+  /**
+   * Restarts the lexer on new input, choosing whether to scan in grouping mode.
+   *
+   * @param input the expression to scan
+   * @param grouping true to split out parentheses and unary minus
+   * @return this lexer
+   */
+  public ExpressionLexer reset(CharSequence input, boolean grouping) {
+    this.input = input;
+    this.grouping = grouping;
+    this.pos = 0;
+    this.end = input.length();
+    while (end > 0 && input.charAt(end - 1) == ' ') {
+      end--;
+    } // End while loop to ignore trailing spaces
+    return this;
+  } // End method reset
+
+  /**
+   * Scans the next token.
+   *
+   * @return the kind of token scanned
+   */
+  public Token next() {
+    if (grouping) {
+      return nextGrouped();
+    } // End if block for grouping mode
+    if (pos >= end) {
+      return Token.END;
+    } // End if block for the end of input
+    int start = pos;
+    while (pos < end && input.charAt(pos) != ' ') {
+      pos++;
+    } // End while loop to find the end of the token
+    int stop = pos;
+    if (pos < end) {
+      pos++; // Skip the single separating space
+    } // End if block to skip the separator
+    return classify(start, stop);
+  } // End method next
+
+  /**
+   * Scans the next token in grouping mode.
+   *
+   * @return the kind of token scanned
+   */
+  private Token nextGrouped() {
+    while (pos < end && input.charAt(pos) == ' ') {
+      pos++;
+    } // End while loop to skip spaces
+    if (pos >= end) {
+      return Token.END;
+    } // End if block for the end of input
+    char first = input.charAt(pos);
+    if (first == '(' || first == ')') {
+      pos++;
+      symbol = first;
+      return (first == '(') ? Token.OPEN : Token.CLOSE;
+    } // End if block for parentheses
+    int start = pos;
+    while (pos < end && !isDelimiter(input.charAt(pos))) {
+      pos++;
+    } // End while loop to find the end of the token
+    if (first == '-' && pos - start > 1 && !isDigit(input.charAt(start + 1))) {
+      pos = start + 1; // A minus written against a register, as in "-a"
+      symbol = first;
+      return Token.OPERATOR;
+    } // End if block for a minus written against its operand
+    return classify(start, pos);
+  } // End method nextGrouped
+
+  /**
+   * Classifies the token between two indices.
+   *
+   * @param start the index of the first character of the token
+   * @param stop the index just past the token
+   * @return the kind of token
+   */
+  private Token classify(int start, int stop) {
+    if (stop - start == 1) {
+      char ch = input.charAt(start);
+      if (ch >= 'a' && ch <= 'z') {
+        symbol = ch;
+        return Token.REGISTER;
+      } else if (isOperator(ch)) {
+        symbol = ch;
+        return Token.OPERATOR;
+      } // End if block for one-character tokens
+    } // End if block for one-character tokens
+    return scanNumber(start, stop) ? Token.NUMBER : Token.INVALID;
+  } // End method classify
+
+  /**
+   * Returns the value of the last {@link Token#NUMBER} scanned.
+   *
+   * @return the number as a simplified fraction
+   */
+  public BigFraction number() {
+    return number;
+  } // End method number
+
+  /**
+   * Returns the name of the last {@link Token#REGISTER} scanned.
+   *
+   * @return the register, from 'a' to 'z'
+   */
+  public char register() {
+    return symbol;
+  } // End method register
+
+  /**
+   * Returns the last {@link Token#OPERATOR} scanned.
+   *
+   * @return one of '+', '-', '*' or '/'
+   */
+  public char operator() {
+    return symbol;
+  } // End method operator
+
+  /**
+   * Determines whether a character is one of the four operators.
+   *
+   * @param ch the character to check
+   * @return true if ch is '+', '-', '*' or '/'
+   */
+  public static boolean isOperator(char ch) {
+    return ch == '+' || ch == '-' || ch == '*' || ch == '/';
+  } // End method isOperator
+
+  /**
+   * Determines whether a character ends a token in grouping mode.
+   *
+   * @param ch the character to check
+   * @return true if ch is a space or a parenthesis
+   */
+  private static boolean isDelimiter(char ch) {
+    return ch == ' ' || ch == '(' || ch == ')';
+  } // End method isDelimiter
+
+  /**
+   * Determines whether a character is an ASCII digit.
+   *
+   * @param ch the character to check
+   * @return true if ch is from '0' to '9'
+   */
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  } // End method isDigit
+
+  /**
+   * Scans a number of the form -?[0-9]+(/[0-9]+)? and stores it in {@link #number}.
+   *
+   * @param start the index of the first character of the token
+   * @param stop the index just past the token
+   * @return true if the token is a well-formed number
+   * @throws ArithmeticException if the denominator is zero
+   */
+  private boolean scanNumber(int start, int stop) {
+    boolean negative = start < stop && input.charAt(start) == '-';
+    int numStart = negative ? start + 1 : start;
+    int slash = numStart;
+    while (slash < stop && input.charAt(slash) != '/') {
+      slash++;
+    } // End while loop to find the fraction bar
+
+    if (!scanDigits(numStart, slash)) {
+      return false;
+    } // End if block for a malformed numerator
+    long numValue = negative ? -digitsValue : digitsValue;
+    BigInteger numBig = (digitsBig == null || !negative) ? digitsBig : digitsBig.negate();
+
+    if (slash == stop) {
+      number =
+          (numBig == null)
+              ? BigFraction.valueOf(numValue, 1)
+              : new BigFraction(numBig, BigInteger.ONE);
+      return true;
+    } // End if block for whole numbers
+    if (!scanDigits(slash + 1, stop)) {
+      return false;
+    } // End if block for a malformed denominator
+
+    if (numBig == null && digitsBig == null) {
+      number = BigFraction.valueOf(numValue, digitsValue);
+    } else {
+      number =
+          new BigFraction(
+              (numBig == null) ? BigInteger.valueOf(numValue) : numBig,
+              (digitsBig == null) ? BigInteger.valueOf(digitsValue) : digitsBig);
+    } // End if block to build the fraction
+    return true;
+  } // End method scanNumber
+
+  /**
+   * Scans a non-empty run of ASCII digits into {@link #digitsValue}, or into {@link #digitsBig}
+   * when the value does not fit in a long.
+   *
+   * @param from the index of the first digit
+   * @param to the index just past the last digit
+   * @return true if the range is non-empty and holds only digits
+   */
+  private boolean scanDigits(int from, int to) {
+    if (from >= to) {
+      return false;
+    } // End if block for an empty run
+    long value = 0;
+    boolean overflow = false;
+    for (int i = from; i < to; i++) {
+      char ch = input.charAt(i);
+      if (ch < '0' || ch > '9') {
+        return false;
+      } // End if block for a non-digit
+      if (value < LONG_LIMIT) {
+        value = value * RADIX + (ch - '0');
+      } else {
+        overflow = true;
+      } // End if block to accumulate the digit
+    } // End for loop over the digits
+    digitsValue = value;
+    digitsBig = overflow ? new BigInteger(input.subSequence(from, to).toString()) : null;
+    return true;
+  } // End method scanDigits
+} // End class ExpressionLexer
@@ -0,0 +1,149 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * Parses and evaluates calculator expressions such as "1/2 + a * 3" strictly left to right,
+ * using a {@link BFCalculator} for the arithmetic and a {@link BFRegisterSet} for register values.
+ * This is the shared evaluation path of the command-line and interactive calculators.
+ */
+public class ExpressionParser {
+
+  /** The message of the exception thrown for malformed expressions. */
+  public static final String INVALID_EXPRESSION = "*** ERROR [Invalid expression] ***";
+
+  /** Prevents instantiation of this utility class. */
+  private ExpressionParser() {
+    // Nothing to initialize
+  } // End constructor ExpressionParser
+
+  /**
+   * Evaluates an expression of alternating operands and operators, separated by single spaces.
+   * An operand is a number such as "3", "-1/2" or a register from 'a' to 'z'.
+   *
+   * @param input the expression to evaluate (e.g., "1/2 + 1/3")
+   * @param calculator the BFCalculator to perform the calculations
+   * @param registers the BFRegisterSet to retrieve stored values
+   * @return the result of the evaluated expression as a BigFraction
+   * @throws IllegalArgumentException if the expression is invalid
+   */
+  public static BigFraction evaluate(
+      CharSequence input, BFCalculator calculator, BFRegisterSet registers)
+      throws IllegalArgumentException {
+    if (!CalculatorMetrics.ENABLED) {
+      return evaluateTokens(input, calculator, registers);
+    } // End if block for the uninstrumented path
+    long start = System.nanoTime();
+    try {
+      BigFraction result = evaluateTokens(input, calculator, registers);
+      CalculatorMetrics.recordExpression(start);
+      return result;
+    } catch (IllegalArgumentException e) {
+      CalculatorMetrics.recordParseFailure();
+      throw e;
+    } // End try/catch for metrics
+  } // End method evaluate
+
+  /**
+   * Evaluates an expression as {@link #evaluate} does, without recording metrics.
+   *
+   * @param input the expression to evaluate
+   * @param calculator the BFCalculator to perform the calculations
+   * @param registers the BFRegisterSet to retrieve stored values
+   * @return the result of the evaluated expression as a BigFraction
+   * @throws IllegalArgumentException if the expression is invalid
+   */
+  private static BigFraction evaluateTokens(
+      CharSequence input, BFCalculator calculator, BFRegisterSet registers)
+      throws IllegalArgumentException {
+    int length = input.length();
+    if (length == 0 || ExpressionLexer.isOperator(input.charAt(length - 1))) {
+      throw new IllegalArgumentException(INVALID_EXPRESSION);
+    } // End if block for empty or dangling expressions
+
+    ExpressionLexer lexer = new ExpressionLexer(input);
+    BigFraction first = operand(lexer, lexer.next(), registers);
+    calculator.clear(); // Clear the calculator for each new expression
+    calculator.add(first);
+
+    for (ExpressionLexer.Token token = lexer.next();
+        token != ExpressionLexer.Token.END;
+        token = lexer.next()) {
+      if (token != ExpressionLexer.Token.OPERATOR) {
+        throw new IllegalArgumentException(INVALID_EXPRESSION);
+      } // End if block for a missing operator
+      char operator = lexer.operator();
+      BigFraction nextValue = operand(lexer, lexer.next(), registers);
+      apply(calculator, operator, nextValue);
+    } // End for loop over the operator/operand pairs
+
+    return calculator.get();
+  } // End method evaluateTokens
+
+  /**
+   * Determines whether {@link #evaluate} would clear the calculator before failing or finishing,
+   * which it does once the expression has a well-formed first operand. Batch runners that
+   * evaluate lines out of order use this to know which line's value a later STORE would see.
+   *
+   * @param input the expression
+   * @return true if evaluating input resets the calculator's value
+   */
+  public static boolean clearsCalculator(CharSequence input) {
+    int length = input.length();
+    if (length == 0 || ExpressionLexer.isOperator(input.charAt(length - 1))) {
+      return false;
+    } // End if block for empty or dangling expressions
+    try {
+      ExpressionLexer.Token first = new ExpressionLexer(input).next();
+      return first == ExpressionLexer.Token.NUMBER || first == ExpressionLexer.Token.REGISTER;
+    } catch (ArithmeticException e) {
+      return false; // A zero denominator fails before the calculator is cleared
+    } // End try/catch for zero denominators
+  } // End method clearsCalculator
+
+  /**
+   * Applies one operator to the calculator.
+   *
+   * @param calculator the calculator holding the running value
+   * @param operator one of '+', '-', '*' or '/'
+   * @param value the right-hand operand
+   */
+  static void apply(BFCalculator calculator, char operator, BigFraction value) {
+    switch (operator) {
+      case '+':
+        calculator.add(value);
+        break;
+      case '-':
+        calculator.subtract(value);
+        break;
+      case '*':
+        calculator.multiply(value);
+        break;
+      case '/':
+        calculator.divide(value);
+        break;
+      default:
+        throw new IllegalArgumentException(INVALID_EXPRESSION);
+    } // End switch block
+  } // End method apply
+
+  /**
+   * Converts the token just scanned into an operand value.
+   *
+   * @param lexer the lexer that scanned the token
+   * @param token the kind of token scanned
+   * @param registers the BFRegisterSet to retrieve register values
+   * @return the value of the operand
+   * @throws IllegalArgumentException if the token is not a number or register
+   */
+  private static BigFraction operand(
+      ExpressionLexer lexer, ExpressionLexer.Token token, BFRegisterSet registers)
+      throws IllegalArgumentException {
+    switch (token) {
+      case NUMBER:
+        return lexer.number();
+      case REGISTER:
+        return registers.get(lexer.register());
+      default:
+        throw new IllegalArgumentException(INVALID_EXPRESSION);
+    } // End switch block
+  } // End method operand
+} // End class ExpressionParser
@@ -0,0 +1,196 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A mutable sum of many fractions, behind {@link BigFraction#sum(Iterable)} and {@link
+ * BigFraction#summing()}. Terms are grouped by denominator and the numerators within a group are
+ * added as plain integers, with no GCDs at all. The groups are then merged pairwise in a balanced
+ * tree over the least common multiple of their denominators, and only the final result is
+ * reduced. When the terms share a handful of denominators, as ledgers of halves, thirds, and
+ * hundredths do, this takes a few GCDs on small numbers instead of one per term.
+ *
+ * <p>Denominators that fit in a long are kept in an open-addressing table of primitive longs, so
+ * adding a small term allocates nothing. Each group's numerator total is a long that spills into a
+ * BigInteger when it would overflow.
+ */
+final class FractionSum {
+
+  /** The initial capacity of the table; a power of two. */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The table is grown once more than half of it is in use. */
+  private static final int LOAD_SHIFT = 1;
+
+  /** The multiplier that spreads denominators across the table (the 64-bit golden ratio). */
+  private static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+  /** The denominator of each group, or 0 for an empty slot. */
+  private long[] keys = new long[INITIAL_CAPACITY];
+
+  /** The long part of each group's numerator total. */
+  private long[] sums = new long[INITIAL_CAPACITY];
+
+  /** The part of each group's numerator total that overflowed a long, or null. */
+  private BigInteger[] spills = new BigInteger[INITIAL_CAPACITY];
+
+  /** The number of groups in the table. */
+  private int size;
+
+  /** The numerator total of each denominator that does not fit in a long. */
+  private final Map<BigInteger, BigInteger> bigGroups = new HashMap<>();
+
+  /**
+   * Adds a term.
+   *
+   * @param term the term
+   */
+  void add(BigFraction term) {
+    if (term.isSmall()) {
+      addToGroup(slot(term.smallDenominator()), term.smallNumerator());
+      return;
+    } // End if block for terms stored in longs
+    BigInteger denominator = term.denominator();
+    if (denominator.bitLength() < Long.SIZE) {
+      spill(slot(denominator.longValue()), term.numerator());
+    } else {
+      bigGroups.merge(denominator, term.numerator(), BigInteger::add);
+    } // End if block for denominators that fit in a long
+  } // End method add
+
+  /**
+   * Adds every term of another sum to this one.
+   *
+   * @param other the other sum
+   * @return this sum
+   */
+  FractionSum combine(FractionSum other) {
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] != 0) {
+        int slot = slot(other.keys[i]);
+        addToGroup(slot, other.sums[i]);
+        if (other.spills[i] != null) {
+          spill(slot, other.spills[i]);
+        } // End if block for spilled totals
+      } // End if block for occupied slots
+    } // End for loop over the other table
+    for (Map.Entry<BigInteger, BigInteger> group : other.bigGroups.entrySet()) {
+      bigGroups.merge(group.getKey(), group.getValue(), BigInteger::add);
+    } // End for loop over the other large denominators
+    return this;
+  } // End method combine
+
+  /**
+   * Merges the groups and reduces the total.
+   *
+   * @return the sum of every term added, or 0 if there were none
+   */
+  BigFraction result() {
+    List<BigInteger> nums = new ArrayList<>(size + bigGroups.size());
+    List<BigInteger> denoms = new ArrayList<>(size + bigGroups.size());
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        BigInteger total = BigInteger.valueOf(sums[i]);
+        nums.add((spills[i] == null) ? total : total.add(spills[i]));
+        denoms.add(BigInteger.valueOf(keys[i]));
+      } // End if block for occupied slots
+    } // End for loop over the table
+    for (Map.Entry<BigInteger, BigInteger> group : bigGroups.entrySet()) {
+      nums.add(group.getValue());
+      denoms.add(group.getKey());
+    } // End for loop over the large denominators
+    if (nums.isEmpty()) {
+      return BigFraction.valueOf(0, 1);
+    } // End if block for an empty sum
+
+    // Merge neighbours level by level, so every merge is between totals of similar size
+    for (int count = nums.size(); count > 1; count = (count + 1) / 2) {
+      for (int i = 0; i < count / 2; i++) {
+        BigInteger n1 = nums.get(2 * i);
+        BigInteger d1 = denoms.get(2 * i);
+        BigInteger n2 = nums.get(2 * i + 1);
+        BigInteger d2 = denoms.get(2 * i + 1);
+        BigInteger g = d1.gcd(d2);
+        nums.set(i, n1.multiply(d2.divide(g)).add(n2.multiply(d1.divide(g))));
+        denoms.set(i, d1.divide(g).multiply(d2));
+      } // End for loop over the pairs
+      if (count % 2 == 1) {
+        nums.set(count / 2, nums.get(count - 1));
+        denoms.set(count / 2, denoms.get(count - 1));
+      } // End if block for an unpaired total
+    } // End for loop over the levels
+    return new BigFraction(nums.get(0), denoms.get(0));
+  } // End method result
+
+  /**
+   * Adds a long to a group's numerator total, spilling into BigInteger on overflow.
+   *
+   * @param slot the group's slot
+   * @param numerator the value to add
+   */
+  private void addToGroup(int slot, long numerator) {
+    long total = sums[slot] + numerator;
+    if (((sums[slot] ^ total) & (numerator ^ total)) < 0) {
+      spill(slot, BigInteger.valueOf(sums[slot]));
+      total = numerator;
+    } // End if block for overflow
+    sums[slot] = total;
+  } // End method addToGroup
+
+  /**
+   * Adds a BigInteger to the spilled part of a group's numerator total.
+   *
+   * @param slot the group's slot
+   * @param numerator the value to add
+   */
+  private void spill(int slot, BigInteger numerator) {
+    spills[slot] = (spills[slot] == null) ? numerator : spills[slot].add(numerator);
+  } // End method spill
+
+  /**
+   * Finds the slot of a denominator, claiming an empty one if it has no group yet.
+   *
+   * @param denominator a positive denominator
+   * @return the slot
+   */
+  private int slot(long denominator) {
+    int mask = keys.length - 1;
+    int shift = Long.SIZE - Integer.numberOfTrailingZeros(keys.length);
+    int i = (int) ((denominator * SPREAD) >>> shift);
+    while (keys[i] != 0) {
+      if (keys[i] == denominator) {
+        return i;
+      } // End if block for the matching group
+      i = (i + 1) & mask;
+    } // End while loop over the probe sequence
+    if ((size + 1) << LOAD_SHIFT > keys.length) {
+      grow();
+      return slot(denominator);
+    } // End if block for a full table
+    keys[i] = denominator;
+    size++;
+    return i;
+  } // End method slot
+
+  /** Doubles the table, moving every group to its new slot. */
+  private void grow() {
+    long[] oldKeys = keys;
+    long[] oldSums = sums;
+    BigInteger[] oldSpills = spills;
+    keys = new long[oldKeys.length * 2];
+    sums = new long[keys.length];
+    spills = new BigInteger[keys.length];
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int slot = slot(oldKeys[i]);
+        sums[slot] = oldSums[i];
+        spills[slot] = oldSpills[i];
+      } // End if block for occupied slots
+    } // End for loop over the old table
+  } // End method grow
+} // End class FractionSum
@@ -0,0 +1,349 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Multiplication and GCD for integers of hundreds of thousands of bits, used by {@link BigFraction}
+ * once its operands grow past tunable thresholds. Below them, everything goes straight to {@link
+ * BigInteger}, and the results are identical either way.
+ *
+ * <p>The GCD is a half-GCD in the style of Schönhage, as refined by Möller: the top half of the
+ * operands' bits alone determines the first half of their Euclidean quotients, so those steps are
+ * found recursively from the top halves and applied to the full operands as one 2x2 matrix. Each
+ * round halves the operands at the cost of a few multiplications, which makes the GCD subquadratic
+ * where {@link BigInteger#gcd} is quadratic.
+ *
+ * <p>Products of two large operands are split three ways as in Toom-Cook, the same scheme
+ * BigInteger uses at these sizes, but the five smaller products are computed in parallel on the
+ * common fork-join pool, recursively while they stay above the threshold.
+ */
+public final class LargeArithmetic {
+
+  /** The default number of bits from which {@link #gcd} uses the half-GCD. */
+  public static final int DEFAULT_GCD_THRESHOLD = 1 << 15;
+
+  /** The default number of bits from which {@link #multiply} runs in parallel. */
+  public static final int DEFAULT_MULTIPLY_THRESHOLD = 1 << 17;
+
+  /** Operands with fewer bits than this are reduced with single Euclidean steps. */
+  private static final int HGCD_BASE_BITS = 1 << 9;
+
+  /** The number of bits, in the smaller operand, from which gcd uses the half-GCD. */
+  private static volatile int gcdThreshold = DEFAULT_GCD_THRESHOLD;
+
+  /** The number of bits, in the smaller operand, from which multiply runs in parallel. */
+  private static volatile int multiplyThreshold = DEFAULT_MULTIPLY_THRESHOLD;
+
+  /** Prevents instantiation of this utility class. */
+  private LargeArithmetic() {} // End constructor LargeArithmetic
+
+  /**
+   * Sets the number of bits from which {@link #gcd} uses the half-GCD.
+   *
+   * @param bits the threshold, in bits of the smaller operand
+   * @throws IllegalArgumentException if bits is less than the half-GCD's base case
+   */
+  public static void setGcdThreshold(int bits) {
+    if (bits < HGCD_BASE_BITS) {
+      throw new IllegalArgumentException("The GCD threshold must be at least " + HGCD_BASE_BITS);
+    } // End if block for a threshold below the base case
+    gcdThreshold = bits;
+  } // End method setGcdThreshold
+
+  /**
+   * Returns the number of bits from which {@link #gcd} uses the half-GCD.
+   *
+   * @return the threshold, in bits of the smaller operand
+   */
+  public static int gcdThreshold() {
+    return gcdThreshold;
+  } // End method gcdThreshold
+
+  /**
+   * Sets the number of bits from which {@link #multiply} runs in parallel.
+   *
+   * @param bits the threshold, in bits of the smaller operand
+   * @throws IllegalArgumentException if bits is not positive
+   */
+  public static void setMultiplyThreshold(int bits) {
+    if (bits < 1) {
+      throw new IllegalArgumentException("The multiply threshold must be positive");
+    } // End if block for a threshold that is not positive
+    multiplyThreshold = bits;
+  } // End method setMultiplyThreshold
+
+  /**
+   * Returns the number of bits from which {@link #multiply} runs in parallel.
+   *
+   * @return the threshold, in bits of the smaller operand
+   */
+  public static int multiplyThreshold() {
+    return multiplyThreshold;
+  } // End method multiplyThreshold
+
+  /**
+   * Computes the greatest common divisor, as {@link BigInteger#gcd} does.
+   *
+   * @param a a value
+   * @param b another value
+   * @return the non-negative greatest common divisor of a and b, or 0 if both are 0
+   */
+  public static BigInteger gcd(BigInteger a, BigInteger b) {
+    int threshold = gcdThreshold;
+    if (Math.min(a.bitLength(), b.bitLength()) < threshold) {
+      return a.gcd(b);
+    } // End if block for small operands
+    a = a.abs();
+    b = b.abs();
+    if (a.compareTo(b) < 0) {
+      BigInteger t = a;
+      a = b;
+      b = t;
+    } // End if block to put the larger operand first
+    while (b.bitLength() >= threshold) {
+      if (b.bitLength() > a.bitLength() / 2 + 1) {
+        Reduction r = halfGcd(a, b);
+        a = r.a.max(r.b);
+        b = r.a.min(r.b);
+      } // End if block for operands of similar size
+      BigInteger remainder = a.mod(b);
+      a = b;
+      b = remainder;
+    } // End while loop to halve the operands
+    return a.gcd(b);
+  } // End method gcd
+
+  /**
+   * Computes the product, as {@link BigInteger#multiply} does.
+   *
+   * @param a a value
+   * @param b another value
+   * @return a times b
+   */
+  public static BigInteger multiply(BigInteger a, BigInteger b) {
+    if (Math.min(a.bitLength(), b.bitLength()) < multiplyThreshold) {
+      return a.multiply(b);
+    } // End if block for small operands
+    return ForkJoinPool.commonPool().invoke(new ProductTask(a, b));
+  } // End method multiply
+
+  /**
+   * Performs the first half of the Euclidean algorithm on two positive values. With n the bit
+   * length of the larger and s = n / 2 + 1, it finds a matrix M of non-negative entries and
+   * determinant 1 with (a, b) = M (a', b'), where a' and b' are both at least 2^s and differ by
+   * less than 2^s, so no further Euclidean step would keep both at least 2^s. If a or b is already
+   * below 2^s, M is the identity.
+   *
+   * @param a a positive value
+   * @param b a positive value
+   * @return M, a' and b'
+   */
+  private static Reduction halfGcd(BigInteger a, BigInteger b) {
+    int n = Math.max(a.bitLength(), b.bitLength());
+    int s = n / 2 + 1;
+    Reduction r = new Reduction(a, b);
+    if (Math.min(a.bitLength(), b.bitLength()) <= s || n < HGCD_BASE_BITS) {
+      return r.finish(s);
+    } // End if block for the base case
+
+    // The top n - p bits determine steps that keep the full values above 2^(s0 + p - 1) >= 2^s
+    int p = n / 2;
+    r.apply(halfGcd(a.shiftRight(p), b.shiftRight(p)));
+    if (!r.step(s)) {
+      return r;
+    } // End if block for a pair already reduced
+
+    // The remaining values have n2 < 2s bits; their top 2(n2 - s) bits bring them down to 2^s
+    int n2 = Math.max(r.a.bitLength(), r.b.bitLength());
+    int p2 = 2 * s - n2;
+    r.apply(halfGcd(r.a.shiftRight(p2), r.b.shiftRight(p2)));
+    return r.finish(s);
+  } // End method halfGcd
+
+  /**
+   * Computes a product of two non-negative operands with one three-way split, forking the five
+   * partial products.
+   *
+   * @param a a non-negative value
+   * @param b a non-negative value
+   * @return a times b
+   */
+  private static BigInteger toomCook3(BigInteger a, BigInteger b) {
+    int k = (Math.max(a.bitLength(), b.bitLength()) + 2) / 3;
+    BigInteger mask = BigInteger.ONE.shiftLeft(k).subtract(BigInteger.ONE);
+    BigInteger a0 = a.and(mask);
+    BigInteger a1 = a.shiftRight(k).and(mask);
+    BigInteger a2 = a.shiftRight(2 * k);
+    BigInteger b0 = b.and(mask);
+    BigInteger b1 = b.shiftRight(k).and(mask);
+    BigInteger b2 = b.shiftRight(2 * k);
+
+    // Evaluate at 0, -1, 1, 2 and infinity, as in BigInteger, and multiply pointwise in parallel
+    BigInteger da1 = a2.add(a0);
+    BigInteger db1 = b2.add(b0);
+    ProductTask v0 = new ProductTask(a0, b0);
+    ProductTask vm1 = new ProductTask(da1.subtract(a1), db1.subtract(b1));
+    da1 = da1.add(a1);
+    db1 = db1.add(b1);
+    ProductTask v1 = new ProductTask(da1, db1);
+    ProductTask v2 =
+        new ProductTask(
+            da1.add(a2).shiftLeft(1).subtract(a0), db1.add(b2).shiftLeft(1).subtract(b0));
+    ProductTask vinf = new ProductTask(a2, b2);
+    RecursiveTask.invokeAll(v0, vm1, v1, v2, vinf);
+
+    // Interpolate with Bodrato's sequence
+    BigInteger t2 = v2.join().subtract(vm1.join()).divide(BigInteger.valueOf(3));
+    BigInteger tm1 = v1.join().subtract(vm1.join()).shiftRight(1);
+    BigInteger t1 = v1.join().subtract(v0.join());
+    t2 = t2.subtract(t1).shiftRight(1);
+    t1 = t1.subtract(tm1).subtract(vinf.join());
+    t2 = t2.subtract(vinf.join().shiftLeft(1));
+    tm1 = tm1.subtract(t2);
+    return vinf.join()
+        .shiftLeft(k)
+        .add(t2)
+        .shiftLeft(k)
+        .add(t1)
+        .shiftLeft(k)
+        .add(tm1)
+        .shiftLeft(k)
+        .add(v0.join());
+  } // End method toomCook3
+
+  /** A product computed on the fork-join pool. */
+  private static final class ProductTask extends RecursiveTask<BigInteger> {
+
+    /** The serialization version, as RecursiveTask is Serializable. */
+    private static final long serialVersionUID = 1L;
+
+    /** The first factor. */
+    private final BigInteger a;
+
+    /** The second factor. */
+    private final BigInteger b;
+
+    /**
+     * Creates a task.
+     *
+     * @param a the first factor
+     * @param b the second factor
+     */
+    ProductTask(BigInteger a, BigInteger b) {
+      this.a = a;
+      this.b = b;
+    } // End constructor ProductTask
+
+    @Override
+    protected BigInteger compute() {
+      if (Math.min(a.bitLength(), b.bitLength()) < multiplyThreshold) {
+        return a.multiply(b);
+      } // End if block for small factors
+      BigInteger product = toomCook3(a.abs(), b.abs());
+      return (a.signum() == b.signum()) ? product : product.negate();
+    } // End method compute
+  } // End class ProductTask
+
+  /**
+   * A pair of values and the matrix of Euclidean steps that reduced them to it: the original pair
+   * is M (a, b), where M = [m11 m12; m21 m22] has non-negative entries and determinant 1.
+   */
+  private static final class Reduction {
+
+    /** The reduced first value. */
+    private BigInteger a;
+
+    /** The reduced second value. */
+    private BigInteger b;
+
+    /** The top-left entry of M. */
+    private BigInteger m11 = BigInteger.ONE;
+
+    /** The top-right entry of M. */
+    private BigInteger m12 = BigInteger.ZERO;
+
+    /** The bottom-left entry of M. */
+    private BigInteger m21 = BigInteger.ZERO;
+
+    /** The bottom-right entry of M. */
+    private BigInteger m22 = BigInteger.ONE;
+
+    /**
+     * Creates a reduction that has not taken any steps.
+     *
+     * @param a the first value
+     * @param b the second value
+     */
+    Reduction(BigInteger a, BigInteger b) {
+      this.a = a;
+      this.b = b;
+    } // End constructor Reduction
+
+    /**
+     * Applies the steps of another reduction, found on the top bits of this pair, to the full pair:
+     * (a, b) becomes N^-1 (a, b) and M becomes M N.
+     *
+     * @param top the reduction of the top bits, with matrix N
+     */
+    void apply(Reduction top) {
+      BigInteger newA = multiply(top.m22, a).subtract(multiply(top.m12, b));
+      BigInteger newB = multiply(top.m11, b).subtract(multiply(top.m21, a));
+      a = newA;
+      b = newB;
+      BigInteger n11 = multiply(m11, top.m11).add(multiply(m12, top.m21));
+      BigInteger n12 = multiply(m11, top.m12).add(multiply(m12, top.m22));
+      BigInteger n21 = multiply(m21, top.m11).add(multiply(m22, top.m21));
+      BigInteger n22 = multiply(m21, top.m12).add(multiply(m22, top.m22));
+      m11 = n11;
+      m12 = n12;
+      m21 = n21;
+      m22 = n22;
+    } // End method apply
+
+    /**
+     * Takes one Euclidean step, subtracting the largest multiple of the smaller value from the
+     * larger that leaves it at least 2^s.
+     *
+     * @param s the bound both values must stay at or above
+     * @return false if no such step exists, because the values differ by less than 2^s
+     */
+    boolean step(int s) {
+      BigInteger floor = BigInteger.ONE.shiftLeft(s);
+      if (a.compareTo(b) >= 0) {
+        BigInteger q = a.subtract(floor).divide(b);
+        if (q.signum() <= 0) {
+          return false;
+        } // End if block for a pair already reduced
+        a = a.subtract(q.multiply(b));
+        m12 = m12.add(m11.multiply(q));
+        m22 = m22.add(m21.multiply(q));
+      } else {
+        BigInteger q = b.subtract(floor).divide(a);
+        if (q.signum() <= 0) {
+          return false;
+        } // End if block for a pair already reduced
+        b = b.subtract(q.multiply(a));
+        m11 = m11.add(m12.multiply(q));
+        m21 = m21.add(m22.multiply(q));
+      } // End if block for the larger value
+      return true;
+    } // End method step
+
+    /**
+     * Takes Euclidean steps until no more keep both values at least 2^s.
+     *
+     * @param s the bound both values must stay at or above
+     * @return this reduction
+     */
+    Reduction finish(int s) {
+      if (Math.min(a.bitLength(), b.bitLength()) > s) {
+        while (step(s)) {
+          // Each step shrinks the larger value
+        } // End while loop over the steps
+      } // End if block for values that can be reduced
+      return this;
+    } // End method finish
+  } // End class Reduction
+} // End class LargeArithmetic
@@ -0,0 +1,342 @@
+package edu.grinnell.csc207.util;
+
+import java.math.BigInteger;
+
+/**
+ * A fraction whose numerator and denominator are kept unreduced until something observes them.
+ * Arithmetic on large values only multiplies and adds, skipping the GCD and the two divisions that
+ * {@link BigFraction} does for every result. The value is reduced when {@link #numerator()},
+ * {@link #denominator()}, {@link #toString()}, {@link #equals}, {@link #hashCode()} or {@link
+ * #toBigFraction()} needs it, and the reduced form is then cached. A result is also reduced as
+ * soon as either part has doubled in size, or grown by {@link #MIN_GROWTH_BITS} bits if that is
+ * more, since its operands were last reduced. Deep chains therefore stay within about twice the
+ * size of their reduced values, and the GCDs that remain are rare and amortized.
+ *
+ * <p>Operations on two values that are reduced and fit in longs go through BigFraction's long
+ * arithmetic directly, since reducing them costs next to nothing. Results are always exactly those
+ * of the same operations on BigFraction.
+ */
+public final class LazyFraction implements Comparable<LazyFraction> {
+
+  /** The least growth in bits after which a result is reduced, as in {@link BFCalculator}. */
+  static final int MIN_GROWTH_BITS = BFCalculator.DEFAULT_REDUCE_BITS;
+
+  /** The numerator, possibly sharing a factor with the denominator. */
+  private final BigInteger num;
+
+  /** The denominator, possibly sharing a factor with the numerator (always positive). */
+  private final BigInteger denom;
+
+  /** The size in bits past which a result computed from this value is reduced. */
+  private final int reduceAt;
+
+  /**
+   * The reduced form, computed on first use; null until then. Two threads racing to reduce the
+   * same value compute equal fractions, which is harmless because fractions are immutable.
+   */
+  private BigFraction reduced;
+
+  /**
+   * Constructs a LazyFraction with the value of a BigFraction, which is already reduced.
+   *
+   * @param value the value
+   */
+  public LazyFraction(BigFraction value) {
+    this.num = value.numerator();
+    this.denom = value.denominator();
+    this.reduceAt = limit(bits(this.num, this.denom));
+    this.reduced = value;
+  } // End constructor LazyFraction(BigFraction)
+
+  /**
+   * Constructs a LazyFraction with the specified numerator and denominator, which are not reduced
+   * until needed.
+   *
+   * @param numerator the numerator of the fraction
+   * @param denominator the denominator of the fraction (must not be zero)
+   * @throws ArithmeticException if the denominator is zero
+   */
+  public LazyFraction(BigInteger numerator, BigInteger denominator) {
+    if (denominator.signum() == 0) {
+      throw new ArithmeticException("Denominator cannot be zero");
+    } // End if block to send the error when denominator is zero
+    boolean negative = denominator.signum() < 0;
+    this.num = negative ? numerator.negate() : numerator;
+    this.denom = negative ? denominator.negate() : denominator;
+    this.reduceAt = limit(bits(this.num, this.denom));
+  } // End constructor LazyFraction(BigInteger, BigInteger)
+
+  /**
+   * Constructs a LazyFraction directly from an unreduced numerator and positive denominator.
+   *
+   * @param num the numerator
+   * @param denom the positive denominator
+   * @param reduceAt the size in bits past which results from this value are reduced
+   */
+  private LazyFraction(BigInteger num, BigInteger denom, int reduceAt) {
+    this.num = num;
+    this.denom = denom;
+    this.reduceAt = reduceAt;
+  } // End constructor LazyFraction(BigInteger, BigInteger, int)
+
+  /**
+   * Adds another fraction to this one.
+   *
+   * @param other the fraction to add
+   * @return the sum
+   */
+  public LazyFraction add(LazyFraction other) {
+    if (this.isSmall() && other.isSmall()) {
+      return new LazyFraction(this.reduced.add(other.reduced));
+    } // End if block for the long fast path
+    return sumOf(other.num, other);
+  } // End method add
+
+  /**
+   * Subtracts another fraction from this one.
+   *
+   * @param other the fraction to subtract
+   * @return the difference
+   */
+  public LazyFraction subtract(LazyFraction other) {
+    if (this.isSmall() && other.isSmall()) {
+      return new LazyFraction(this.reduced.subtract(other.reduced));
+    } // End if block for the long fast path
+    return sumOf(other.num.negate(), other);
+  } // End method subtract
+
+  /**
+   * Multiplies this fraction by another.
+   *
+   * @param other the fraction to multiply by
+   * @return the product
+   */
+  public LazyFraction multiply(LazyFraction other) {
+    if (this.isSmall() && other.isSmall()) {
+      return new LazyFraction(this.reduced.multiply(other.reduced));
+    } // End if block for the long fast path
+    return result(
+        LargeArithmetic.multiply(this.num, other.num),
+        LargeArithmetic.multiply(this.denom, other.denom),
+        other);
+  } // End method multiply
+
+  /**
+   * Divides this fraction by another.
+   *
+   * @param other the fraction to divide by
+   * @return the quotient
+   * @throws ArithmeticException if dividing by zero
+   */
+  public LazyFraction divide(LazyFraction other) {
+    int sign = other.signum();
+    if (sign == 0) {
+      throw new ArithmeticException("Cannot divide by zero.");
+    } else if (this.isSmall() && other.isSmall()) {
+      return new LazyFraction(this.reduced.divide(other.reduced));
+    } // End if block for zero divisors and the long fast path
+    BigInteger recipNum = (sign < 0) ? other.denom.negate() : other.denom;
+    BigInteger recipDenom = (sign < 0) ? other.num.negate() : other.num;
+    return result(
+        LargeArithmetic.multiply(this.num, recipNum),
+        LargeArithmetic.multiply(this.denom, recipDenom),
+        other);
+  } // End method divide
+
+  /**
+   * Negates this fraction, keeping its reduced form if it has one.
+   *
+   * @return the negated fraction
+   */
+  public LazyFraction negate() {
+    BigFraction value = this.reduced;
+    if (value != null) {
+      return new LazyFraction(value.negate());
+    } // End if block for reduced values
+    return new LazyFraction(this.num.negate(), this.denom, this.reduceAt);
+  } // End method negate
+
+  /**
+   * Returns the numerator of the reduced fraction.
+   *
+   * @return the numerator as a BigInteger
+   */
+  public BigInteger numerator() {
+    return this.toBigFraction().numerator();
+  } // End method numerator
+
+  /**
+   * Returns the denominator of the reduced fraction.
+   *
+   * @return the denominator as a BigInteger
+   */
+  public BigInteger denominator() {
+    return this.toBigFraction().denominator();
+  } // End method denominator
+
+  /**
+   * Returns the sign of the fraction, which does not need a reduction.
+   *
+   * @return -1, 0, or 1 as the fraction is negative, zero, or positive
+   */
+  public int signum() {
+    return this.num.signum();
+  } // End method signum
+
+  /**
+   * Returns the reduced fraction, reducing it on the first call.
+   *
+   * @return the value as a BigFraction
+   */
+  public BigFraction toBigFraction() {
+    BigFraction value = this.reduced;
+    if (value == null) {
+      value = new BigFraction(this.num, this.denom);
+      this.reduced = value;
+    } // End if block for the first call
+    return value;
+  } // End method toBigFraction
+
+  /**
+   * Determines whether the reduced form has been computed yet.
+   *
+   * @return true if the fraction has been reduced
+   */
+  public boolean isReduced() {
+    return this.reduced != null;
+  } // End method isReduced
+
+  /**
+   * Returns the string form of the reduced fraction, as {@link BigFraction#toString()} does.
+   *
+   * @return the string representation of the fraction
+   */
+  @Override
+  public String toString() {
+    return this.toBigFraction().toString();
+  } // End method toString
+
+  /**
+   * Determines whether another object is a LazyFraction with the same value. Both are reduced, so
+   * that equal values compare equal however they were computed.
+   *
+   * @param other the object to compare with
+   * @return true if other is a LazyFraction equal to this one
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (!(other instanceof LazyFraction)) {
+      return false;
+    } // End if block for identical and foreign objects
+    return this.toBigFraction().equals(((LazyFraction) other).toBigFraction());
+  } // End method equals
+
+  /**
+   * Returns the hash code of the reduced fraction.
+   *
+   * @return the hash code
+   */
+  @Override
+  public int hashCode() {
+    return this.toBigFraction().hashCode();
+  } // End method hashCode
+
+  /**
+   * Compares the values of two fractions. Reduced values are compared as BigFractions; otherwise
+   * the parts are cross-multiplied, which needs no reduction because both denominators are
+   * positive.
+   *
+   * @param other the fraction to compare with
+   * @return a negative number, zero, or a positive number as this fraction is less than, equal
+   *     to, or greater than other
+   */
+  @Override
+  public int compareTo(LazyFraction other) {
+    BigFraction value = this.reduced;
+    BigFraction otherValue = other.reduced;
+    if (value != null && otherValue != null) {
+      return value.compareTo(otherValue);
+    } // End if block for reduced values
+    int sign = this.signum();
+    int otherSign = other.signum();
+    if (sign != otherSign || sign == 0) {
+      return Integer.compare(sign, otherSign);
+    } // End if block for different signs or zeros
+    return LargeArithmetic.multiply(this.num, other.denom)
+        .compareTo(LargeArithmetic.multiply(other.num, this.denom));
+  } // End method compareTo
+
+  /**
+   * Determines whether this value is reduced and stored in longs, so that BigFraction's long
+   * arithmetic applies.
+   *
+   * @return true if the reduced form is known and small
+   */
+  private boolean isSmall() {
+    BigFraction value = this.reduced;
+    return value != null && value.isSmall();
+  } // End method isSmall
+
+  /**
+   * Computes this fraction plus c/d without reducing. When the denominators are equal, or the
+   * other is a whole number, only the numerator changes.
+   *
+   * @param c the other numerator, already negated for a subtraction
+   * @param other the other fraction, whose denominator is d
+   * @return the sum
+   */
+  private LazyFraction sumOf(BigInteger c, LazyFraction other) {
+    BigInteger d = other.denom;
+    if (d.equals(this.denom)) {
+      return result(this.num.add(c), d, other);
+    } else if (d.equals(BigInteger.ONE)) {
+      return result(this.num.add(LargeArithmetic.multiply(c, this.denom)), this.denom, other);
+    } else if (this.denom.equals(BigInteger.ONE)) {
+      return result(LargeArithmetic.multiply(this.num, d).add(c), d, other);
+    } // End if block for denominators that need no product
+    return result(
+        LargeArithmetic.multiply(this.num, d).add(LargeArithmetic.multiply(c, this.denom)),
+        LargeArithmetic.multiply(this.denom, d),
+        other);
+  } // End method sumOf
+
+  /**
+   * Wraps the unreduced result of an operation, reducing it at once if either part has grown past
+   * the threshold of both operands.
+   *
+   * @param resultNum the numerator
+   * @param resultDenom the positive denominator
+   * @param other the right-hand operand
+   * @return the result
+   */
+  private LazyFraction result(BigInteger resultNum, BigInteger resultDenom, LazyFraction other) {
+    int limit = Math.max(this.reduceAt, other.reduceAt);
+    if (bits(resultNum, resultDenom) > limit) {
+      return new LazyFraction(new BigFraction(resultNum, resultDenom));
+    } // End if block for results that grew past the threshold
+    return new LazyFraction(resultNum, resultDenom, limit);
+  } // End method result
+
+  /**
+   * Returns the size in bits of the larger of two parts.
+   *
+   * @param numerator the numerator
+   * @param denominator the denominator
+   * @return the larger bit length
+   */
+  private static int bits(BigInteger numerator, BigInteger denominator) {
+    return Math.max(numerator.bitLength(), denominator.bitLength());
+  } // End method bits
+
+  /**
+   * Returns the size past which a value of the given size is next reduced.
+   *
+   * @param bits the size in bits of a reduced value
+   * @return the size at which to reduce again
+   */
+  private static int limit(int bits) {
+    return bits + Math.max(bits, MIN_GROWTH_BITS);
+  } // End method limit
+} // End class LazyFraction
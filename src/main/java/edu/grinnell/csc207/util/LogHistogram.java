@@ -0,0 +1,134 @@
+package edu.grinnell.csc207.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative longs in the style of HdrHistogram. Each power of two is
+ * split into 16 linear buckets, so a recorded value is known to within about 6% while the whole
+ * range of a long fits in under a thousand counters. Recording is one atomic increment and may be
+ * done from any number of threads; reads are not a consistent snapshot while values are recorded.
+ */
+public final class LogHistogram {
+
+  /** The number of bits of each value kept exactly. */
+  private static final int SUB_BUCKET_BITS = 4;
+
+  /** The number of linear buckets in each power of two. */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** The number of buckets needed for every non-negative long. */
+  private static final int BUCKET_COUNT = SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS);
+
+  /** The number of values recorded in each bucket. */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  /** The sum of all recorded values. */
+  private final LongAdder total = new LongAdder();
+
+  /**
+   * Records one value.
+   *
+   * @param value the value; negative values are recorded as 0.
+   */
+  public void record(long value) {
+    long clamped = Math.max(value, 0);
+    counts.incrementAndGet(bucketOf(clamped));
+    total.add(clamped);
+  } // End method record
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return the count
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += counts.get(i);
+    } // End for loop
+    return count;
+  } // End method count
+
+  /**
+   * Returns the mean of the recorded values.
+   *
+   * @return the mean, or 0 if nothing was recorded
+   */
+  public double mean() {
+    long count = count();
+    return (count == 0) ? 0 : (double) total.sum() / count;
+  } // End method mean
+
+  /**
+   * Returns an estimate of a percentile: the lowest value of the bucket holding it.
+   *
+   * @param percentile the percentile, from 0 to 100
+   * @return the estimate, or 0 if nothing was recorded
+   */
+  public long percentile(double percentile) {
+    long count = count();
+    long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen > 0 && seen >= rank) {
+        return lowestValue(i);
+      } // End if block for the bucket holding the rank
+    } // End for loop
+    return 0;
+  } // End method percentile
+
+  /**
+   * Returns the lowest value of the highest non-empty bucket.
+   *
+   * @return the estimate of the maximum, or 0 if nothing was recorded
+   */
+  public long max() {
+    for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+      if (counts.get(i) != 0) {
+        return lowestValue(i);
+      } // End if block for the highest bucket
+    } // End for loop
+    return 0;
+  } // End method max
+
+  /** Discards every recorded value. */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    } // End for loop
+    total.reset();
+  } // End method reset
+
+  /**
+   * Finds the bucket of a value.
+   *
+   * @param value the non-negative value
+   * @return the bucket index
+   */
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    } // End if block for values kept exactly
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int mantissa = (int) (value >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS * (shift + 1) + mantissa;
+  } // End method bucketOf
+
+  /**
+   * Finds the lowest value of a bucket.
+   *
+   * @param bucket the bucket index
+   * @return the lowest value that falls in it
+   */
+  private static long lowestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    } // End if block for values kept exactly
+    int shift = bucket / SUB_BUCKETS - 1;
+    long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+    return mantissa << shift;
+  } // End method lowestValue
+} // End of LogHistogram class
@@ -0,0 +1,284 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe memo of the results of arithmetic on large fractions, for workloads that
+ * keep recomputing the same products and quotients of values with thousands of bits. Results are
+ * keyed by the operator and both operands, compared by value, and evicted in least recently used
+ * order once the operands and results held add up to more than a budget of bits. Operations
+ * whose operands together have fewer than a threshold of bits are computed directly without
+ * touching the cache, so small arithmetic costs no more than before.
+ *
+ * <p>One cache may be shared by any number of {@link BFCalculator}s on any number of threads.
+ * Lookups and updates hold a lock only briefly; the arithmetic itself runs outside it, so two
+ * threads that miss on the same key at once may both compute the result.
+ */
+public final class OperationCache {
+
+  /** The default number of operand bits from which operations are cached. */
+  public static final int DEFAULT_MIN_BITS = 2048;
+
+  /** The default budget, in bits, for the operands and results held (16 MiB). */
+  public static final long DEFAULT_MAX_BITS = 1L << 27;
+
+  /** The initial capacity of the underlying map. */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The load factor of the underlying map. */
+  private static final float LOAD_FACTOR = 0.75f;
+
+  /** The multiplier that combines the hash codes of a key's parts. */
+  private static final int HASH_MULTIPLIER = 31;
+
+  /** The cached results, in access order; guarded by itself. */
+  private final LinkedHashMap<Key, Result> entries =
+      new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+  /** The number of operand bits from which operations are cached. */
+  private final int minBits;
+
+  /** The budget, in bits, for the operands and results held. */
+  private final long maxBits;
+
+  /** The bits held by the cached operands and results; guarded by entries. */
+  private long totalBits;
+
+  /** The number of cacheable operations answered from the cache. */
+  private final LongAdder hits = new LongAdder();
+
+  /** The number of cacheable operations that had to be computed. */
+  private final LongAdder misses = new LongAdder();
+
+  /** Creates a cache with the default threshold and budget. */
+  public OperationCache() {
+    this(DEFAULT_MIN_BITS, DEFAULT_MAX_BITS);
+  } // End constructor OperationCache()
+
+  /**
+   * Creates a cache with the given threshold and budget.
+   *
+   * @param minBits the number of bits, counting both parts of both operands, from which an
+   *     operation is cached
+   * @param maxBits the budget, in bits, for the operands and results held
+   * @throws IllegalArgumentException if minBits is negative or maxBits is not positive
+   */
+  public OperationCache(int minBits, long maxBits) {
+    if (minBits < 0 || maxBits <= 0) {
+      throw new IllegalArgumentException("Invalid cache limits.");
+    } // End if block for invalid limits
+    this.minBits = minBits;
+    this.maxBits = maxBits;
+  } // End constructor OperationCache(int, long)
+
+  /**
+   * Applies an operator to two fractions, answering from the cache when it can.
+   *
+   * @param operator one of '+', '-', '*' or '/'
+   * @param left the left-hand operand
+   * @param right the right-hand operand
+   * @return the result
+   * @throws ArithmeticException if dividing by zero
+   */
+  public BigFraction apply(char operator, BigFraction left, BigFraction right) {
+    long operandBits = bits(left) + bits(right);
+    if (operandBits < minBits) {
+      return compute(operator, left, right);
+    } // End if block for operations too small to cache
+    Key key = new Key(operator, left, right);
+    Result cached;
+    synchronized (entries) {
+      cached = entries.get(key);
+    } // End synchronized block for the lookup
+    if (cached != null) {
+      hits.increment();
+      return cached.value;
+    } // End if block for a cache hit
+    misses.increment();
+    BigFraction value = compute(operator, left, right);
+    long weight = operandBits + bits(value);
+    if (weight <= maxBits) {
+      store(key, new Result(value, weight));
+    } // End if block for results that fit in the budget
+    return value;
+  } // End method apply
+
+  /**
+   * Returns the number of cacheable operations answered from the cache.
+   *
+   * @return the number of hits
+   */
+  public long hits() {
+    return hits.sum();
+  } // End method hits
+
+  /**
+   * Returns the number of cacheable operations that had to be computed.
+   *
+   * @return the number of misses
+   */
+  public long misses() {
+    return misses.sum();
+  } // End method misses
+
+  /**
+   * Returns the fraction of cacheable operations answered from the cache.
+   *
+   * @return the hit rate, from 0 to 1, or 0 if there have been no cacheable operations
+   */
+  public double hitRate() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return (total == 0) ? 0 : (double) h / total;
+  } // End method hitRate
+
+  /**
+   * Returns the number of results held.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    } // End synchronized block
+  } // End method size
+
+  /**
+   * Returns the bits held by the cached operands and results.
+   *
+   * @return the bits held
+   */
+  public long bits() {
+    synchronized (entries) {
+      return totalBits;
+    } // End synchronized block
+  } // End method bits
+
+  /** Removes every entry and resets the statistics. */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      totalBits = 0;
+    } // End synchronized block
+    hits.reset();
+    misses.reset();
+  } // End method clear
+
+  /**
+   * Adds a result to the cache, evicting the least recently used entries until it is back within
+   * its budget.
+   *
+   * @param key the operation
+   * @param result the result and its weight
+   */
+  private void store(Key key, Result result) {
+    synchronized (entries) {
+      Result previous = entries.put(key, result);
+      totalBits += result.weight - ((previous == null) ? 0 : previous.weight);
+      Iterator<Result> eldest = entries.values().iterator();
+      while (totalBits > maxBits) {
+        totalBits -= eldest.next().weight;
+        eldest.remove();
+      } // End while loop to evict
+    } // End synchronized block
+  } // End method store
+
+  /**
+   * Computes an operation without the cache.
+   *
+   * @param operator one of '+', '-', '*' or '/'
+   * @param left the left-hand operand
+   * @param right the right-hand operand
+   * @return the result
+   * @throws ArithmeticException if dividing by zero
+   */
+  private static BigFraction compute(char operator, BigFraction left, BigFraction right) {
+    switch (operator) {
+      case '+':
+        return left.add(right);
+      case '-':
+        return left.subtract(right);
+      case '*':
+        return left.multiply(right);
+      default:
+        return left.divide(right);
+    } // End switch block
+  } // End method compute
+
+  /**
+   * Estimates the size of a fraction. Fractions stored in longs count as zero, since they are
+   * never worth caching.
+   *
+   * @param value the fraction
+   * @return the bit lengths of its numerator and denominator added together
+   */
+  private static long bits(BigFraction value) {
+    if (value.isSmall()) {
+      return 0;
+    } // End if block for fractions stored in longs
+    return (long) value.numerator().bitLength() + value.denominator().bitLength();
+  } // End method bits
+
+  /** The operator and operands of a cached operation. */
+  private static final class Key {
+
+    /** The operator. */
+    private final char operator;
+
+    /** The left-hand operand. */
+    private final BigFraction left;
+
+    /** The right-hand operand. */
+    private final BigFraction right;
+
+    /**
+     * Creates a key.
+     *
+     * @param operator the operator
+     * @param left the left-hand operand
+     * @param right the right-hand operand
+     */
+    Key(char operator, BigFraction left, BigFraction right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    } // End constructor Key
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      } // End if block for foreign objects
+      Key that = (Key) other;
+      return operator == that.operator && left.equals(that.left) && right.equals(that.right);
+    } // End method equals
+
+    @Override
+    public int hashCode() {
+      return (left.hashCode() * HASH_MULTIPLIER + right.hashCode()) * HASH_MULTIPLIER + operator;
+    } // End method hashCode
+  } // End class Key
+
+  /** A cached result and the bits it accounts for. */
+  private static final class Result {
+
+    /** The result. */
+    private final BigFraction value;
+
+    /** The bits of the operands and the result. */
+    private final long weight;
+
+    /**
+     * Creates a cached result.
+     *
+     * @param value the result
+     * @param weight the bits of the operands and the result
+     */
+    Result(BigFraction value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    } // End constructor Result
+  } // End class Result
+} // End class OperationCache
@@ -0,0 +1,476 @@
+package edu.grinnell.csc207.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BFRegisterSet whose contents survive restarts. Every {@link #store} is appended to a binary
+ * write-ahead log in a directory; records are committed (written and fsynced) in groups, either
+ * after {@link #GROUP_SIZE} stores or within {@link #SYNC_INTERVAL_MS} milliseconds, so at most
+ * that window of stores can be lost in a crash. Once the log holds {@link #COMPACT_THRESHOLD}
+ * records it is folded into a snapshot file and emptied.
+ *
+ * <p>Each record is the register letter as one byte, then the numerator and the denominator, each
+ * as a varint length followed by its two's-complement bytes from {@link BigInteger#toByteArray}.
+ * Recovery scans the log once to find the last record for each register and decodes only those,
+ * so millions of records reload quickly; a torn record at the end of the log is discarded. Files
+ * are read in chunks, so neither file needs to fit in one buffer.
+ *
+ * <p>A commit writes the pending records after the last committed one and only then forgets them.
+ * If the write or the fsync fails, the log is cut back to its committed end and the records stay
+ * pending for the next attempt, so a failure never leaves a torn record before later ones.
+ */
+public class PersistentBFRegisterSet extends BFRegisterSet implements Closeable {
+
+  /** The number of stores committed together. */
+  public static final int GROUP_SIZE = 64;
+
+  /** The longest time, in milliseconds, a store waits to be committed. */
+  public static final long SYNC_INTERVAL_MS = 50;
+
+  /** The number of log records that triggers compaction into a snapshot. */
+  public static final int COMPACT_THRESHOLD = 1 << 20;
+
+  /** The name of the write-ahead log file. */
+  private static final String LOG_NAME = "registers.wal";
+
+  /** The name of the snapshot file. */
+  private static final String SNAPSHOT_NAME = "registers.snapshot";
+
+  /** The name of the snapshot file while it is being written. */
+  private static final String SNAPSHOT_TEMP_NAME = "registers.snapshot.tmp";
+
+  /** The initial size of the pending-record buffer, and of the buffer files are read through. */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** The number of payload bits in each varint byte. */
+  private static final int VARINT_SHIFT = 7;
+
+  /** The payload bits of a varint byte. */
+  private static final int VARINT_MASK = 0x7F;
+
+  /** The continuation bit of a varint byte. */
+  private static final int VARINT_MORE = 0x80;
+
+  /** The longest numerator or denominator, in bytes; a BigInteger has at most 2^31 bits. */
+  private static final long MAX_PART_LENGTH = 1L << 28;
+
+  /** The directory holding the log and snapshot. */
+  private final Path directory;
+
+  /** The open write-ahead log. */
+  private final FileChannel log;
+
+  /** Records appended but not yet committed. */
+  private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /** The number of records in pending. */
+  private int pendingCount;
+
+  /** The number of records in the log file. */
+  private long logCount;
+
+  /** The offset in the log just past the last committed record. */
+  private long committedEnd;
+
+  /** The background task that commits stragglers. */
+  private final ScheduledExecutorService syncer;
+
+  /**
+   * Opens (or creates) a durable register set in a directory, recovering any saved values.
+   *
+   * @param directory the directory holding the log and snapshot files.
+   * @throws IOException if the files cannot be read or created.
+   */
+  public PersistentBFRegisterSet(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+    Path snapshot = directory.resolve(SNAPSHOT_NAME);
+    if (Files.exists(snapshot)) {
+      try (FileChannel in = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+        recover(in, false);
+      } // End of try
+    } // End of if block
+    this.log = openLog(directory.resolve(LOG_NAME));
+    committedEnd = recover(log, true);
+    log.truncate(committedEnd); // Drop a torn final record
+    this.syncer =
+        Executors.newSingleThreadScheduledExecutor(
+            task -> {
+              Thread thread = new Thread(task, "register-log-sync");
+              thread.setDaemon(true);
+              return thread;
+            });
+    syncer.scheduleWithFixedDelay(
+        this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  } // End of constructor PersistentBFRegisterSet
+
+  /**
+   * Stores a BigFraction value in a specified register and appends it to the log.
+   *
+   * @param register the register ('a' to 'z') to store the value in.
+   * @param value the BigFraction value to store.
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'.
+   * @throws UncheckedIOException if the log cannot be written, in which case the register keeps
+   *     its old value and the store is not logged; stores before it stay pending.
+   */
+  @Override
+  public synchronized void store(char register, BigFraction value) {
+    if (register < 'a' || register > 'z') {
+      throw new IllegalArgumentException("Register must be a letter from 'a' to 'z'.");
+    } // End of if block
+    int mark = pending.position();
+    append(register, value);
+    if (pendingCount >= GROUP_SIZE) {
+      try {
+        sync();
+      } catch (IOException e) {
+        pending.position(mark); // Take back this store's record only
+        pendingCount--;
+        throw new UncheckedIOException(e);
+      } // End of catch
+    } // End of if block
+    super.store(register, value);
+    if (logCount >= COMPACT_THRESHOLD) {
+      try {
+        compact();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e); // The store itself is committed
+      } // End of catch
+    } // End of if block
+  } // End of store method
+
+  /**
+   * Retrieves the BigFraction value stored in a specified register.
+   *
+   * @param register the register ('a' to 'z') from which to retrieve the value.
+   * @return the BigFraction value stored in the register.
+   * @throws IllegalArgumentException if the register is not a letter between 'a' and 'z'.
+   */
+  @Override
+  public synchronized BigFraction get(char register) {
+    return super.get(register);
+  } // End of get method
+
+  /**
+   * Retrieves the BigFraction value stored in a register by its slot index.
+   *
+   * @param slot the index of the register, from 0 to 25.
+   * @return the BigFraction value stored in the register.
+   */
+  @Override
+  synchronized BigFraction getSlot(int slot) {
+    return super.getSlot(slot);
+  } // End of getSlot method
+
+  /**
+   * Writes and fsyncs every pending record. The records are forgotten only once both succeed; on
+   * failure the log is cut back to its committed end and they stay pending.
+   *
+   * @throws IOException if the log cannot be written.
+   */
+  public synchronized void sync() throws IOException {
+    if (pendingCount == 0) {
+      return;
+    } // End of if block
+    ByteBuffer records = pending.duplicate().flip();
+    try {
+      while (records.hasRemaining()) {
+        log.write(records, committedEnd + records.position());
+      } // End of while loop
+      log.force(false);
+    } catch (IOException e) {
+      try {
+        log.truncate(committedEnd); // Leave no torn record for recovery to stop at
+      } catch (IOException truncateFailure) {
+        e.addSuppressed(truncateFailure); // The next commit overwrites the same bytes anyway
+      } // End of catch
+      throw e;
+    } // End of catch
+    committedEnd += records.limit();
+    pending.clear();
+    logCount += pendingCount;
+    pendingCount = 0;
+  } // End of sync method
+
+  /**
+   * Folds the current register values into a new snapshot file and empties the log. The snapshot
+   * is written to a temporary file, fsynced, and atomically renamed into place, and the directory
+   * is fsynced so the rename is durable before the log is truncated. A crash at any point leaves
+   * a recoverable state.
+   *
+   * @throws IOException if the files cannot be written.
+   */
+  public synchronized void compact() throws IOException {
+    sync();
+    ByteBuffer saved = pending;
+    pending = ByteBuffer.allocate(BUFFER_SIZE);
+    try {
+      for (int slot = 0; slot < REGISTER_COUNT; slot++) {
+        append((char) ('a' + slot), super.getSlot(slot));
+      } // End of for loop
+      writeSnapshot(pending.flip());
+    } finally {
+      pending = saved; // Empty, as sync just committed it
+      pendingCount = 0;
+    } // End of try
+    Files.move(
+        directory.resolve(SNAPSHOT_TEMP_NAME),
+        directory.resolve(SNAPSHOT_NAME),
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    syncDirectory();
+    // Replaying old log records after this snapshot is harmless: they end at the same values
+    log.truncate(0);
+    log.force(true);
+    committedEnd = 0;
+    logCount = 0;
+  } // End of compact method
+
+  /**
+   * Writes and fsyncs the temporary snapshot file.
+   *
+   * @param records the snapshot records, from position 0 to the limit.
+   * @throws IOException if the file cannot be written.
+   */
+  private void writeSnapshot(ByteBuffer records) throws IOException {
+    try (FileChannel out =
+        FileChannel.open(
+            directory.resolve(SNAPSHOT_TEMP_NAME),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (records.hasRemaining()) {
+        out.write(records);
+      } // End of while loop
+      out.force(true);
+    } // End of try
+  } // End of writeSnapshot method
+
+  /**
+   * Commits pending records and closes the log.
+   *
+   * @throws IOException if the log cannot be written.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    syncer.shutdown();
+    try {
+      sync();
+    } finally {
+      log.close();
+    } // End of try
+  } // End of close method
+
+  /**
+   * Opens the write-ahead log for reading and writing, creating it if needed. Called once, from the
+   * constructor; a subclass may override it to wrap the channel, for instance to inject failures.
+   *
+   * @param file the log file.
+   * @return the open channel.
+   * @throws IOException if the file cannot be opened.
+   */
+  protected FileChannel openLog(Path file) throws IOException {
+    return FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  } // End of openLog method
+
+  /**
+   * Fsyncs the directory, so that a rename within it survives a crash.
+   *
+   * @throws IOException if the directory cannot be synced.
+   */
+  private void syncDirectory() throws IOException {
+    try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    } // End of try
+  } // End of syncDirectory method
+
+  /** Commits pending records from the background thread, ignoring failures until the next store. */
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (IOException e) {
+      // The next store or close will report the problem
+    } // End of catch
+  } // End of syncQuietly method
+
+  /**
+   * Appends one record to the pending buffer.
+   *
+   * @param register the register letter.
+   * @param value the stored value.
+   */
+  private void append(char register, BigFraction value) {
+    byte[] num = value.numerator().toByteArray();
+    byte[] denom = value.denominator().toByteArray();
+    int needed = 1 + 2 * Integer.BYTES + num.length + denom.length;
+    if (pending.remaining() < needed) {
+      int capacity = Math.max(pending.capacity() * 2, pending.position() + needed);
+      pending = ByteBuffer.allocate(capacity).put(pending.flip());
+    } // End of if block
+    pending.put((byte) register);
+    putBytes(num);
+    putBytes(denom);
+    pendingCount++;
+  } // End of append method
+
+  /**
+   * Appends a varint length and the bytes it counts.
+   *
+   * @param bytes the bytes to append.
+   */
+  private void putBytes(byte[] bytes) {
+    int length = bytes.length;
+    while (length > VARINT_MASK) {
+      pending.put((byte) ((length & VARINT_MASK) | VARINT_MORE));
+      length >>>= VARINT_SHIFT;
+    } // End of while loop
+    pending.put((byte) length);
+    pending.put(bytes);
+  } // End of putBytes method
+
+  /**
+   * Restores the registers from a file of records, read in chunks. Only the last record for each
+   * register is decoded.
+   *
+   * @param channel the file, read from offset 0.
+   * @param counted whether the records are log records to count toward compaction.
+   * @return the offset just past the last complete record.
+   * @throws IOException if the file cannot be read.
+   */
+  private long recover(FileChannel channel, boolean counted) throws IOException {
+    long size = channel.size();
+    long[] last = new long[REGISTER_COUNT];
+    int[] lastLength = new int[REGISTER_COUNT];
+    Arrays.fill(last, -1);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    long offset = 0; // The file offset of the first byte of buffer
+    while (true) {
+      long length = recordLength(buffer);
+      if (length < 0) {
+        break;
+      } else if (length == 0 || length > buffer.remaining()) {
+        long start = offset + buffer.position();
+        if (offset + buffer.limit() >= size || start + length > size) {
+          break; // A torn final record
+        } // End of if block
+        buffer.compact();
+        offset = start;
+        if (!buffer.hasRemaining() || length > buffer.capacity()) {
+          int capacity = (int) Math.max(buffer.capacity() * 2L, length);
+          buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+        } // End of if block
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+          // Fill the buffer or reach the end of the file
+        } // End of while loop
+        buffer.flip();
+      } else {
+        int slot = buffer.get(buffer.position()) - 'a';
+        last[slot] = offset + buffer.position();
+        lastLength[slot] = (int) length;
+        buffer.position(buffer.position() + (int) length);
+        if (counted) {
+          logCount++;
+        } // End of if block
+      } // End of else
+    } // End of while loop
+    for (int slot = 0; slot < REGISTER_COUNT; slot++) {
+      if (last[slot] >= 0) {
+        ByteBuffer record = ByteBuffer.allocate(lastLength[slot]);
+        while (record.hasRemaining()
+            && channel.read(record, last[slot] + record.position()) > 0) {
+          // The record is known to be complete
+        } // End of while loop
+        record.position(1);
+        BigInteger num = new BigInteger(takeBytes(record));
+        BigInteger denom = new BigInteger(takeBytes(record));
+        // Logged values were already in lowest terms
+        super.store((char) ('a' + slot), BigFraction.ofReduced(num, denom));
+      } // End of if block
+    } // End of for loop
+    return offset + buffer.position();
+  } // End of recover method
+
+  /**
+   * Measures the record at a buffer's position, without moving it.
+   *
+   * @param records the buffer, in read mode.
+   * @return the length of the record in bytes, 0 if the buffer ends before its length is known,
+   *     or -1 if the record is malformed.
+   */
+  private static long recordLength(ByteBuffer records) {
+    int end = records.limit();
+    long at = records.position();
+    if (at == end) {
+      return 0;
+    } // End of if block
+    int register = records.get((int) at++) - 'a';
+    if (register < 0 || register >= REGISTER_COUNT) {
+      return -1;
+    } // End of if block
+    for (int part = 0; part < 2; part++) {
+      long length = 0;
+      int b = VARINT_MORE;
+      for (int shift = 0; (b & VARINT_MORE) != 0; shift += VARINT_SHIFT) {
+        if (shift >= Integer.SIZE) {
+          return -1;
+        } else if (at >= end) {
+          return 0;
+        } // End of if block
+        b = records.get((int) at++);
+        length |= (long) (b & VARINT_MASK) << shift;
+      } // End of for loop
+      if (length <= 0 || length > MAX_PART_LENGTH) {
+        return -1;
+      } // End of if block
+      at += length;
+    } // End of for loop
+    return at - records.position();
+  } // End of recordLength method
+
+  /**
+   * Reads one varint-prefixed byte string that is known to be complete.
+   *
+   * @param records the buffer positioned at the length.
+   * @return the bytes.
+   */
+  private static byte[] takeBytes(ByteBuffer records) {
+    byte[] bytes = new byte[readLength(records)];
+    records.get(bytes);
+    return bytes;
+  } // End of takeBytes method
+
+  /**
+   * Reads a varint length.
+   *
+   * @param records the buffer positioned at the length.
+   * @return the length, or -1 if it is truncated or too large.
+   */
+  private static int readLength(ByteBuffer records) {
+    int length = 0;
+    for (int shift = 0; shift < Integer.SIZE; shift += VARINT_SHIFT) {
+      if (!records.hasRemaining()) {
+        return -1;
+      } // End of if block
+      int b = records.get();
+      length |= (b & VARINT_MASK) << shift;
+      if ((b & VARINT_MORE) == 0) {
+        return length;
+      } // End of if block
+    } // End of for loop
+    return -1;
+  } // End of readLength method
+} // End of PersistentBFRegisterSet class
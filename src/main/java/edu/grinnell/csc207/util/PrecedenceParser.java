@@ -0,0 +1,223 @@
+package edu.grinnell.csc207.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles expressions with the usual operator precedence, such as "(1/2 + a) * -b / 3", into
+ * postfix {@link CompiledExpression} plans with Dijkstra's shunting-yard algorithm. '*' and '/'
+ * bind more tightly than '+' and '-', operators of equal precedence group left to right,
+ * parentheses group as written, and a '-' where an operand is expected is unary minus. Compiling
+ * uses explicit stacks rather than recursion, so nesting depth is limited only by memory.
+ *
+ * <p>Tokens are as in {@link ExpressionParser}, except that any number of spaces may separate
+ * them and parentheses need no spaces around them. A literal such as "1/2" is still a single
+ * fraction, so "a / 1/2" divides a by one half.
+ */
+public class PrecedenceParser {
+
+  /** The operator-stack marker for an open parenthesis. */
+  private static final char OPEN = '(';
+
+  /** The precedence of '+' and '-'. */
+  private static final int ADDITIVE = 1;
+
+  /** The precedence of '*' and '/'. */
+  private static final int MULTIPLICATIVE = 2;
+
+  /** The precedence of unary minus. */
+  private static final int UNARY = 3;
+
+  /** Prevents instantiation of this utility class. */
+  private PrecedenceParser() {} // End constructor PrecedenceParser
+
+  /**
+   * Compiles and evaluates an expression, leaving the result in the calculator. Invalid
+   * expressions leave the calculator untouched; division by zero leaves it cleared.
+   *
+   * @param input the expression to evaluate (e.g., "1/2 + 1/3 * 3")
+   * @param calculator the BFCalculator to perform the calculations
+   * @param registers the BFRegisterSet to retrieve stored values
+   * @return the result of the expression
+   * @throws IllegalArgumentException if the expression is invalid
+   * @throws ArithmeticException if the expression divides by zero
+   */
+  public static BigFraction evaluate(
+      CharSequence input, BFCalculator calculator, BFRegisterSet registers) {
+    long start = CalculatorMetrics.ENABLED ? System.nanoTime() : 0;
+    CompiledExpression plan;
+    try {
+      plan = compile(input);
+    } catch (IllegalArgumentException e) {
+      if (CalculatorMetrics.ENABLED) {
+        CalculatorMetrics.recordParseFailure();
+      } // End if block for metrics
+      throw e;
+    } // End try/catch for invalid expressions
+    BigFraction result = plan.evaluate(calculator, registers);
+    if (CalculatorMetrics.ENABLED) {
+      CalculatorMetrics.recordExpression(start);
+    } // End if block for metrics
+    return result;
+  } // End method evaluate
+
+  /**
+   * Determines whether {@link #evaluate} would clear the calculator, which it does once the
+   * expression compiles.
+   *
+   * @param input the expression
+   * @return true if evaluating input resets the calculator's value
+   */
+  public static boolean clearsCalculator(CharSequence input) {
+    try {
+      compile(input);
+      return true;
+    } catch (IllegalArgumentException | ArithmeticException e) {
+      return false;
+    } // End try/catch for expressions that fail to compile
+  } // End method clearsCalculator
+
+  /**
+   * Compiles an expression into a postfix plan.
+   *
+   * @param source the expression to compile
+   * @return the compiled plan
+   * @throws IllegalArgumentException if the expression is invalid
+   * @throws ArithmeticException if a constant has a zero denominator
+   */
+  public static CompiledExpression compile(CharSequence source) {
+    return compile(source, new ExpressionLexer());
+  } // End method compile
+
+  /**
+   * Compiles an expression into a postfix plan, reusing a lexer.
+   *
+   * @param source the expression to compile
+   * @param lexer the lexer to scan with
+   * @return the compiled plan
+   * @throws IllegalArgumentException if the expression is invalid
+   * @throws ArithmeticException if a constant has a zero denominator
+   */
+  static CompiledExpression compile(CharSequence source, ExpressionLexer lexer) {
+    List<BigFraction> constants = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+    StringBuilder program = new StringBuilder();
+    char[] pending = new char[source.length()]; // Operators and open parentheses
+    int top = 0;
+    int depth = 0;
+    int maxDepth = 0;
+    boolean expectOperand = true;
+    lexer.reset(source, true);
+    for (ExpressionLexer.Token token = lexer.next();
+        token != ExpressionLexer.Token.END;
+        token = lexer.next()) {
+      if (token == ExpressionLexer.Token.NUMBER || token == ExpressionLexer.Token.REGISTER) {
+        if (!expectOperand) {
+          throw invalid();
+        } // End if block for two operands in a row
+        boolean register = token == ExpressionLexer.Token.REGISTER;
+        constants.add(register ? null : lexer.number());
+        slots.add(register ? lexer.register() - 'a' : -1);
+        program.append(CompiledExpression.PUSH);
+        maxDepth = Math.max(maxDepth, ++depth);
+        expectOperand = false;
+      } else if (token == ExpressionLexer.Token.OPEN) {
+        if (!expectOperand) {
+          throw invalid();
+        } // End if block for a parenthesis after an operand
+        pending[top++] = OPEN;
+      } else if (token == ExpressionLexer.Token.CLOSE) {
+        if (expectOperand) {
+          throw invalid();
+        } // End if block for empty parentheses or a dangling operator
+        while (top > 0 && pending[top - 1] != OPEN) {
+          depth -= emit(pending[--top], program);
+        } // End while loop to close the group
+        if (top == 0) {
+          throw invalid();
+        } // End if block for an unmatched parenthesis
+        top--;
+      } else if (token == ExpressionLexer.Token.OPERATOR) {
+        char operator = lexer.operator();
+        if (expectOperand) {
+          if (operator != '-') {
+            throw invalid();
+          } // End if block for an operator with no left operand
+          pending[top++] = CompiledExpression.NEGATE;
+        } else {
+          int precedence = precedence(operator);
+          while (top > 0
+              && pending[top - 1] != OPEN
+              && precedence(pending[top - 1]) >= precedence) {
+            depth -= emit(pending[--top], program);
+          } // End while loop to emit operators that bind at least as tightly
+          pending[top++] = operator;
+          expectOperand = true;
+        } // End if block for unary and binary operators
+      } else {
+        throw invalid();
+      } // End if block for each kind of token
+    } // End for loop over the tokens
+    if (expectOperand) {
+      throw invalid();
+    } // End if block for an empty or dangling expression
+    while (top > 0) {
+      char operator = pending[--top];
+      if (operator == OPEN) {
+        throw invalid();
+      } // End if block for an unclosed parenthesis
+      depth -= emit(operator, program);
+    } // End while loop to emit the remaining operators
+
+    int[] slotArray = new int[slots.size()];
+    for (int i = 0; i < slotArray.length; i++) {
+      slotArray[i] = slots.get(i);
+    } // End for loop to unpack the slots
+    return new CompiledExpression(
+        source.toString(),
+        constants.toArray(new BigFraction[0]),
+        slotArray,
+        program.toString().toCharArray(),
+        maxDepth);
+  } // End method compile
+
+  /**
+   * Appends an operator to the program.
+   *
+   * @param operator a binary operator or {@link CompiledExpression#NEGATE}
+   * @param program the program so far
+   * @return the number of values the operator removes from the stack
+   */
+  private static int emit(char operator, StringBuilder program) {
+    program.append(operator);
+    return (operator == CompiledExpression.NEGATE) ? 0 : 1;
+  } // End method emit
+
+  /**
+   * Returns the precedence of an operator on the operator stack.
+   *
+   * @param operator a binary operator or {@link CompiledExpression#NEGATE}
+   * @return the precedence; higher binds more tightly
+   */
+  private static int precedence(char operator) {
+    switch (operator) {
+      case '+':
+      case '-':
+        return ADDITIVE;
+      case '*':
+      case '/':
+        return MULTIPLICATIVE;
+      default:
+        return UNARY;
+    } // End switch block
+  } // End method precedence
+
+  /**
+   * Builds the exception thrown for an invalid expression.
+   *
+   * @return the exception
+   */
+  private static IllegalArgumentException invalid() {
+    return new IllegalArgumentException(ExpressionParser.INVALID_EXPRESSION);
+  } // End method invalid
+} // End class PrecedenceParser
@@ -1,13 +1,74 @@
 package edu.grinnell.csc207;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import edu.grinnell.csc207.main.CalculatorServer;
+import edu.grinnell.csc207.main.InteractiveCalculator;
+import edu.grinnell.csc207.main.QuickCalculator;
+import edu.grinnell.csc207.util.AsciiCharSequence;
 import edu.grinnell.csc207.util.BFCalculator;
 import edu.grinnell.csc207.util.BFRegisterSet;
 import edu.grinnell.csc207.util.BigFraction;
+import edu.grinnell.csc207.util.BigFractionArrays;
+import edu.grinnell.csc207.util.BigFractionReader;
+import edu.grinnell.csc207.util.BigFractionWriter;
+import edu.grinnell.csc207.util.CalculatorMetrics;
+import edu.grinnell.csc207.util.ConcurrentBFRegisterSet;
+import edu.grinnell.csc207.util.ExpressionCompiler;
+import edu.grinnell.csc207.util.ExpressionDag;
+import edu.grinnell.csc207.util.ExpressionParser;
+import edu.grinnell.csc207.util.LargeArithmetic;
+import edu.grinnell.csc207.util.LazyFraction;
+import edu.grinnell.csc207.util.LogHistogram;
+import edu.grinnell.csc207.util.OperationCache;
+import edu.grinnell.csc207.util.PersistentBFRegisterSet;
+import edu.grinnell.csc207.util.PrecedenceParser;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.io.StreamCorruptedException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Tests of the various classes for MP02.
@@ -139,6 +200,60 @@ public class TestMP02 {
         "E: Parse negative number 2");
   } // testBfParseNegative()
 
+  // +---------------------------------+-----------------------------
+  // | Long fast path - BigFraction    |
+  // +---------------------------------+
+
+  /** Do results that overflow a long promote to BigInteger correctly? */
+  @Test
+  public void testBfLongOverflow() {
+    BigFraction max = new BigFraction(Long.toString(Long.MAX_VALUE));
+    assertEquals("18446744073709551614", max.add(max).toString(), "Overflow: Addition");
+    assertEquals(
+        "85070591730234615847396907784232501249",
+        max.multiply(max).toString(),
+        "Overflow: Multiplication");
+    assertEquals(
+        "-9223372036854775808",
+        new BigFraction("-1").subtract(max).toString(),
+        "Overflow: Long.MIN_VALUE result");
+    assertEquals(
+        "1/9223372036854775807",
+        ONE_HALF.divide(max).multiply(new BigFraction(2, 1)).toString(),
+        "Overflow: Division");
+  } // testBfLongOverflow()
+
+  /** Do promoted values return to the long form when they shrink again? */
+  @Test
+  public void testBfLongDemote() {
+    BigFraction big = new BigFraction("123456789012345678901234567890/7");
+    assertEquals(
+        "1/7",
+        big.divide(new BigFraction("123456789012345678901234567890")).toString(),
+        "Demote: Division");
+    assertEquals("0", big.subtract(big).toString(), "Demote: Subtraction");
+    assertEquals(
+        new BigFraction(-6, 4).toString(),
+        new BigFraction(BigInteger.valueOf(6), BigInteger.valueOf(-4)).toString(),
+        "Demote: Sign normalization");
+  } // testBfLongDemote()
+
+  /** Do long chains of products and sums cancel down to the reduced result? */
+  @Test
+  public void testBfCrossCancel() {
+    BigFraction product = new BigFraction(1, 1);
+    for (int i = 1; i <= 200; i++) {
+      product = product.multiply(new BigFraction(i + 1, i));
+    } // for
+    assertEquals("201", product.toString(), "Cancel: Telescoping product");
+    BigFraction big = new BigFraction("340282366920938463463374607431768211456/3");
+    assertEquals("1", big.divide(big).toString(), "Cancel: Big quotient");
+    assertEquals(
+        "340282366920938463463374607431768211457/6",
+        big.divide(new BigFraction(2, 1)).add(ONE_SIXTH).toString(),
+        "Cancel: Big sum with shared denominator factor");
+  } // testBfCrossCancel()
+
   // +------------------------+--------------------------------------
   // | R tests - BFCalculator |
   // +------------------------+
@@ -388,4 +503,1584 @@ public class TestMP02 {
     assertEquals("1/2", registersC.get('i').toString(), "E: Independent updates 4ci");
     assertEquals("1/6", registersC.get('j').toString(), "E: Independent updates 4cj");
   } // testBfrsIndependentUpdate()
+
+  // +----------------------------+----------------------------------
+  // | Tests - ExpressionParser   |
+  // +----------------------------+
+
+  /** Do expressions evaluate left to right with numbers and registers? */
+  @Test
+  public void testParserEvaluate() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    registers.store('a', ONE_HALF);
+    assertEquals(
+        "5/6", ExpressionParser.evaluate("1/2 + 1/3", bfc, registers).toString(), "Parser 1");
+    assertEquals(
+        "1/2", ExpressionParser.evaluate("1 + 2 * a / 3", bfc, registers).toString(), "Parser 2");
+    assertEquals(
+        "-7/4", ExpressionParser.evaluate("a - 9/4 ", bfc, registers).toString(), "Parser 3");
+    assertEquals(
+        "100000000000000000000/3",
+        ExpressionParser.evaluate("-100000000000000000000/6 * -2", bfc, registers).toString(),
+        "Parser 4");
+  } // testParserEvaluate()
+
+  /** Are malformed expressions rejected? */
+  @Test
+  public void testParserInvalid() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    String[] inputs = {"", "1 +", "1 + ", "1  + 2", " 1", "1 2", "A + 1", "1 % 2", "1/2/3", "1 +-"};
+    for (String input : inputs) {
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> ExpressionParser.evaluate(input, bfc, registers),
+          "Parser invalid: [" + input + "]");
+    } // for
+  } // testParserInvalid()
+
+  /** Can we tell which failed expressions reset the calculator? */
+  @Test
+  public void testParserClears() {
+    assertTrue(ExpressionParser.clearsCalculator("1 + 2"), "Clears 1");
+    assertTrue(ExpressionParser.clearsCalculator("a + X"), "Clears 2");
+    assertTrue(ExpressionParser.clearsCalculator("1 / 0"), "Clears 3");
+    assertFalse(ExpressionParser.clearsCalculator("X + 1"), "Clears 4");
+    assertFalse(ExpressionParser.clearsCalculator("1 +"), "Clears 5");
+    assertFalse(ExpressionParser.clearsCalculator("1/0 + 1"), "Clears 6");
+    assertFalse(ExpressionParser.clearsCalculator(""), "Clears 7");
+  } // testParserClears()
+
+  /** Can we evaluate expressions straight from bytes? */
+  @Test
+  public void testParserBytes() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    String text = "1/2 + 1/3\n3 * 12345678901234567890";
+    ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    AsciiCharSequence line = new AsciiCharSequence();
+    assertEquals(
+        "5/6",
+        ExpressionParser.evaluate(line.reset(bytes, 0, 9), bfc, registers).toString(),
+        "Bytes 1");
+    assertEquals(
+        "37037036703703703670",
+        ExpressionParser.evaluate(line.reset(bytes, 10, 24), bfc, registers).toString(),
+        "Bytes 2");
+  } // testParserBytes()
+
+  // +------------------------------+--------------------------------
+  // | Tests - ExpressionCompiler   |
+  // +------------------------------+
+
+  /** Do cached plans see the current register values? */
+  @Test
+  public void testCompilerRegisters() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    ExpressionCompiler compiler = new ExpressionCompiler();
+    registers.store('a', ONE_HALF);
+    registers.store('b', ONE_THIRD);
+    assertEquals("1/2", compiler.evaluate("a * b + 1/3", bfc, registers).toString(), "Plan 1");
+    registers.store('b', TWO_THIRDS);
+    assertEquals("2/3", compiler.evaluate("a * b + 1/3", bfc, registers).toString(), "Plan 2");
+    assertEquals(1, compiler.misses(), "Plan misses");
+    assertEquals(1, compiler.hits(), "Plan hits");
+  } // testCompilerRegisters()
+
+  /** Does the cache stay within its bound and reject invalid expressions? */
+  @Test
+  public void testCompilerCache() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    ExpressionCompiler compiler = new ExpressionCompiler(2);
+    compiler.evaluate("1 + 1", bfc, registers);
+    compiler.evaluate("1 + 2", bfc, registers);
+    compiler.evaluate("1 + 1", bfc, registers);
+    compiler.evaluate("1 + 3", bfc, registers);
+    assertEquals(2, compiler.size(), "Cache bound");
+    assertEquals("2", compiler.evaluate("1 + 1", bfc, registers).toString(), "Cache LRU 1");
+    assertEquals(2, compiler.hits(), "Cache LRU 2");
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> compiler.evaluate("1 + X", bfc, registers),
+        "Cache invalid");
+    assertEquals("1", bfc.get().toString(), "Cache invalid leaves partial value");
+  } // testCompilerCache()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - ConcurrentBFRegisterSet   |
+  // +-----------------------------------+
+
+  /** Do store, get and compareAndSet behave like a register set? */
+  @Test
+  public void testCbfrsBasics() {
+    ConcurrentBFRegisterSet registers = new ConcurrentBFRegisterSet();
+    assertEquals("0", registers.get('q').toString(), "Concurrent basics 1");
+    registers.store('a', ONE_HALF);
+    assertTrue(registers.compareAndSet('a', ONE_HALF, ONE_THIRD), "Concurrent basics 2");
+    assertFalse(registers.compareAndSet('a', ONE_HALF, ONE_FIFTH), "Concurrent basics 3");
+    assertEquals("1/3", registers.get('a').toString(), "Concurrent basics 4");
+    assertEquals("1/3", registers.snapshot().get('a').toString(), "Concurrent basics 5");
+    assertThrows(IllegalArgumentException.class, () -> registers.get('A'), "Concurrent basics 6");
+  } // testCbfrsBasics()
+
+  /** Do concurrent accumulations lose no updates? */
+  @Test
+  public void testCbfrsAccumulate() throws InterruptedException {
+    ConcurrentBFRegisterSet registers = new ConcurrentBFRegisterSet();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 1000; i++) {
+                  registers.accumulate('s', BigFraction::add, ONE_HALF);
+                } // for
+              });
+      threads[t].start();
+    } // for
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    assertEquals("2000", registers.get('s').toString(), "Concurrent accumulate");
+  } // testCbfrsAccumulate()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - PersistentBFRegisterSet   |
+  // +-----------------------------------+
+
+  /** Do stored values survive reopening, including after compaction? */
+  @Test
+  public void testPbfrsRecover(@TempDir Path dir) throws IOException {
+    BigFraction big = new BigFraction(BigInteger.TEN.pow(40).negate(), BigInteger.valueOf(7));
+    try (PersistentBFRegisterSet registers = new PersistentBFRegisterSet(dir)) {
+      registers.store('a', ONE_HALF);
+      registers.store('b', big);
+      registers.compact();
+      registers.store('a', ONE_THIRD);
+    } // try
+    try (PersistentBFRegisterSet registers = new PersistentBFRegisterSet(dir)) {
+      assertEquals("1/3", registers.get('a').toString(), "Persistent recover 1");
+      assertEquals(big.toString(), registers.get('b').toString(), "Persistent recover 2");
+      assertEquals("0", registers.get('z').toString(), "Persistent recover 3");
+    } // try
+  } // testPbfrsRecover()
+
+  /** Is a torn record at the end of the log discarded? */
+  @Test
+  public void testPbfrsTornLog(@TempDir Path dir) throws IOException {
+    try (PersistentBFRegisterSet registers = new PersistentBFRegisterSet(dir)) {
+      registers.store('c', TWO_THIRDS);
+      registers.store('c', ONE_FIFTH);
+    } // try
+    Path log = dir.resolve("registers.wal");
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    } // try
+    try (PersistentBFRegisterSet registers = new PersistentBFRegisterSet(dir)) {
+      assertEquals("2/3", registers.get('c').toString(), "Persistent torn 1");
+      registers.store('d', ONE_HALF);
+    } // try
+    try (PersistentBFRegisterSet registers = new PersistentBFRegisterSet(dir)) {
+      assertEquals("2/3", registers.get('c').toString(), "Persistent torn 2");
+      assertEquals("1/2", registers.get('d').toString(), "Persistent torn 3");
+    } // try
+  } // testPbfrsTornLog()
+
+  /** A log channel that fails its writes or fsyncs while told to, writing half first. */
+  private static class FailingChannel extends FileChannel {
+
+    /** The real channel. */
+    private final FileChannel channel;
+
+    /** Whether positional writes write half their bytes and then fail. */
+    volatile boolean failWrites;
+
+    /** Whether fsyncs fail. */
+    volatile boolean failForces;
+
+    /**
+     * Wraps a channel.
+     *
+     * @param channel the real channel
+     */
+    FailingChannel(FileChannel channel) {
+      this.channel = channel;
+    } // FailingChannel(FileChannel)
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+      if (failWrites) {
+        ByteBuffer half = src.duplicate();
+        half.limit(half.position() + half.remaining() / 2);
+        channel.write(half, position);
+        throw new IOException("injected write failure");
+      } // if
+      return channel.write(src, position);
+    } // write(ByteBuffer, long)
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+      if (failForces) {
+        throw new IOException("injected fsync failure");
+      } // if
+      channel.force(metaData);
+    } // force(boolean)
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      return channel.read(dst);
+    } // read(ByteBuffer)
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+      return channel.read(dsts, offset, length);
+    } // read(ByteBuffer[], int, int)
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return channel.write(src);
+    } // write(ByteBuffer)
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      return channel.write(srcs, offset, length);
+    } // write(ByteBuffer[], int, int)
+
+    @Override
+    public long position() throws IOException {
+      return channel.position();
+    } // position()
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+      channel.position(newPosition);
+      return this;
+    } // position(long)
+
+    @Override
+    public long size() throws IOException {
+      return channel.size();
+    } // size()
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+      channel.truncate(size);
+      return this;
+    } // truncate(long)
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target)
+        throws IOException {
+      return channel.transferTo(position, count, target);
+    } // transferTo(long, long, WritableByteChannel)
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+        throws IOException {
+      return channel.transferFrom(src, position, count);
+    } // transferFrom(ReadableByteChannel, long, long)
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      return channel.read(dst, position);
+    } // read(ByteBuffer, long)
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+      return channel.map(mode, position, size);
+    } // map(MapMode, long, long)
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+      return channel.lock(position, size, shared);
+    } // lock(long, long, boolean)
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+      return channel.tryLock(position, size, shared);
+    } // tryLock(long, long, boolean)
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+      channel.close();
+    } // implCloseChannel()
+  } // class FailingChannel
+
+  /** Do failed writes and fsyncs keep their records pending, without tearing the log? */
+  @Test
+  public void testPbfrsFailures(@TempDir Path dir) throws IOException {
+    FailingChannel[] log = new FailingChannel[1];
+    BigFraction big =
+        new BigFraction(BigInteger.TWO.pow(1 << 20).add(BigInteger.ONE), BigInteger.valueOf(3));
+    try (PersistentBFRegisterSet registers =
+        new PersistentBFRegisterSet(dir) {
+          @Override
+          protected FileChannel openLog(Path file) throws IOException {
+            log[0] = new FailingChannel(super.openLog(file));
+            return log[0];
+          } // openLog(Path)
+        }) {
+      registers.store('a', ONE_HALF);
+      registers.sync();
+      log[0].failWrites = true;
+      registers.store('b', big);
+      assertThrows(IOException.class, registers::sync, "Failed write");
+      registers.store('c', TWO_THIRDS); // Appended while b is still pending
+      log[0].failWrites = false;
+      log[0].failForces = true;
+      assertThrows(IOException.class, registers::sync, "Failed fsync");
+      log[0].failForces = false;
+      registers.sync();
+      log[0].failWrites = true;
+      for (int i = 1; i < PersistentBFRegisterSet.GROUP_SIZE; i++) {
+        registers.store('d', BigFraction.valueOf(i, 1));
+      } // for
+      BigFraction failed = BigFraction.valueOf(-1, 1);
+      assertThrows(
+          UncheckedIOException.class, () -> registers.store('d', failed), "Failed group commit");
+      int last = PersistentBFRegisterSet.GROUP_SIZE - 1;
+      assertEquals(String.valueOf(last), registers.get('d').toString(), "Failed store unchanged");
+      log[0].failWrites = false;
+    } // try
+    try (PersistentBFRegisterSet registers = new PersistentBFRegisterSet(dir)) {
+      assertEquals("1/2", registers.get('a').toString(), "Recovered before failures");
+      assertEquals(big, registers.get('b'), "Recovered after a failed write");
+      assertEquals("2/3", registers.get('c').toString(), "Recovered after a failed fsync");
+      assertEquals(
+          String.valueOf(PersistentBFRegisterSet.GROUP_SIZE - 1),
+          registers.get('d').toString(),
+          "Recovered without the failed store");
+    } // try
+  } // testPbfrsFailures()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Accumulator mode          |
+  // +-----------------------------------+
+
+  /** Does accumulator mode give the same results as the plain calculator? */
+  @Test
+  public void testAccumulatorMatches() {
+    BFCalculator plain = new BFCalculator();
+    BFCalculator acc = new BFCalculator(8);
+    BigFraction big = new BigFraction(Long.MAX_VALUE + "/" + Long.MIN_VALUE);
+    BigFraction[] values = {ONE_HALF, ONE_THIRD, big, TWO_THIRDS, ONE_FIFTH, big, big, ONE_HALF};
+    for (int i = 0; i < 200; i++) {
+      BigFraction value = values[i % values.length];
+      switch (i % 5) {
+        case 0:
+          plain.subtract(value);
+          acc.subtract(value);
+          break;
+        case 1:
+          plain.multiply(value);
+          acc.multiply(value);
+          break;
+        case 2:
+          plain.divide(value);
+          acc.divide(value);
+          break;
+        default:
+          plain.add(value);
+          acc.add(value);
+      } // switch
+      if (i % 37 == 0) {
+        assertEquals(plain.get().toString(), acc.get().toString(), "Accumulator step " + i);
+      } // if
+    } // for
+    assertEquals(plain.get().toString(), acc.get().toString(), "Accumulator final");
+  } // testAccumulatorMatches()
+
+  /** Does accumulator mode sum many terms and keep dividing by zero an error? */
+  @Test
+  public void testAccumulatorSum() {
+    BFCalculator acc = new BFCalculator(BFCalculator.DEFAULT_REDUCE_BITS);
+    for (int i = 0; i < 100000; i++) {
+      acc.add(new BigFraction(i % 7, 4));
+    } // for
+    assertEquals("299995/4", acc.get().toString(), "Accumulator sum");
+    acc.add(ONE_HALF);
+    assertThrows(
+        ArithmeticException.class, () -> acc.divide(new BigFraction(0, 1)), "Accumulator / 0");
+    assertEquals("299997/4", acc.get().toString(), "Accumulator after / 0");
+    acc.clear();
+    assertEquals("0", acc.get().toString(), "Accumulator clear");
+  } // testAccumulatorSum()
+
+  /** Does accumulator mode reduce large values through LargeArithmetic? */
+  @Test
+  public void testAccumulatorLarge() {
+    BigInteger three = BigInteger.valueOf(3);
+    BigFraction x = new BigFraction(three.pow(3000), BigInteger.TEN.pow(1500).add(BigInteger.ONE));
+    BigFraction y = new BigFraction(BigInteger.TWO.pow(5000).subtract(three), three.pow(2000));
+    BFCalculator plain = new BFCalculator();
+    plain.add(x);
+    plain.multiply(y);
+    plain.subtract(y);
+    plain.divide(x);
+    String expected = plain.get().toString();
+    long gcds = CalculatorMetrics.get().getGcdCount();
+    LargeArithmetic.setGcdThreshold(1 << 10);
+    LargeArithmetic.setMultiplyThreshold(1 << 10);
+    try {
+      BFCalculator acc = new BFCalculator(64);
+      acc.add(x);
+      acc.multiply(y);
+      acc.subtract(y);
+      acc.divide(x);
+      assertEquals(expected, acc.get().toString(), "Accumulator large");
+      assertTrue(CalculatorMetrics.get().getGcdCount() > gcds, "Accumulator gcd metrics");
+    } finally {
+      LargeArithmetic.setGcdThreshold(LargeArithmetic.DEFAULT_GCD_THRESHOLD);
+      LargeArithmetic.setMultiplyThreshold(LargeArithmetic.DEFAULT_MULTIPLY_THRESHOLD);
+    } // try/finally
+  } // testAccumulatorLarge()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Metrics                   |
+  // +-----------------------------------+
+
+  /** Does the histogram place values within its precision? */
+  @Test
+  public void testLogHistogram() {
+    LogHistogram histogram = new LogHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    } // for
+    assertEquals(1000, histogram.count(), "Histogram count");
+    assertEquals(500.5, histogram.mean(), 1e-9, "Histogram mean");
+    assertTrue(Math.abs(histogram.percentile(50) - 500) <= 500 / 16, "Histogram median");
+    assertTrue(Math.abs(histogram.percentile(99) - 990) <= 990 / 16, "Histogram p99");
+    assertTrue(histogram.max() <= 1000 && histogram.max() > 1000 - 1000 / 16, "Histogram max");
+    histogram.record(Long.MAX_VALUE);
+    assertTrue(histogram.max() > Long.MAX_VALUE / 2, "Histogram huge");
+    histogram.reset();
+    assertEquals(0, histogram.percentile(99), "Histogram reset");
+  } // testLogHistogram()
+
+  /** Is the metrics report available even when metrics are off? */
+  @Test
+  public void testMetricsReport() {
+    String report = CalculatorMetrics.get().getReport();
+    assertTrue(report.contains("divide") && report.contains("parse-fail"), "Metrics report");
+  } // testMetricsReport()
+
+  /** Do sums and products count their GCDs? (The build runs the tests with metrics on.) */
+  @Test
+  public void testMetricsGcdCount() {
+    assumeTrue(CalculatorMetrics.ENABLED, "Metrics are off");
+    CalculatorMetrics metrics = CalculatorMetrics.get();
+    BigFraction sixth = BigFraction.valueOf(1, 6);
+    BigFraction tenth = BigFraction.valueOf(1, 10);
+    long before = metrics.getGcdCount();
+    sixth.add(tenth);
+    long afterAdd = metrics.getGcdCount();
+    assertTrue(afterAdd > before, "GCD count after add");
+    sixth.multiply(tenth);
+    assertTrue(metrics.getGcdCount() > afterAdd, "GCD count after multiply");
+    BigInteger big = BigInteger.ONE.shiftLeft(100);
+    BigFraction large = new BigFraction(BigInteger.ONE, big.add(BigInteger.ONE));
+    long beforeLarge = metrics.getGcdCount();
+    large.add(large);
+    assertTrue(metrics.getGcdCount() > beforeLarge, "GCD count after a large add");
+  } // testMetricsGcdCount()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Precedence                |
+  // +-----------------------------------+
+
+  /** Do precedence, parentheses and unary minus group as usual? */
+  @Test
+  public void testPrecedenceEvaluate() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    registers.store('a', new BigFraction(3, 1));
+    assertEquals("7", PrecedenceParser.evaluate("1 + 2 * 3", bfc, registers).toString(), "P 1");
+    assertEquals("9", PrecedenceParser.evaluate("(1 + 2) * 3", bfc, registers).toString(), "P 2");
+    assertEquals("-4", PrecedenceParser.evaluate("-(a + 1)", bfc, registers).toString(), "P 3");
+    assertEquals("6", PrecedenceParser.evaluate("a / 1/2", bfc, registers).toString(), "P 4");
+    assertEquals("3/2", PrecedenceParser.evaluate("a / 1 / 2", bfc, registers).toString(), "P 5");
+    assertEquals("-1", PrecedenceParser.evaluate("2 * -1/2", bfc, registers).toString(), "P 6");
+    assertEquals("-1", bfc.get().toString(), "P leaves result");
+    assertEquals(
+        "3",
+        new ExpressionCompiler(4, true).evaluate("((a)) - -a + -a", bfc, registers).toString(),
+        "P compiled");
+  } // testPrecedenceEvaluate()
+
+  /** Are malformed expressions rejected without touching the calculator? */
+  @Test
+  public void testPrecedenceInvalid() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    bfc.add(ONE_HALF);
+    String[] invalid = {"", "(", "()", "(1 + 2", "1 + 2)", "1 +", "* 2", "a b", "a (b)", "1+2"};
+    for (String expression : invalid) {
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> PrecedenceParser.evaluate(expression, bfc, registers),
+          "Invalid [" + expression + "]");
+      assertFalse(PrecedenceParser.clearsCalculator(expression), "Clears [" + expression + "]");
+    } // for
+    assertEquals("1/2", bfc.get().toString(), "Invalid leaves calculator");
+    assertThrows(
+        ArithmeticException.class,
+        () -> PrecedenceParser.evaluate("1 / (a - a)", bfc, registers),
+        "Divide by zero");
+    assertEquals("0", bfc.get().toString(), "Divide by zero clears");
+  } // testPrecedenceInvalid()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - BigFractionArrays         |
+  // +-----------------------------------+
+
+  /** Do the bulk operations agree with adding and multiplying one value at a time? */
+  @Test
+  public void testArraysMatch() {
+    for (int n : new int[] {0, 1, 100, BigFractionArrays.PARALLEL_THRESHOLD + 7}) {
+      BigFraction[] a = new BigFraction[n];
+      BigFraction[] b = new BigFraction[n];
+      long[] aNum = new long[n];
+      long[] aDen = new long[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = new BigFraction(i % 17 - 8, i % 23 + 1);
+        b[i] = new BigFraction(i % 5 + 1, i % 7 + 2);
+        aNum[i] = a[i].numerator().longValue();
+        aDen[i] = a[i].denominator().longValue();
+      } // for
+      BigFraction sum = new BigFraction(0, 1);
+      BigFraction dot = new BigFraction(0, 1);
+      for (int i = 0; i < n; i++) {
+        sum = sum.add(a[i]);
+        dot = dot.add(a[i].multiply(b[i]));
+      } // for
+      assertEquals(sum.toString(), BigFractionArrays.sum(a).toString(), "sum " + n);
+      assertEquals(sum.toString(), BigFractionArrays.sum(aNum, aDen).toString(), "long sum " + n);
+      assertEquals(dot.toString(), BigFractionArrays.dot(a, b).toString(), "dot " + n);
+      BigFraction[] prefix = BigFractionArrays.prefixSum(aNum, aDen);
+      BigFraction[] scaled = BigFractionArrays.scale(a, TWO_THIRDS);
+      BigFraction[] added = BigFractionArrays.addElementwise(a, b);
+      long[] outNum = new long[n];
+      long[] outDen = new long[n];
+      BigFractionArrays.scale(aNum, aDen, TWO_THIRDS, outNum, outDen);
+      BigFraction running = new BigFraction(0, 1);
+      for (int i = 0; i < n; i++) {
+        running = running.add(a[i]);
+        assertEquals(running.toString(), prefix[i].toString(), "prefix " + i);
+        assertEquals(a[i].multiply(TWO_THIRDS).toString(), scaled[i].toString(), "scale " + i);
+        String longScaled = new BigFraction(outNum[i] + "/" + outDen[i]).toString();
+        assertEquals(scaled[i].toString(), longScaled, "long scale " + i);
+        assertEquals(a[i].add(b[i]).toString(), added[i].toString(), "add " + i);
+      } // for
+    } // for
+  } // testArraysMatch()
+
+  /** Do long columns fall back or fail cleanly when values outgrow longs? */
+  @Test
+  public void testArraysOverflow() {
+    long big = Long.MAX_VALUE / 2;
+    long[] num = {1, 1, 1};
+    long[] den = {big, big - 2, big - 4};
+    BigFraction expected = new BigFraction(0, 1);
+    for (long d : den) {
+      expected = expected.add(new BigFraction(BigInteger.ONE, BigInteger.valueOf(d)));
+    } // for
+    assertEquals(expected.toString(), BigFractionArrays.sum(num, den).toString(), "sum");
+    long[] outNum = new long[3];
+    long[] outDen = new long[3];
+    assertThrows(
+        ArithmeticException.class,
+        () -> BigFractionArrays.addElementwise(num, den, num, new long[] {3, 5, 7}, outNum, outDen),
+        "add overflow");
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> BigFractionArrays.dot(new BigFraction[1], new BigFraction[2]),
+        "length mismatch");
+  } // testArraysOverflow()
+
+  /** Does a large prefix sum fork its blocks across the pool and match a sequential scan? */
+  @Test
+  public void testArraysParallelPrefix() throws Exception {
+    int n = 2 * BigFractionArrays.PARALLEL_THRESHOLD;
+    BigFraction[] values = new BigFraction[n];
+    BigFraction[] expected = new BigFraction[n];
+    BigFraction running = new BigFraction(0, 1);
+    for (int i = 0; i < n; i++) {
+      values[i] = new BigFraction(i % 17 - 8, i % 23 + 1);
+      running = running.add(values[i]);
+      expected[i] = running;
+    } // for
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      long steals = 0;
+      for (int attempt = 0; attempt < 10 && steals <= 1; attempt++) {
+        long before = pool.getStealCount();
+        BigFraction[] prefix = pool.submit(() -> BigFractionArrays.prefixSum(values)).get();
+        steals = pool.getStealCount() - before; // One for the submission itself
+        for (int i = 0; i < n; i++) {
+          assertEquals(expected[i], prefix[i], "prefix " + i);
+        } // for
+      } // for
+      assertTrue(steals > 1, "blocks ran on other workers");
+    } finally {
+      pool.shutdown();
+    } // try/finally
+  } // testArraysParallelPrefix()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Grouped sums              |
+  // +-----------------------------------+
+
+  /** Does summing by denominator agree with repeated addition? */
+  @Test
+  public void testGroupedSum() {
+    List<BigFraction> terms = new ArrayList<>();
+    BigFraction expected = new BigFraction(0, 1);
+    BigInteger huge = BigInteger.ONE.shiftLeft(100);
+    for (int i = 0; i < 1000; i++) {
+      BigFraction term;
+      if (i % 4 == 0) {
+        term = new BigFraction(i - 500, 100);
+      } else if (i % 4 == 1) {
+        term = new BigFraction(huge.add(BigInteger.valueOf(i)), BigInteger.valueOf(3));
+      } else if (i % 4 == 2) {
+        term = new BigFraction(BigInteger.valueOf(i), huge.subtract(BigInteger.ONE));
+      } else {
+        term = new BigFraction(Long.toString(Long.MAX_VALUE - i) + "/2");
+      } // if
+      terms.add(term);
+      expected = expected.add(term);
+    } // for
+    assertEquals(expected.toString(), BigFraction.sum(terms).toString(), "sum");
+    assertEquals(
+        expected.toString(),
+        terms.parallelStream().collect(BigFraction.summing()).toString(),
+        "parallel collector");
+    assertEquals("0", BigFraction.sum(new ArrayList<>()).toString(), "empty");
+    assertEquals(
+        "0", BigFraction.sum(List.of(ONE_HALF, ONE_HALF.negate())).toString(), "cancels");
+  } // testGroupedSum()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Cached small values       |
+  // +-----------------------------------+
+
+  /** Do the factories share canonical instances for small values? */
+  @Test
+  public void testValueOfCache() {
+    assertTrue(BigFraction.valueOf(2, 4) == BigFraction.valueOf(-1, -2), "1/2 shared");
+    assertTrue(BigFraction.valueOf("3/6") == BigFraction.valueOf(1, 2), "parsed 1/2 shared");
+    assertTrue(BigFraction.valueOf(0, 7) == BigFraction.valueOf(" 0 "), "0 shared");
+    assertTrue(new BFCalculator().get() == BigFraction.valueOf(0, 1), "calculator zero");
+    assertEquals("-1025/64", BigFraction.valueOf(1025, -64).toString(), "outside table");
+    assertEquals("1/3", BigFraction.valueOf("2048/6144").toString(), "reduced outside table");
+    assertEquals(
+        "3/123456789012345678901",
+        BigFraction.valueOf("6/246913578024691357802").toString(),
+        "BigInteger parts");
+    assertThrows(ArithmeticException.class, () -> BigFraction.valueOf(1, 0), "zero denominator");
+    assertThrows(NumberFormatException.class, () -> BigFraction.valueOf("1/x"), "malformed");
+    for (String text : new String[] {"1/2/3", " 4 / 6 /x", "5/10/"}) {
+      assertEquals(new BigFraction(text), BigFraction.valueOf(text), "constructor parse " + text);
+    } // for
+  } // testValueOfCache()
+
+  /** Do adding zero and multiplying by zero or one return an operand unchanged? */
+  @Test
+  public void testIdentityFastPaths() {
+    BigFraction big = new BigFraction("123456789012345678901234567890/7");
+    BigFraction zero = BigFraction.valueOf(0, 1);
+    BigFraction one = BigFraction.valueOf(1, 1);
+    assertTrue(big.add(zero) == big, "x + 0");
+    assertTrue(zero.add(big) == big, "0 + x");
+    assertTrue(big.multiply(one) == big, "x * 1");
+    assertTrue(one.multiply(big) == big, "1 * x");
+    assertTrue(big.multiply(zero) == zero, "x * 0");
+    assertEquals("2/3", ONE_THIRD.add(ONE_THIRD).multiply(one).toString(), "small x * 1");
+  } // testIdentityFastPaths()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Equality and ordering     |
+  // +-----------------------------------+
+
+  /** Are equal values equal, with equal hash codes, whatever way they were built? */
+  @Test
+  public void testEqualsHashCode() {
+    BigFraction big = new BigFraction("123456789012345678901234567890/7");
+    BigFraction sameBig = new BigFraction("246913578024691357802469135780/14");
+    assertEquals(ONE_HALF, new BigFraction("2/4"), "small");
+    assertEquals(ONE_HALF.hashCode(), BigFraction.valueOf(3, 6).hashCode(), "small hash");
+    assertEquals(big, sameBig, "big");
+    assertEquals(big.hashCode(), sameBig.hashCode(), "big hash");
+    assertEquals(big.hashCode(), big.hashCode(), "cached hash");
+    assertFalse(big.equals(ONE_HALF), "big and small");
+    assertFalse(ONE_HALF.equals(ONE_THIRD), "different small");
+    assertFalse(ONE_HALF.equals("1/2"), "other type");
+    Set<BigFraction> set = new HashSet<>(List.of(ONE_HALF, big, ONE_THIRD.add(ONE_SIXTH), sameBig));
+    assertEquals(2, set.size(), "set");
+  } // testEqualsHashCode()
+
+  /** Does compareTo order values correctly across sizes and signs? */
+  @Test
+  public void testCompareTo() {
+    BigFraction max = new BigFraction(Long.toString(Long.MAX_VALUE));
+    BigFraction[] sorted = {
+      max.multiply(max).negate(),
+      max.negate(),
+      new BigFraction("-1/3"),
+      new BigFraction(0, 1),
+      ONE_FIFTH,
+      ONE_THIRD,
+      new BigFraction(Long.MAX_VALUE - 1 + "/" + Long.MAX_VALUE),
+      new BigFraction(Long.MAX_VALUE + "/" + (Long.MAX_VALUE - 1)),
+      max,
+      new BigFraction(max.multiply(max) + "1/" + max),
+      max.multiply(max),
+    };
+    for (int i = 0; i < sorted.length; i++) {
+      for (int j = 0; j < sorted.length; j++) {
+        assertEquals(
+            Integer.compare(i, j),
+            Integer.signum(sorted[i].compareTo(sorted[j])),
+            "compare " + i + " and " + j);
+      } // for
+    } // for
+    assertEquals(0, ONE_HALF.compareTo(new BigFraction("3/6")), "equal values");
+    TreeSet<BigFraction> tree = new TreeSet<>(List.of(ONE_HALF, ONE_THIRD, TWO_THIRDS));
+    assertEquals(ONE_THIRD, tree.first(), "sorted set");
+  } // testCompareTo()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - OperationCache            |
+  // +-----------------------------------+
+
+  /** Are repeated operations on large values answered from the cache? */
+  @Test
+  public void testOperationCache() {
+    OperationCache cache = new OperationCache(256, 1 << 20);
+    BigInteger power = BigInteger.ONE.shiftLeft(300);
+    BigFraction big = new BigFraction(power.add(BigInteger.ONE), BigInteger.TEN);
+    BFCalculator cached = new BFCalculator(cache);
+    BFCalculator plain = new BFCalculator();
+    for (int round = 0; round < 3; round++) {
+      cached.clear();
+      plain.clear();
+      cached.add(big);
+      plain.add(big);
+      cached.multiply(big);
+      plain.multiply(big);
+      cached.divide(ONE_THIRD);
+      plain.divide(ONE_THIRD);
+      assertEquals(plain.get(), cached.get(), "round " + round);
+    } // for
+    assertEquals(3, cache.misses(), "misses");
+    assertEquals(6, cache.hits(), "hits");
+    assertEquals(3, cache.size(), "size");
+    cached.clear();
+    cached.add(ONE_HALF);
+    cached.multiply(ONE_HALF);
+    assertEquals(9, cache.hits() + cache.misses(), "small values bypass");
+    assertThrows(
+        ArithmeticException.class, () -> cache.apply('/', big, new BigFraction(0, 1)), "x / 0");
+  } // testOperationCache()
+
+  /** Does the cache stay within its budget of bits? */
+  @Test
+  public void testOperationCacheEviction() {
+    OperationCache cache = new OperationCache(0, 4000);
+    BigFraction big = new BigFraction(BigInteger.ONE.shiftLeft(300), BigInteger.valueOf(3));
+    for (int i = 0; i < 20; i++) {
+      cache.apply('+', big, BigFraction.valueOf(i, 1));
+      assertTrue(cache.bits() <= 4000, "budget " + i);
+    } // for
+    assertTrue(cache.size() < 20, "evicted");
+    cache.apply('+', big, BigFraction.valueOf(19, 1));
+    assertEquals(1, cache.hits(), "recent entry kept");
+    cache.clear();
+    assertEquals(0, cache.size() + cache.hits() + cache.bits(), "cleared");
+  } // testOperationCacheEviction()
+
+  /** Do precedence plans and DAG nodes use the calculator's cache and metrics? */
+  @Test
+  public void testOperationCachePlans() {
+    OperationCache cache = new OperationCache(256, 1 << 20);
+    BFCalculator cached = new BFCalculator(cache);
+    BFRegisterSet registers = new BFRegisterSet();
+    registers.store('a', new BigFraction(BigInteger.ONE.shiftLeft(300), BigInteger.valueOf(7)));
+    ExpressionCompiler compiler = new ExpressionCompiler(16, true);
+    BigFraction first = compiler.evaluate("1 + a * a", cached, registers);
+    long misses = cache.misses();
+    assertTrue(misses > 0, "precedence plan misses");
+    assertEquals(first, compiler.evaluate("1 + a * a", cached, registers), "precedence plan");
+    assertEquals(misses, cache.misses(), "precedence plan hits");
+    ExpressionDag dag = new ExpressionDag(cached, registers, compiler);
+    assertEquals(first, dag.evaluate("1 + a * a"), "DAG node");
+    assertEquals(misses, cache.misses(), "DAG node hits");
+
+    long multiplies = CalculatorMetrics.get().getMultiplyCount();
+    compiler.evaluate("2 * 3 + 1", new BFCalculator(), registers);
+    if (CalculatorMetrics.ENABLED) {
+      assertTrue(CalculatorMetrics.get().getMultiplyCount() > multiplies, "plan metrics");
+    } // if
+  } // testOperationCachePlans()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Output                    |
+  // +-----------------------------------+
+
+  /** Do appendTo and the cached toString agree with BigInteger's own conversion? */
+  @Test
+  public void testAppendTo() throws IOException {
+    BigInteger numerator = BigInteger.valueOf(7).pow(5000).negate();
+    BigInteger denominator = BigInteger.TEN.pow(3000).add(BigInteger.ONE);
+    BigFraction big = new BigFraction(numerator, denominator);
+    String expected = numerator + "/" + denominator;
+    StringBuilder builder = new StringBuilder("x=");
+    big.appendTo(builder);
+    assertEquals("x=" + expected, builder.toString(), "builder");
+    assertEquals(expected, big.toString(), "toString");
+    assertTrue(big.toString() == big.toString(), "cached");
+    StringWriter writer = new StringWriter();
+    big.appendTo(writer);
+    ONE_HALF.appendTo(writer);
+    new BigFraction(-42, 1).appendTo(writer);
+    assertEquals(expected + "1/2-42", writer.toString(), "writer");
+    BigFraction whole = new BigFraction(BigInteger.TEN.pow(2000), BigInteger.ONE);
+    builder.setLength(0);
+    whole.appendTo(builder);
+    assertEquals(BigInteger.TEN.pow(2000).toString(), builder.toString(), "whole");
+  } // testAppendTo()
+
+  /** Does toDecimal round to the requested number of digits? */
+  @Test
+  public void testToDecimal() {
+    assertEquals("0.333", ONE_THIRD.toDecimal(3), "1/3");
+    assertEquals("0.667", TWO_THIRDS.toDecimal(3), "2/3");
+    assertEquals("-0.50", new BigFraction(-1, 2).toDecimal(2), "-1/2");
+    assertEquals("-1", new BigFraction(-1, 2).toDecimal(0), "ties away from zero");
+    assertEquals("0.0", new BigFraction(-1, 100).toDecimal(1), "no negative zero");
+    assertEquals("0.00001", new BigFraction(1, 100000).toDecimal(5), "leading zeros");
+    assertEquals("42", new BigFraction(42, 1).toDecimal(0), "whole");
+    assertEquals(
+        "3.14159265358979323846",
+        new BigFraction("314159265358979323846264338327950288/100000000000000000000000000000000000")
+            .toDecimal(20),
+        "pi");
+    assertThrows(IllegalArgumentException.class, () -> ONE_HALF.toDecimal(-1), "negative digits");
+  } // testToDecimal()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Binary format             |
+  // +-----------------------------------+
+
+  /**
+   * Builds fractions that exercise every encoding: small, negative, whole, at the edge of a long,
+   * and far beyond it.
+   *
+   * @return the fractions
+   */
+  private static BigFraction[] binarySamples() {
+    BigInteger huge = BigInteger.valueOf(3).pow(400000); // Larger than a stream buffer
+    return new BigFraction[] {
+      new BigFraction(0, 1),
+      ONE_HALF,
+      new BigFraction(-7, 3),
+      new BigFraction(42, 1),
+      BigFraction.valueOf(Long.MAX_VALUE, 1),
+      BigFraction.valueOf(-Long.MAX_VALUE, Long.MAX_VALUE - 1),
+      new BigFraction(BigInteger.valueOf(Long.MIN_VALUE), BigInteger.ONE),
+      new BigFraction(BigInteger.ONE.shiftLeft(64), BigInteger.valueOf(3)),
+      new BigFraction(huge.negate(), huge.add(BigInteger.ONE)),
+      new BigFraction(BigInteger.ONE, huge)
+    };
+  } // binarySamples()
+
+  /** Do single fractions survive a round trip through a buffer and a data stream? */
+  @Test
+  public void testBinaryRoundTrip() throws IOException {
+    BigFraction[] samples = binarySamples();
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (BigFraction value : samples) {
+      value.writeTo(buffer);
+      value.writeTo(out);
+    } // for
+    buffer.flip();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    for (BigFraction value : samples) {
+      assertEquals(value, BigFraction.readFrom(buffer), "buffer " + value.signum());
+      assertEquals(value, BigFraction.readFrom(in), "stream " + value.signum());
+    } // for
+    assertFalse(buffer.hasRemaining(), "buffer consumed");
+    assertEquals(buffer.limit(), bytes.size(), "same encoding");
+    buffer.clear();
+    ONE_HALF.writeTo(buffer);
+    assertEquals(3, buffer.position(), "small values are compact");
+  } // testBinaryRoundTrip()
+
+  /** Do the bulk reader and writer handle many fractions, including ones larger than a buffer? */
+  @Test
+  public void testBinaryStreams() throws IOException {
+    List<BigFraction> expected = new ArrayList<>();
+    for (int i = 1; i <= 50000; i++) {
+      expected.add(BigFraction.valueOf(i - 25000, i));
+    } // for
+    for (BigFraction value : binarySamples()) {
+      expected.add(value);
+    } // for
+    expected.add(ONE_THIRD);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BigFractionWriter writer = new BigFractionWriter(bytes)) {
+      writer.write(expected.subList(0, 50000).toArray(new BigFraction[0]));
+      for (BigFraction value : expected.subList(50000, expected.size())) {
+        writer.write(value);
+      } // for
+    } // try
+    try (BigFractionReader reader =
+        new BigFractionReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(expected, reader.readAll(), "round trip");
+      assertEquals(null, reader.read(), "end of stream");
+    } // try
+  } // testBinaryStreams()
+
+  /** Are truncated and malformed encodings rejected? */
+  @Test
+  public void testBinaryMalformed() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+    new BigFraction(BigInteger.ONE.shiftLeft(200), BigInteger.valueOf(3)).writeTo(buffer);
+    byte[] bytes = new byte[buffer.position() - 1];
+    buffer.flip().get(bytes);
+    assertThrows(
+        BufferUnderflowException.class,
+        () -> BigFraction.readFrom(ByteBuffer.wrap(bytes)),
+        "truncated buffer");
+    assertThrows(
+        EOFException.class,
+        () -> BigFraction.readFrom(new DataInputStream(new ByteArrayInputStream(bytes))),
+        "truncated stream");
+    assertThrows(
+        EOFException.class,
+        () -> new BigFractionReader(new ByteArrayInputStream(bytes)).read(),
+        "truncated reader");
+    byte[] badTag = {7, 2, 1};
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> BigFraction.readFrom(ByteBuffer.wrap(badTag)),
+        "bad tag");
+    byte[] zeroDenominator = {0, 2, 0};
+    assertThrows(
+        StreamCorruptedException.class,
+        () -> new BigFractionReader(new ByteArrayInputStream(zeroDenominator)).read(),
+        "zero denominator");
+  } // testBinaryMalformed()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Server                    |
+  // +-----------------------------------+
+
+  /**
+   * Runs a server on a new thread.
+   *
+   * @param server the server
+   * @return the thread, which ends once the server is stopped
+   */
+  private static Thread startServer(CalculatorServer server) {
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                server.run();
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              } // try/catch
+            });
+    thread.start();
+    return thread;
+  } // startServer(CalculatorServer)
+
+  /** Do many concurrent sessions over loopback each get their own calculator and registers? */
+  @Test
+  public void testServerSessions() throws Exception {
+    CalculatorServer server =
+        new CalculatorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2, false);
+    Thread serverThread = startServer(server);
+    try {
+      List<Socket> sockets = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        sockets.add(socket);
+        String commands = i + "/7\nSTORE a\na + 1\nSTORE 1\n";
+        socket.getOutputStream().write(commands.getBytes(StandardCharsets.UTF_8));
+      } // for
+      for (int i = 0; i < sockets.size(); i++) {
+        Socket socket = sockets.get(i);
+        BufferedReader in =
+            new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals(BigFraction.valueOf(i, 7).toString(), in.readLine(), "value " + i);
+        assertEquals("STORED", in.readLine(), "store " + i);
+        assertEquals(BigFraction.valueOf(i + 7, 7).toString(), in.readLine(), "register " + i);
+        assertEquals(
+            "*** ERROR [STORE command received invalid register] ***",
+            in.readLine(),
+            "invalid register " + i);
+        socket.getOutputStream().write("quit\n1/2\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(null, in.readLine(), "closed after QUIT " + i);
+        socket.close();
+      } // for
+    } finally {
+      server.stop();
+      serverThread.join();
+    } // try/finally
+  } // testServerSessions()
+
+  /** Can a session send lines longer than the server's buffers, split across reads? */
+  @Test
+  public void testServerLongLines() throws Exception {
+    CalculatorServer server =
+        new CalculatorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, false);
+    Thread serverThread = startServer(server);
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      String big = BigInteger.valueOf(7).pow(200000).toString();
+      OutputStream out = socket.getOutputStream();
+      byte[] line = (big + " + 1/2\r\n1 + 1").getBytes(StandardCharsets.UTF_8);
+      for (int i = 0; i < line.length; i += 1000) {
+        out.write(line, i, Math.min(1000, line.length - i));
+      } // for
+      socket.shutdownOutput();
+      BufferedReader in =
+          new BufferedReader(
+              new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      assertEquals(
+          BigInteger.valueOf(7).pow(200000).multiply(BigInteger.TWO).add(BigInteger.ONE) + "/2",
+          in.readLine(),
+          "long line");
+      assertEquals("2", in.readLine(), "last line without a newline");
+      assertEquals(null, in.readLine(), "closed at end of input");
+    } finally {
+      server.stop();
+      serverThread.join();
+    } // try/finally
+  } // testServerLongLines()
+
+  /** Does a STORE to a register outside 'a' to 'z' leave the loop serving every session? */
+  @Test
+  public void testServerBadRegister() throws Exception {
+    CalculatorServer server =
+        new CalculatorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, false);
+    Thread serverThread = startServer(server);
+    try (Socket first = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        Socket second = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      first.setSoTimeout(10000);
+      second.setSoTimeout(10000);
+      first.getOutputStream().write("STORE \u00e9\n1 + 1\n".getBytes(StandardCharsets.UTF_8));
+      BufferedReader in =
+          new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+      assertEquals(
+          "*** ERROR [STORE command received invalid register] ***",
+          in.readLine(),
+          "non-ASCII register");
+      assertEquals("2", in.readLine(), "same session afterwards");
+      second.getOutputStream().write("1/2 + 1/3\n".getBytes(StandardCharsets.UTF_8));
+      BufferedReader otherIn =
+          new BufferedReader(
+              new InputStreamReader(second.getInputStream(), StandardCharsets.UTF_8));
+      assertEquals("5/6", otherIn.readLine(), "other session afterwards");
+    } finally {
+      server.stop();
+      serverThread.join();
+    } // try/finally
+  } // testServerBadRegister()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Command line              |
+  // +-----------------------------------+
+
+  /**
+   * Runs a program with standard input read from a string and standard output and error captured.
+   *
+   * @param program the program, typically a call to some main method
+   * @param input the text on standard input
+   * @return the text written to standard output and to standard error, in that order
+   */
+  private static String[] runWithStreams(Runnable program, String input) {
+    InputStream oldIn = System.in;
+    PrintStream oldOut = System.out;
+    PrintStream oldErr = System.err;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    try {
+      System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+      System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+      System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+      program.run();
+    } finally {
+      System.setIn(oldIn);
+      System.setOut(oldOut);
+      System.setErr(oldErr);
+    } // try/finally
+    return new String[] {
+      out.toString(StandardCharsets.UTF_8), err.toString(StandardCharsets.UTF_8)
+    };
+  } // runWithStreams(Runnable, String)
+
+  /** Does the interactive calculator answer piped lines in order, without prompts? */
+  @Test
+  public void testInteractiveMain() {
+    String input = "1/2 + 1/3\nSTORE a\na * 6\nSTORE 1\n1/2 / 0\n1/2 +\nquit\n2\n";
+    String[] result = runWithStreams(() -> InteractiveCalculator.main(new String[0]), input);
+    String expected =
+        String.join(
+            System.lineSeparator(),
+            "5/6",
+            "STORED",
+            "5",
+            "*** ERROR [STORE command received invalid register] ***",
+            "Cannot divide by zero.",
+            "*** ERROR [Invalid expression] ***",
+            "");
+    assertEquals(expected, result[0], "Replies in order, ending at QUIT");
+    assertFalse(result[0].contains("> "), "No prompt without a terminal");
+    assertEquals("", result[1], "Nothing on standard error");
+  } // testInteractiveMain()
+
+  /** Does the interactive calculator answer a line while only part of the next has arrived? */
+  @Test
+  public void testInteractivePartialLine() throws Exception {
+    InputStream oldIn = System.in;
+    PrintStream oldOut = System.out;
+    PipedOutputStream toCalculator = new PipedOutputStream();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Thread calculator = new Thread(() -> InteractiveCalculator.main(new String[0]));
+    try {
+      System.setIn(new PipedInputStream(toCalculator));
+      System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+      calculator.start();
+      toCalculator.write("1/2 + 1/3\n2 * ".getBytes(StandardCharsets.UTF_8));
+      toCalculator.flush();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (out.size() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      } // while
+      assertEquals("5/6" + System.lineSeparator(), out.toString(StandardCharsets.UTF_8), "Reply");
+      toCalculator.write("3\n".getBytes(StandardCharsets.UTF_8));
+      toCalculator.close();
+      calculator.join(10000);
+      assertFalse(calculator.isAlive(), "Calculator finished");
+    } finally {
+      System.setIn(oldIn);
+      System.setOut(oldOut);
+    } // try/finally
+    String expected = String.join(System.lineSeparator(), "5/6", "6", "");
+    assertEquals(expected, out.toString(StandardCharsets.UTF_8), "All replies");
+  } // testInteractivePartialLine()
+
+  /** Does QuickCalculator stream commands from a file and from standard input? */
+  @Test
+  public void testQuickInput(@TempDir Path dir) throws IOException {
+    String input = "1/2 + 1/3\nSTORE a\na * 6\nSTORE 1\n1/2 / 0\n";
+    String expected =
+        String.join(
+            System.lineSeparator(),
+            "1/2 + 1/3 -> 5/6",
+            "STORE a -> STORED",
+            "a * 6 -> 5",
+            "STORE 1: FAILED [Invalid expression]",
+            "1/2 / 0: FAILED [Invalid expression]",
+            "");
+    Path file = dir.resolve("commands.txt");
+    Files.writeString(file, input, StandardCharsets.UTF_8);
+    String[] fromFile = {"--input", file.toString()};
+    String[] result = runWithStreams(() -> QuickCalculator.main(fromFile), "");
+    assertEquals(expected, result[0], "Input from a file");
+    assertEquals("", result[1], "No errors from a file");
+    String[] fromStdin = {"--flush-every", "2", "--input", "-"};
+    result = runWithStreams(() -> QuickCalculator.main(fromStdin), input);
+    assertEquals(expected, result[0], "Input from standard input");
+    assertEquals("", result[1], "No errors from standard input");
+    for (String[] options : new String[][] {{"--input", "-"}, {"--dag", "--input", "-"}}) {
+      result = runWithStreams(() -> QuickCalculator.main(options), "STORE \u00e9\n1 + 1\n");
+      assertTrue(result[0].contains(": FAILED [Invalid expression]"), "Non-ASCII register");
+      assertTrue(result[0].endsWith("1 + 1 -> 2" + System.lineSeparator()), "After the register");
+    } // for
+  } // testQuickInput()
+
+  /** Does QuickCalculator reject flush intervals that are not positive numbers? */
+  @Test
+  public void testQuickFlushEvery() {
+    for (String interval : new String[] {"0", "-3", "many"}) {
+      String[] args = {"--flush-every", interval, "--input", "-"};
+      String[] result = runWithStreams(() -> QuickCalculator.main(args), "1 + 1\n");
+      assertEquals("", result[0], "No output for " + interval);
+      assertEquals(
+          "--flush-every requires a positive number of lines" + System.lineSeparator(),
+          result[1],
+          "Error for " + interval);
+    } // for
+  } // testQuickFlushEvery()
+
+  /**
+   * Builds random commands, one per line: expressions over numbers and registers a to d, and
+   * optionally STOREs and lines that fail in different ways.
+   *
+   * @param random the source of randomness
+   * @param count the number of lines
+   * @param mixed whether to include STOREs and failing lines
+   * @return the commands, each followed by a newline
+   */
+  private static String randomCommands(Random random, int count, boolean mixed) {
+    String[] failures = {"1/2 / 0", "1 +", "+ 1", "oops", "STORE 1", "STORE ab", ""};
+    StringBuilder commands = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      int kind = mixed ? random.nextInt(10) : 2;
+      if (kind == 0) {
+        commands.append("STORE ").append((char) ('a' + random.nextInt(4)));
+      } else if (kind == 1) {
+        commands.append(failures[random.nextInt(failures.length)]);
+      } else {
+        commands.append(random.nextInt(100) - 50).append('/').append(1 + random.nextInt(30));
+        for (int terms = random.nextInt(5); terms > 0; terms--) {
+          commands.append(' ').append("+-*/".charAt(random.nextInt(4))).append(' ');
+          if (random.nextBoolean()) {
+            commands.append(1 + random.nextInt(99));
+          } else {
+            commands.append((char) ('a' + random.nextInt(4)));
+          } // if/else
+        } // for
+      } // if/else
+      commands.append('\n');
+    } // for
+    return commands.toString();
+  } // randomCommands(Random, int, boolean)
+
+  /** Does the memory-mapped path match the Reader path when lines cross tiny mappings? */
+  @Test
+  public void testQuickMapped(@TempDir Path dir) throws Exception {
+    Random random = new Random(207);
+    StringBuilder longLine = new StringBuilder("1/7");
+    for (int i = 0; i < 500; i++) {
+      longLine.append(" + ").append(i).append('/').append(i + 2);
+    } // for
+    String input =
+        randomCommands(random, 400, true)
+            + longLine
+            + "\n1/3 + 1/6\r\nSTORE d\n"
+            + randomCommands(random, 100, true)
+            + "d * 2";
+    Path file = dir.resolve("commands.txt");
+    Files.writeString(file, input, StandardCharsets.UTF_8);
+    String[] plain = {"--input", file.toString()};
+    String expected = runWithStreams(() -> QuickCalculator.main(plain), "")[0];
+
+    // The mapped path writes straight to file descriptor 1, so it runs in its own JVM
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    URL classes = QuickCalculator.class.getProtectionDomain().getCodeSource().getLocation();
+    Process process =
+        new ProcessBuilder(
+                java,
+                "-Dbfcalc.mmap.chunk=7",
+                "-cp",
+                Path.of(classes.toURI()).toString(),
+                QuickCalculator.class.getName(),
+                "--mmap",
+                "--flush-every",
+                "5",
+                "--input",
+                file.toString())
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    String actual = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    assertEquals(0, process.waitFor(), "Mapped exit status");
+    assertTrue(expected.contains("STORE d -> STORED"), "Sequential output has STOREs");
+    assertTrue(expected.contains("1/2 / 0: FAILED"), "Sequential output has failures");
+    assertEquals(expected, actual, "Mapped output");
+  } // testQuickMapped()
+
+  /** Does --parallel match the sequential path across STORE barriers and full blocks? */
+  @Test
+  public void testQuickParallel(@TempDir Path dir) throws IOException {
+    Random random = new Random(208);
+    // Failures that do and do not reset the calculator, each followed by a STORE that sees it
+    String input =
+        randomCommands(random, 1000, true)
+            + "1/3 + 1/3\n1/2 / 0\nSTORE a\n1/5\noops\nSTORE b\n"
+            + randomCommands(random, 2 * 4096 + 100, false) // More than two blocks of 4096
+            + "STORE c\nc + a + b\n"
+            + randomCommands(random, 500, true);
+    Path file = dir.resolve("commands.txt");
+    Files.writeString(file, input, StandardCharsets.UTF_8);
+    for (String[] options : new String[][] {{}, {"--precedence"}}) {
+      List<String> sequential = new ArrayList<>(List.of(options));
+      sequential.addAll(List.of("--input", file.toString()));
+      List<String> parallel = new ArrayList<>(List.of(options));
+      parallel.addAll(List.of("--parallel", "4", "--input", file.toString()));
+      String expected =
+          runWithStreams(() -> QuickCalculator.main(sequential.toArray(new String[0])), "")[0];
+      String actual =
+          runWithStreams(() -> QuickCalculator.main(parallel.toArray(new String[0])), "")[0];
+      String mode = String.join(" ", options);
+      assertTrue(expected.contains("STORE a -> STORED"), "Sequential output " + mode);
+      assertEquals(expected, actual, "Parallel output " + mode);
+    } // for
+  } // testQuickParallel()
+
+  // +-----------------------------------+---------------------------
+  // | Tests - Large arithmetic          |
+  // +-----------------------------------+
+
+  /** Do the half-GCD and the parallel product agree with BigInteger at every size? */
+  @Test
+  public void testLargeArithmetic() {
+    Random random = new Random(207);
+    LargeArithmetic.setGcdThreshold(1 << 10);
+    LargeArithmetic.setMultiplyThreshold(1 << 10);
+    try {
+      for (int i = 0; i < 60; i++) {
+        int bits = 1000 + random.nextInt(40000);
+        BigInteger common = new BigInteger(random.nextInt(bits), random);
+        BigInteger a = new BigInteger(bits, random).multiply(common);
+        BigInteger b = new BigInteger(bits - random.nextInt(bits / 2), random).multiply(common);
+        if (i % 2 == 0) {
+          a = a.negate();
+        } // if
+        assertEquals(a.gcd(b), LargeArithmetic.gcd(a, b), "gcd " + i);
+        assertEquals(b.gcd(a), LargeArithmetic.gcd(b, a), "gcd reversed " + i);
+        assertEquals(a.multiply(b), LargeArithmetic.multiply(a, b), "product " + i);
+      } // for
+      BigInteger big = BigInteger.ONE.shiftLeft(5000).add(BigInteger.ONE);
+      assertEquals(big, LargeArithmetic.gcd(big, BigInteger.ZERO), "gcd with 0");
+      assertEquals(big, LargeArithmetic.gcd(big, big), "gcd with itself");
+      assertEquals(
+          BigInteger.ONE, LargeArithmetic.gcd(big, big.subtract(BigInteger.ONE)), "coprime");
+    } finally {
+      LargeArithmetic.setGcdThreshold(LargeArithmetic.DEFAULT_GCD_THRESHOLD);
+      LargeArithmetic.setMultiplyThreshold(LargeArithmetic.DEFAULT_MULTIPLY_THRESHOLD);
+    } // try/finally
+    assertThrows(IllegalArgumentException.class, () -> LargeArithmetic.setGcdThreshold(1), "low");
+  } // testLargeArithmetic()
+
+  /** Does fraction arithmetic give the same results with the large-operand engine enabled? */
+  @Test
+  public void testLargeFractions() {
+    BigInteger three = BigInteger.valueOf(3);
+    BigFraction x = new BigFraction(three.pow(9000), BigInteger.TEN.pow(4000).add(BigInteger.ONE));
+    BigFraction y = new BigFraction(BigInteger.TWO.pow(15000).subtract(three), three.pow(6000));
+    String[] expected = {
+      x.add(y).toString(),
+      x.multiply(y).toString(),
+      x.divide(y).toString(),
+      x.subtract(y).toString()
+    };
+    int order = x.compareTo(y);
+    LargeArithmetic.setGcdThreshold(1 << 10);
+    LargeArithmetic.setMultiplyThreshold(1 << 10);
+    try {
+      assertEquals(expected[0], x.add(y).toString(), "add");
+      assertEquals(expected[1], x.multiply(y).toString(), "multiply");
+      assertEquals(expected[2], x.divide(y).toString(), "divide");
+      assertEquals(expected[3], x.subtract(y).toString(), "subtract");
+      assertEquals(order, x.compareTo(y), "compareTo");
+    } finally {
+      LargeArithmetic.setGcdThreshold(LargeArithmetic.DEFAULT_GCD_THRESHOLD);
+      LargeArithmetic.setMultiplyThreshold(LargeArithmetic.DEFAULT_MULTIPLY_THRESHOLD);
+    } // try/finally
+  } // testLargeFractions()
+
+  // +-----------------------------------+------------------------------
+  // | Tests - Lazy normalization        |
+  // +-----------------------------------+
+
+  @Test
+  public void testLazyFractionExact() {
+    Random random = new Random(207);
+    BigFraction eager = BigFraction.valueOf(1, 3);
+    LazyFraction lazy = new LazyFraction(eager);
+    for (int i = 0; i < 400; i++) {
+      BigFraction val =
+          (i % 4 == 0)
+              ? new BigFraction(new BigInteger(300, random), new BigInteger(200, random).setBit(0))
+              : BigFraction.valueOf(random.nextInt(2001) - 1000, random.nextInt(64) + 1);
+      LazyFraction lazyVal = new LazyFraction(val);
+      switch (random.nextInt(4)) {
+        case 0:
+          eager = eager.add(val);
+          lazy = lazy.add(lazyVal);
+          break;
+        case 1:
+          eager = eager.subtract(val);
+          lazy = lazy.subtract(lazyVal);
+          break;
+        case 2:
+          eager = eager.multiply(val);
+          lazy = lazy.multiply(lazyVal);
+          break;
+        default:
+          if (val.signum() != 0) {
+            eager = eager.divide(val);
+            lazy = lazy.divide(lazyVal);
+          } // if
+      } // switch
+      assertEquals(eager.signum(), lazy.signum(), "signum " + i);
+      if (i % 25 == 0) {
+        assertEquals(eager.toString(), lazy.toString(), "toString " + i);
+        assertEquals(eager.numerator(), lazy.numerator(), "numerator " + i);
+        assertEquals(eager.denominator(), lazy.denominator(), "denominator " + i);
+      } // if
+    } // for
+    assertEquals(eager, lazy.toBigFraction(), "result");
+    LazyFraction unreduced =
+        new LazyFraction(BigInteger.valueOf(-6), BigInteger.valueOf(-4)).negate();
+    assertEquals("-3/2", unreduced.toString(), "negated");
+    assertEquals(
+        new LazyFraction(BigFraction.valueOf(-3, 2)), unreduced, "equal to the reduced form");
+    assertEquals(
+        new LazyFraction(BigFraction.valueOf(-3, 2)).hashCode(), unreduced.hashCode(), "hash");
+    assertThrows(
+        ArithmeticException.class,
+        () -> new LazyFraction(BigInteger.ONE, BigInteger.ZERO),
+        "zero denominator");
+    assertThrows(
+        ArithmeticException.class,
+        () -> unreduced.divide(new LazyFraction(BigInteger.ZERO, BigInteger.TEN)),
+        "divide by zero");
+  } // testLazyFractionExact()
+
+  @Test
+  public void testLazyFractionDeferred() {
+    Random random = new Random(207);
+    BigInteger prime = BigInteger.probablePrime(512, random);
+    BigFraction eager = BigFraction.valueOf(0, 1);
+    LazyFraction lazy = new LazyFraction(eager);
+    for (int i = 0; i < 200; i++) {
+      BigFraction term = new BigFraction(new BigInteger(500, random), prime);
+      eager = eager.add(term);
+      lazy = lazy.add(new LazyFraction(term));
+    } // for
+    assertFalse(lazy.isReduced(), "sum of terms with one denominator");
+    assertTrue(lazy.compareTo(new LazyFraction(eager.add(BigFraction.valueOf(1, 2)))) < 0, "less");
+    assertEquals(0, lazy.compareTo(new LazyFraction(eager)), "same");
+    assertFalse(lazy.isReduced(), "compared without reducing");
+    assertEquals(eager.toString(), lazy.toString(), "sum");
+    assertTrue(lazy.isReduced(), "reduced once observed");
+
+    LazyFraction power = new LazyFraction(BigFraction.valueOf(3, 2));
+    LazyFraction big = new LazyFraction(BigInteger.TEN.pow(300), BigInteger.TEN.pow(299));
+    int reductions = 0;
+    for (int i = 0; i < 500; i++) {
+      power = power.multiply(big);
+      reductions += power.isReduced() ? 1 : 0;
+    } // for
+    assertTrue(reductions > 0, "reduced once it outgrew the threshold");
+    BigFraction expected =
+        new BigFraction(BigInteger.TEN.pow(500).multiply(BigInteger.valueOf(3)), BigInteger.TWO);
+    assertEquals(expected, power.toBigFraction(), "product");
+  } // testLazyFractionDeferred()
+
+  // +-----------------------------------+------------------------------
+  // | Tests - Expression DAG            |
+  // +-----------------------------------+
+
+  /** Does a shared DAG give the same results, errors and stored values as the compiler? */
+  @Test
+  public void testDagMatchesCompiler() {
+    String[] lines = {
+      "1/2",
+      "STORE a",
+      "2/3",
+      "STORE b",
+      "a * b + 1/3",
+      "b * a - 1",
+      "a / 0",
+      "STORE c",
+      "c + 1",
+      "1 + X",
+      "STORE d",
+      "d * a * b",
+      "a * b + 1/3",
+      "-(a + b) * (b + a)",
+      "(a * b",
+      "a - a / b",
+      "STORE a",
+      "a * b + 1/3",
+      "a / (b - 2/3)",
+      "STORE e",
+      "e + a * b"
+    };
+    for (boolean precedence : new boolean[] {false, true}) {
+      BFCalculator expected = new BFCalculator();
+      BFRegisterSet expectedRegisters = new BFRegisterSet();
+      ExpressionCompiler compiler = new ExpressionCompiler(16, precedence);
+      BFCalculator actual = new BFCalculator();
+      BFRegisterSet actualRegisters = new BFRegisterSet();
+      ExpressionDag dag =
+          new ExpressionDag(actual, actualRegisters, new ExpressionCompiler(16, precedence));
+      for (String line : lines) {
+        if (line.startsWith("STORE ")) {
+          expectedRegisters.store(line.charAt(6), expected.get());
+          dag.store(line.charAt(6));
+          continue;
+        } // if
+        String want;
+        String got;
+        try {
+          want = compiler.evaluate(line, expected, expectedRegisters).toString();
+        } catch (IllegalArgumentException | ArithmeticException e) {
+          want = e.getMessage();
+        } // try/catch
+        try {
+          got = dag.evaluate(line).toString();
+        } catch (IllegalArgumentException | ArithmeticException e) {
+          got = e.getMessage();
+        } // try/catch
+        assertEquals(want, got, line + (precedence ? " with precedence" : ""));
+        assertEquals(expected.get(), actual.get(), "calculator after " + line);
+      } // for
+    } // for
+  } // testDagMatchesCompiler()
+
+  /** Are shared nodes computed once and recomputed only after a store they depend on? */
+  @Test
+  public void testDagSharing() {
+    BFCalculator bfc = new BFCalculator();
+    BFRegisterSet registers = new BFRegisterSet();
+    ExpressionDag dag = new ExpressionDag(bfc, registers, new ExpressionCompiler());
+    registers.store('a', ONE_HALF);
+    registers.store('b', ONE_THIRD);
+    assertEquals("7/6", dag.evaluate("a * b + 1").toString(), "first");
+    assertEquals(4, dag.computed(), "a, b, a * b and the sum");
+    assertEquals("13/6", dag.evaluate("b * a + 2").toString(), "commuted");
+    assertEquals(5, dag.computed(), "only the new sum");
+    assertEquals("7/6", dag.evaluate("a * b + 1").toString(), "repeated");
+    assertEquals(5, dag.computed(), "nothing new");
+    dag.store('c');
+    assertEquals("7/6", dag.evaluate("a * b + 1").toString(), "after an unrelated store");
+    assertEquals(5, dag.computed(), "still nothing new");
+    assertEquals("7/6", dag.evaluate("c * 1").toString(), "stored value");
+    dag.store('a');
+    assertEquals("25/18", dag.evaluate("a * b + 1").toString(), "after storing a");
+    assertEquals(10, dag.computed(), "c, c * 1, and then a, a * b and the sum again");
+
+    ExpressionDag small = new ExpressionDag(bfc, registers, new ExpressionCompiler(), 40);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(String.valueOf(i + 1), small.evaluate(i + " + 1").toString(), "bounded " + i);
+    } // for
+    assertTrue(small.size() <= 43, "rebuilt at its capacity");
+    for (int i = 1; i <= 100; i++) {
+      assertEquals("1/2", small.evaluate(i + "/" + (2 * i)).toString(), "same node " + i);
+    } // for
+    assertTrue(small.expressions() <= 40, "rebuilt at its capacity of expressions");
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new ExpressionDag(
+                bfc, registers, new ExpressionCompiler(), ExpressionDag.MAX_CAPACITY + 1),
+        "capacity beyond the node keys");
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ExpressionDag(bfc, registers, new ExpressionCompiler(), 3),
+        "capacity below the registers");
+  } // testDagSharing()
 } // class TestMP02